@@ -0,0 +1,140 @@
+package org.lemming.data;
+
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lemming.interfaces.Store;
+
+/**
+ * Base class of the stores keeping track of the end of the stream. Every writer announces itself with {@link #registerProducer()}
+ * and calls {@link #close()} when it has put its last element. The store is closed when the last registered writer closed it,
+ * or at the first close if no writer registered. Subclasses wake up their waiting readers in {@link #onClose()}.
+ *
+ * @param <DataType> - data type
+ */
+public abstract class AbstractStore<DataType> implements Store<DataType> {
+
+	/**
+	 * returned by the pollers of the waiting stores once the store is closed and drained, and put at the end of the
+	 * queue of a queue based store to wake up its blocked readers
+	 */
+	protected static final Object CLOSED = new Object();
+
+	private final AtomicInteger producers = new AtomicInteger();
+	private volatile boolean closed;
+
+	@Override
+	public void registerProducer() {
+		if (closed)
+			throw new IllegalStateException("Store is already closed");
+		producers.incrementAndGet();
+	}
+
+	@Override
+	public void close() {
+		for (;;) {
+			final int p = producers.get();
+			if (p > 1) {
+				if (producers.compareAndSet(p, p - 1)) return;
+				continue;
+			}
+			if (p == 0 || producers.compareAndSet(p, 0)) break;
+		}
+		if (closed) return;
+		closed = true;
+		onClose();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return Returns the number of registered writers that did not close the store yet.
+	 */
+	public int getProducerCount() {
+		return producers.get();
+	}
+
+	/**
+	 * @return Returns the number of elements in the store, -1 if the store does not keep count.
+	 */
+	public int getLength() {
+		return -1;
+	}
+
+	/**
+	 * Called once when the store gets closed, wakes up readers waiting for elements.
+	 */
+	protected void onClose() {
+	}
+
+	/**
+	 * Takes the next element of a blocking queue. A reader blocks until an element is available or the store is closed,
+	 * see {@link #closeQueue(BlockingQueue)}.
+	 *
+	 * @param q - the queue backing the store
+	 * @return the next element or null if the store is closed and drained or the calling thread was interrupted
+	 */
+	protected DataType take(BlockingQueue<DataType> q) {
+		try {
+			final DataType el = q.take();
+			if (el != CLOSED) return el;
+			q.offer(el); // leave the marker for the other readers
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * Wakes up the readers blocked in {@link #take(BlockingQueue)} by putting the CLOSED marker behind the last element.
+	 * The marker stays in the queue, the other queue helpers of this class skip it. Called from onClose.
+	 *
+	 * @param q - the queue backing the store
+	 */
+	@SuppressWarnings("unchecked")
+	protected void closeQueue(BlockingQueue<DataType> q) {
+		q.offer((DataType) CLOSED);
+	}
+
+	/**
+	 * @param q - the queue backing the store
+	 * @return true if the queue holds no element besides the CLOSED marker
+	 */
+	protected boolean isEmpty(BlockingQueue<DataType> q) {
+		final DataType el = q.peek();
+		return el == null || el == CLOSED;
+	}
+
+	/**
+	 * Drains the queue, the CLOSED marker is kept in the queue.
+	 *
+	 * @param q - the queue backing the store
+	 * @param buffer - caller supplied collection receiving the elements
+	 * @param maxElements - the maximum number of elements to transfer
+	 * @return the number of elements transferred
+	 */
+	protected int drainTo(BlockingQueue<DataType> q, Collection<? super DataType> buffer, int maxElements) {
+		final int n = q.drainTo(buffer, maxElements);
+		// the marker is put after closed is set, so it can only have been drained if the store is closed
+		if (n > 0 && closed && buffer.remove(CLOSED)) {
+			closeQueue(q);
+			return n - 1;
+		}
+		return n;
+	}
+
+	/**
+	 * @param q - the queue backing the store
+	 * @return the number of elements in the queue, without the CLOSED marker
+	 */
+	protected int length(BlockingQueue<DataType> q) {
+		final int n = q.size();
+		return closed && n > 0 ? n - 1 : n;
+	}
+
+}
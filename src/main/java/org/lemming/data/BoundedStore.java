@@ -0,0 +1,312 @@
+package org.lemming.data;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.lemming.interfaces.Frame;
+
+/**
+ * The BoundedStore implements a Store on a ring buffer of fixed capacity. A writer is blocked while the buffer is full
+ * (or while the optional byte budget is used up) and a reader is blocked while the buffer is empty. A fast Source is therefore
+ * throttled to the speed of its slowest consumer instead of buffering the whole movie on the heap.
+ * The time spent blocked on each side is accumulated and can be queried with {@link #getPutBlockedNanos()} and {@link #getGetBlockedNanos()}.
+ *
+ * @param <DataType> - data type
+ */
+public class BoundedStore<DataType> extends AbstractStore<DataType> {
+
+	/**
+	 * Estimates the memory footprint of an element in bytes.
+	 *
+	 * @param <T> - data type
+	 */
+	public interface Sizer<T> {
+		/**
+		 * @param element - element to measure
+		 * @return size of the element in bytes
+		 */
+		public long sizeOf(T element);
+	}
+
+	private final Object[] items;
+	// the size of each element as measured when it was put, null without a sizer
+	private final long[] sizes;
+	private int head;
+	private int tail;
+	private int count;
+
+	private final Sizer<? super DataType> sizer;
+	private final long maxBytes;
+	private long bytes;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	private volatile long putBlockedNanos;
+	private volatile long getBlockedNanos;
+
+	/**
+	 * @param capacity - maximum number of elements in the store
+	 */
+	public BoundedStore(int capacity) {
+		this(capacity, Long.MAX_VALUE, null);
+	}
+
+	/**
+	 * @param capacity - maximum number of elements in the store
+	 * @param maxBytes - maximum number of bytes held by the store, as measured by the sizer
+	 * @param sizer - estimates the size of each element
+	 */
+	public BoundedStore(int capacity, long maxBytes, Sizer<? super DataType> sizer) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		if (maxBytes < 1)
+			throw new IllegalArgumentException("Byte capacity must be positive: " + maxBytes);
+		if (sizer == null && maxBytes != Long.MAX_VALUE)
+			throw new IllegalArgumentException("A byte capacity needs a sizer");
+		this.items = new Object[capacity];
+		this.sizes = sizer == null ? null : new long[capacity];
+		this.maxBytes = maxBytes;
+		this.sizer = sizer;
+	}
+
+	/**
+	 * @param bytesPerPixel - number of bytes per pixel (e.g. 2 for UnsignedShortType)
+	 * @return a Sizer measuring the pixel data of a Frame
+	 */
+	public static Sizer<Frame<?>> frameSizer(final int bytesPerPixel) {
+		return new Sizer<Frame<?>>() {
+			@Override
+			public long sizeOf(Frame<?> element) {
+				return (long) element.getWidth() * element.getHeight() * bytesPerPixel;
+			}
+		};
+	}
+
+	/**
+	 * Note: blocks the caller while the store is full. The element is never discarded: an interrupt does not end the wait,
+	 * the interrupt status is restored once the element is stored. Use {@link #offer(Object, long, TimeUnit)} for a put
+	 * that can be cancelled.
+	 */
+	@Override
+	public void put(DataType el) {
+		if (el == null) throw new NullPointerException();
+		final long size = sizer == null ? 0 : sizer.sizeOf(el);
+		boolean interrupted = false;
+		lock.lock();
+		try {
+			if (isFull(size)) {
+				final long start = System.nanoTime();
+				try {
+					while (isFull(size)) {
+						try {
+							notFull.await();
+						} catch (InterruptedException e) {
+							interrupted = true;
+						}
+					}
+				} finally {
+					putBlockedNanos += System.nanoTime() - start;
+				}
+			}
+			enqueue(el, size);
+		} finally {
+			lock.unlock();
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Adds the element, waiting up to the specified time for space to become available.
+	 *
+	 * @param el - the element to be put
+	 * @param timeout - how long to wait
+	 * @param unit - unit of timeout
+	 * @return true if the element was added, false if the time elapsed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean offer(DataType el, long timeout, TimeUnit unit) throws InterruptedException {
+		if (el == null) throw new NullPointerException();
+		final long size = sizer == null ? 0 : sizer.sizeOf(el);
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			if (isFull(size)) {
+				final long start = System.nanoTime();
+				try {
+					while (isFull(size)) {
+						if (nanos <= 0) return false;
+						nanos = notFull.awaitNanos(nanos);
+					}
+				} finally {
+					putBlockedNanos += System.nanoTime() - start;
+				}
+			}
+			enqueue(el, size);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void enqueue(DataType el, long size) {
+		items[tail] = el;
+		if (sizes != null) sizes[tail] = size;
+		if (++tail == items.length) tail = 0;
+		count++;
+		bytes += size;
+		notEmpty.signal();
+	}
+
+	// an oversized element is still admitted into an empty store, otherwise it would never get through
+	private boolean isFull(long size) {
+		return count == items.length || (count > 0 && bytes + size > maxBytes);
+	}
+
+	/**
+	 * Note: blocks the caller if empty.
+	 *
+	 * @return the next element or null if the store is closed and drained or the calling thread was interrupted, its
+	 *         interrupt status is set again
+	 */
+	@Override
+	public DataType get() {
+		try {
+			return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * Retrieves and removes the next element, waiting up to the specified time for one to become available.
+	 *
+	 * @param timeout - how long to wait
+	 * @param unit - unit of timeout
+	 * @return the next element or null if the time elapsed or the store is closed and drained
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public DataType poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			if (count == 0) {
+				final long start = System.nanoTime();
+				try {
+					while (count == 0) {
+						if (nanos <= 0 || isClosed()) return null;
+						nanos = notEmpty.awaitNanos(nanos);
+					}
+				} finally {
+					getBlockedNanos += System.nanoTime() - start;
+				}
+			}
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private DataType dequeue() {
+		final DataType el = (DataType) items[head];
+		items[head] = null;
+		if (sizes != null) bytes -= sizes[head];
+		if (++head == items.length) head = 0;
+		count--;
+		notFull.signalAll();
+		return el;
+	}
+
+	@Override
+	public int drainTo(Collection<? super DataType> buffer, int maxElements) {
+		lock.lock();
+		try {
+			final int n = Math.min(count, maxElements);
+			for (int i = 0; i < n; i++)
+				buffer.add(dequeue());
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Note: blocks the caller while the store is full. Like put, it stores every element even if the calling thread is interrupted.
+	 */
+	@Override
+	public void putAll(Collection<? extends DataType> elements) {
+		for (DataType el : elements)
+			put(el);
+	}
+
+	@Override
+	protected void onClose() {
+		lock.lock();
+		try {
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		lock.lock();
+		try {
+			return count == 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Returns the length of the queue.
+	 */
+	public int getLength() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Returns the number of bytes currently held, as measured by the sizer.
+	 */
+	public long getBytes() {
+		lock.lock();
+		try {
+			return bytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Returns the maximum number of elements.
+	 */
+	public int getCapacity() {
+		return items.length;
+	}
+
+	/**
+	 * @return Returns the total time in nanoseconds writers spent waiting for free space.
+	 */
+	public long getPutBlockedNanos() {
+		return putBlockedNanos;
+	}
+
+	/**
+	 * @return Returns the total time in nanoseconds readers spent waiting for new elements.
+	 */
+	public long getGetBlockedNanos() {
+		return getBlockedNanos;
+	}
+
+}
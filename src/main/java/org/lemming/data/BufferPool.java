@@ -0,0 +1,124 @@
+package org.lemming.data;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of pixel arrays reused from frame to frame. Arrays are kept per element type and length, a taken array is
+ * returned with {@link #release(Object)} when the frame using it was consumed, typically by {@link ImgLib2Frame#release()}.
+ * The content of a taken array is undefined.
+ * <p>
+ * At most maxRetained arrays of every type and length are kept, further released arrays are left to the garbage
+ * collector, so frames that are never released only cost an allocation.
+ */
+public class BufferPool {
+
+	private static final BufferPool defaultPool = new BufferPool(64);
+
+	private final int maxRetained;
+	private final ConcurrentMap<Integer, BlockingQueue<short[]>> shorts = new ConcurrentHashMap<Integer, BlockingQueue<short[]>>();
+	private final ConcurrentMap<Integer, BlockingQueue<float[]>> floats = new ConcurrentHashMap<Integer, BlockingQueue<float[]>>();
+	private final ConcurrentMap<Integer, BlockingQueue<byte[]>> bytes = new ConcurrentHashMap<Integer, BlockingQueue<byte[]>>();
+	private final AtomicLong allocated = new AtomicLong();
+	private final AtomicLong reused = new AtomicLong();
+
+	/**
+	 * @param maxRetained - maximum number of free arrays kept per type and length
+	 */
+	public BufferPool(int maxRetained) {
+		this.maxRetained = Math.max(1, maxRetained);
+	}
+
+	/**
+	 * @return the pool shared by the loaders and processors
+	 */
+	public static BufferPool getDefault() {
+		return defaultPool;
+	}
+
+	private <A> BlockingQueue<A> queue(ConcurrentMap<Integer, BlockingQueue<A>> map, int length) {
+		BlockingQueue<A> q = map.get(length);
+		if (q == null) {
+			final BlockingQueue<A> created = new ArrayBlockingQueue<A>(maxRetained);
+			q = map.putIfAbsent(length, created);
+			if (q == null) q = created;
+		}
+		return q;
+	}
+
+	private <A> A count(A array) {
+		if (array == null)
+			allocated.incrementAndGet();
+		else
+			reused.incrementAndGet();
+		return array;
+	}
+
+	/**
+	 * @param length - number of elements
+	 * @return a free array of the pool or a new one
+	 */
+	public short[] takeShorts(int length) {
+		final short[] a = count(queue(shorts, length).poll());
+		return a != null ? a : new short[length];
+	}
+
+	/**
+	 * @param length - number of elements
+	 * @return a free array of the pool or a new one
+	 */
+	public float[] takeFloats(int length) {
+		final float[] a = count(queue(floats, length).poll());
+		return a != null ? a : new float[length];
+	}
+
+	/**
+	 * @param length - number of elements
+	 * @return a free array of the pool or a new one
+	 */
+	public byte[] takeBytes(int length) {
+		final byte[] a = count(queue(bytes, length).poll());
+		return a != null ? a : new byte[length];
+	}
+
+	/**
+	 * Returns an array to the pool, it must not be used afterwards.
+	 *
+	 * @param array - a short[], float[] or byte[], other objects are ignored
+	 */
+	public void release(Object array) {
+		if (array instanceof short[])
+			queue(shorts, ((short[]) array).length).offer((short[]) array);
+		else if (array instanceof float[])
+			queue(floats, ((float[]) array).length).offer((float[]) array);
+		else if (array instanceof byte[])
+			queue(bytes, ((byte[]) array).length).offer((byte[]) array);
+	}
+
+	/**
+	 * @return Returns the number of arrays that had to be allocated.
+	 */
+	public long getAllocated() {
+		return allocated.get();
+	}
+
+	/**
+	 * @return Returns the number of arrays taken from the pool.
+	 */
+	public long getReused() {
+		return reused.get();
+	}
+
+	/**
+	 * Drops all free arrays.
+	 */
+	public void clear() {
+		shorts.clear();
+		floats.clear();
+		bytes.clear();
+	}
+
+}
@@ -1,5 +1,6 @@
 package org.lemming.data;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -123,7 +124,7 @@ public class ExtendableTable {
 	 * @return a class implementing the Store interface.
 	 */
 	public Store<Map<String,Object>> getFIFO() {
-		return new Store<Map<String,Object>> () {
+		return new AbstractStore<Map<String,Object>> () {
 			int lastRow = 0;
 						
 			@Override
@@ -143,12 +144,34 @@ public class ExtendableTable {
 				return getRow(lastRow++);
 			}
 			
+			@Override
+			public int drainTo(Collection<? super Map<String, Object>> buffer, int maxElements) {
+				int n = 0;
+				while (n < maxElements && !isEmpty()) {
+					buffer.add(getRow(lastRow++));
+					n++;
+				}
+				return n;
+			}
+			
+			@Override
+			public void putAll(Collection<? extends Map<String, Object>> elements) {
+				for (Map<String, Object> el : elements)
+					put(el);
+			}
+			
 			@Override
 			public void put(Map<String, Object> el) {
 				addRow(el);
 				nRows++;			
 			}			
 
+			@Override
+			public boolean isClosed() {
+				// a view on a filled table is complete, unless a registered writer still adds rows
+				return getProducerCount() == 0;
+			}
+
 		};
 	}
 }
@@ -1,7 +1,6 @@
 package org.lemming.data;
 
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Collection;
 
 import org.lemming.interfaces.Peekable;
 import org.lemming.interfaces.Store;
@@ -9,19 +8,38 @@ import org.lemming.interfaces.Store;
 import javolution.util.FastTable;
 
 /**
+ * The FastStore implements a Store on a FastTable. A reader of an empty store waits according to the store's WaitStrategy,
+ * by default it parks, so idle consumers do not burn a core.
+ * 
  * @author Ronny Sczech
  *
  * @param <DataType> - data type
  */
-public class FastStore<DataType> implements Store<DataType>, Peekable<DataType> {
+public class FastStore<DataType> extends AbstractStore<DataType> implements Peekable<DataType> {
 	
 	private FastTable<DataType> q = new FastTable<DataType>();
-	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final WaitStrategy waitStrategy;
+	private final WaitStrategy.Poller<Object> poller = new WaitStrategy.Poller<Object>() {
+		@Override
+		public Object poll() {
+			final boolean closed = isClosed(); // read first, elements put before close are then visible
+			final DataType el = q.poll();
+			return el != null || !closed ? el : CLOSED;
+		}
+	};
 		
 	/**
 	 * 
 	 */
 	public FastStore(){
+		this(WaitStrategy.park());
+	}
+	
+	/**
+	 * @param waitStrategy - how readers wait on an empty store
+	 */
+	public FastStore(WaitStrategy waitStrategy){
+		this.waitStrategy = waitStrategy;
 	}
 
 	/**
@@ -36,11 +54,13 @@ public class FastStore<DataType> implements Store<DataType>, Peekable<DataType>
 	 */
 	public void putTable(FastTable<DataType> t){
 		q.addAll(t);
+		waitStrategy.signalAll();
 	}
 	
 	@Override
 	public void put(DataType el) {
-		q.offer(el);	
+		q.offer(el);
+		waitStrategy.signalAll();
 	}
 
 	@Override
@@ -48,20 +68,33 @@ public class FastStore<DataType> implements Store<DataType>, Peekable<DataType>
 		return q.isEmpty();
 	}
 
+	/**
+	 * Note: waits according to the WaitStrategy if empty.
+	 * 
+	 * @return the next element or null if the store is closed and drained or the calling thread was interrupted
+	 */
 	@Override
+	@SuppressWarnings("unchecked")
 	public DataType get() {
-		DataType res = null;
-		lock.readLock().lock();
-		try{
-			while (!isEmpty()){
-				res = q.poll();
-				if (res != null) break;
-			} 
-		} finally {
-			lock.readLock().unlock();
+		final Object el = waitStrategy.await(poller);
+		return el == CLOSED ? null : (DataType) el;
+	}
+	
+	@Override
+	public int drainTo(Collection<? super DataType> buffer, int maxElements) {
+		int n = 0;
+		DataType el;
+		while (n < maxElements && (el = q.poll()) != null) {
+			buffer.add(el);
+			n++;
 		}
-		
-		return res;
+		return n;
+	}
+	
+	@Override
+	public void putAll(Collection<? extends DataType> elements) {
+		q.addAll(elements);
+		waitStrategy.signalAll();
 	}
 	
 	/**
@@ -70,6 +103,18 @@ public class FastStore<DataType> implements Store<DataType>, Peekable<DataType>
 	public int getLength() {
 		return q.size();
 	}
+	
+	/**
+	 * @return Returns the WaitStrategy with the waiting statistics of this store.
+	 */
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	@Override
+	protected void onClose() {
+		waitStrategy.signalAll();
+	}
 
 	@Override
 	public Store<DataType> newPeek() {
@@ -77,22 +122,43 @@ public class FastStore<DataType> implements Store<DataType>, Peekable<DataType>
 
 			@Override
 			public void put(DataType el) {
-				q.offer(el);
+				FastStore.this.put(el);
 			}
 
 			@Override
 			public DataType get() {
-				DataType res = null;
-				do {
-				res = q.poll();
-				} while (res  == null);
-				return res;
+				return FastStore.this.get();
 			}
 
 			@Override
 			public boolean isEmpty() {
 				return q.isEmpty();
 			}
+
+			@Override
+			public int drainTo(Collection<? super DataType> buffer, int maxElements) {
+				return FastStore.this.drainTo(buffer, maxElements);
+			}
+
+			@Override
+			public void putAll(Collection<? extends DataType> elements) {
+				FastStore.this.putAll(elements);
+			}
+
+			@Override
+			public void registerProducer() {
+				FastStore.this.registerProducer();
+			}
+
+			@Override
+			public void close() {
+				FastStore.this.close();
+			}
+
+			@Override
+			public boolean isClosed() {
+				return FastStore.this.isClosed();
+			}
 			
 		};
 	}
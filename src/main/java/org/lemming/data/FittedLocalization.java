@@ -0,0 +1,78 @@
+package org.lemming.data;
+
+/**
+ * A localization with X, Y, ID and frame refined by a fit of a Gaussian, with the photon count, the background, the
+ * width of the spot and the precisions of the fit. The intensity and the background are in photons, the position, the
+ * sigmas and the precisions in pixels.
+ */
+public class FittedLocalization extends XYFLocalization {
+
+	private final double intensity;
+	private final double background;
+	private final double sigmaX, sigmaY;
+	private final double precisionX, precisionY;
+
+	/**
+	 * @param frame - frame
+	 * @param x - x
+	 * @param y - y
+	 * @param intensity - total intensity of the spot above the background in photons
+	 * @param background - background per pixel in photons
+	 * @param sigmaX - sigma of the spot in x
+	 * @param sigmaY - sigma of the spot in y
+	 * @param precisionX - standard deviation of x
+	 * @param precisionY - standard deviation of y
+	 */
+	public FittedLocalization(long frame, double x, double y, double intensity, double background, double sigmaX, double sigmaY,
+			double precisionX, double precisionY) {
+		super(frame, x, y);
+		this.intensity = intensity;
+		this.background = background;
+		this.sigmaX = sigmaX;
+		this.sigmaY = sigmaY;
+		this.precisionX = precisionX;
+		this.precisionY = precisionY;
+	}
+
+	/**
+	 * @return Returns the total intensity of the spot above the background in photons.
+	 */
+	public double getIntensity() {
+		return intensity;
+	}
+
+	/**
+	 * @return Returns the background per pixel in photons.
+	 */
+	public double getBackground() {
+		return background;
+	}
+
+	/**
+	 * @return Returns the sigma of the spot in x.
+	 */
+	public double getSigmaX() {
+		return sigmaX;
+	}
+
+	/**
+	 * @return Returns the sigma of the spot in y.
+	 */
+	public double getSigmaY() {
+		return sigmaY;
+	}
+
+	/**
+	 * @return Returns the standard deviation of x.
+	 */
+	public double getPrecisionX() {
+		return precisionX;
+	}
+
+	/**
+	 * @return Returns the standard deviation of y.
+	 */
+	public double getPrecisionY() {
+		return precisionY;
+	}
+}
@@ -5,6 +5,7 @@ import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -301,7 +302,7 @@ public class HashWorkspace implements Workspace {
 	 */
 	@Deprecated
 	public Store<Localization> getLIFO() {
-		return new Store<Localization> () {
+		return new AbstractStore<Localization> () {
 			int lastRow = getNumberOfRows()-1; 
 			
 			@Override
@@ -318,6 +319,22 @@ public class HashWorkspace implements Workspace {
 				return row;
 			}
 			
+			@Override
+			public int drainTo(Collection<? super Localization> buffer, int maxElements) {
+				int n = 0;
+				while (n < maxElements && !isEmpty()) {
+					buffer.add(getGenericRow(lastRow--));
+					n++;
+				}
+				return n;
+			}
+			
+			@Override
+			public void putAll(Collection<? extends Localization> elements) {
+				for (Localization el : elements)
+					put(el);
+			}
+			
 			@Override
 			public void put(Localization el) {
 				GenericLocalization g = (GenericLocalization) el;
@@ -329,6 +346,12 @@ public class HashWorkspace implements Workspace {
 				nRows++;		
 			}
 
+			@Override
+			public boolean isClosed() {
+				// a view on a filled table is complete, unless a registered writer still adds rows
+				return getProducerCount() == 0;
+			}
+
 		};
 	}
 	
@@ -348,7 +371,7 @@ public class HashWorkspace implements Workspace {
 	 * @return a class implementing the Store of Localization interface.
 	 */
 	public Store<Localization> getFIFO() {
-		return new Store<Localization> () {
+		return new AbstractStore<Localization> () {
 			int lastRow = 0; 
 			
 			@Override
@@ -370,6 +393,22 @@ public class HashWorkspace implements Workspace {
 				return row;
 			}
 			
+			@Override
+			public int drainTo(Collection<? super Localization> buffer, int maxElements) {
+				int n = 0;
+				while (n < maxElements && !isEmpty()) {
+					buffer.add(getGenericRow(lastRow++));
+					n++;
+				}
+				return n;
+			}
+			
+			@Override
+			public void putAll(Collection<? extends Localization> elements) {
+				for (Localization el : elements)
+					put(el);
+			}
+			
 			@Override
 			public void put(Localization el) {
 				if (el instanceof GenericLocalization) {
@@ -401,6 +440,12 @@ public class HashWorkspace implements Workspace {
 				}
 			}
 
+			@Override
+			public boolean isClosed() {
+				// a view on a filled table is complete, unless a registered writer still adds rows
+				return getProducerCount() == 0;
+			}
+
 		};
 	}
 	
@@ -1,5 +1,7 @@
 package org.lemming.data;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.lemming.interfaces.Frame;
 
 import net.imglib2.RandomAccessibleInterval;
@@ -7,6 +9,10 @@ import net.imglib2.type.numeric.RealType;
 
 /**
  * This class wraps an ImgLib2 image and provides the interface to Frame.
+ * <p>
+ * A frame whose pixels come from a {@link BufferPool} counts its consumers: the module consuming the frame calls
+ * release, a module passing the frame to several consumers calls retain for every additional one. The pixel array
+ * goes back to the pool when the last consumer released the frame.
  * 
  * @author Thomas Pengo, Joe Borbely
  * @param <T> - data type
@@ -19,6 +25,9 @@ public class ImgLib2Frame <T extends RealType<T>> implements Frame<T> {
 	private int height;
 	private RandomAccessibleInterval<T> slice;
 	private boolean isLast = false;
+	private final Object buffer;
+	private final BufferPool pool;
+	private final AtomicInteger references = new AtomicInteger(1);
 	
 	/**
 	 * Creates a Frame with a reference to the appropriate (2D, although not enforced, yet) frame. 
@@ -29,10 +38,68 @@ public class ImgLib2Frame <T extends RealType<T>> implements Frame<T> {
 	 * @param slice - slice
 	 */
 	public ImgLib2Frame(long frameNo, int width, int height, RandomAccessibleInterval<T> slice) {
+		this(frameNo, width, height, slice, null, null);
+	}
+	
+	/**
+	 * Creates a Frame whose pixels are backed by an array of a pool.
+	 * 
+	 * @param frameNo - frame number
+	 * @param width - width
+	 * @param height - height
+	 * @param slice - slice
+	 * @param buffer - the pixel array of the slice, taken from the pool
+	 * @param pool - the pool receiving the array on the last release
+	 */
+	public ImgLib2Frame(long frameNo, int width, int height, RandomAccessibleInterval<T> slice, Object buffer, BufferPool pool) {
 		this.frameNo = frameNo;
 		this.width = width;
 		this.height = height;
 		this.slice = slice;
+		this.buffer = buffer;
+		this.pool = pool;
+	}
+	
+	/**
+	 * Adds a consumer of this frame.
+	 */
+	public void retain() {
+		references.incrementAndGet();
+	}
+	
+	/**
+	 * Ends the use of this frame by a consumer. After the last release the pixels must not be accessed anymore,
+	 * releasing a frame more often than it was retained has no effect.
+	 */
+	public void release() {
+		for (;;) {
+			final int r = references.get();
+			if (r <= 0) return;
+			if (references.compareAndSet(r, r - 1)) {
+				if (r == 1 && pool != null) pool.release(buffer);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Releases a frame consumed by a module. A module turning frames into other elements, e.g. a detector emitting
+	 * localizations, consumes its input frames and calls this once it has read the pixels for the last time, also when
+	 * processing fails. A module passing a frame on to its output does not release it.
+	 * 
+	 * @param element - any element, frames are released
+	 */
+	public static void release(Object element) {
+		if (element instanceof ImgLib2Frame)
+			((ImgLib2Frame<?>) element).release();
+	}
+	
+	/**
+	 * @param element - any element, frames get an additional consumer
+	 */
+	public static void retain(Object element) {
+		if (element instanceof ImgLib2Frame)
+			((ImgLib2Frame<?>) element).retain();
 	}
 	
 	@Override
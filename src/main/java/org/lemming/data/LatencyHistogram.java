@@ -0,0 +1,120 @@
+package org.lemming.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds with a fixed relative precision, in the style of HdrHistogram. Every power of two
+ * is divided into 32 linear sub-buckets, so a recorded value is known to about 3% over the whole range from 1 ns to the
+ * age of the universe, in a fixed array of counters.
+ * <p>
+ * Recording is lock-free and may be called by several threads at the same time. Reading while recording gives a slightly
+ * inconsistent but usable view, {@link #copy()} gives a stable one.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKETS = (63 - SUB_BITS + 1) * SUB_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos - duration to add, negative values are counted as 0
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0;
+		counts.incrementAndGet(indexOf(nanos));
+		count.incrementAndGet();
+		sum.addAndGet(nanos);
+		long m;
+		while (nanos > (m = max.get()))
+			if (max.compareAndSet(m, nanos)) break;
+	}
+
+	static int indexOf(long value) {
+		if (value < SUB_COUNT) return (int) value;
+		final int mag = 63 - Long.numberOfLeadingZeros(value);
+		final int shift = mag - SUB_BITS;
+		return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) - SUB_COUNT);
+	}
+
+	// largest value falling into the bucket
+	static long highestValueOf(int index) {
+		final int group = index >>> SUB_BITS;
+		if (group == 0) return index;
+		final int shift = group - 1;
+		final long sub = (index & (SUB_COUNT - 1)) + SUB_COUNT;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * @return Returns the number of recorded values.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return Returns the mean of the recorded values in nanoseconds, 0 if nothing was recorded.
+	 */
+	public double getMean() {
+		final long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * @return Returns the largest recorded value in nanoseconds.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile - between 0 and 100
+	 * @return the value in nanoseconds below which the given percentage of the recorded values lies, at the precision of the
+	 * histogram, 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++)
+			total += counts.get(i);
+		if (total == 0) return 0;
+		final long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(highestValueOf(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * @return a copy of the current state, not affected by later recordings
+	 */
+	public LatencyHistogram copy() {
+		final LatencyHistogram h = new LatencyHistogram();
+		for (int i = 0; i < BUCKETS; i++)
+			h.counts.set(i, counts.get(i));
+		h.count.set(count.get());
+		h.sum.set(sum.get());
+		h.max.set(max.get());
+		return h;
+	}
+
+	/**
+	 * Removes all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+}
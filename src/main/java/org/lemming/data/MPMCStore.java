@@ -0,0 +1,200 @@
+package org.lemming.data;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The MPMCStore implements a lock-free bounded Store for any number of writing and reading threads, e.g. for the fan-in of
+ * the tasks of a SingleInputSingleOutput processor. Each slot of the preallocated ring buffer carries a sequence number that tells
+ * producers and consumers whether the slot is free or filled, so no objects are created per element.
+ * <p>
+ * put waits while the buffer is full and get waits while it is empty, as defined by the store's {@link WaitStrategy}.
+ *
+ * @param <DataType> - data type
+ */
+public class MPMCStore<DataType> extends AbstractStore<DataType> {
+
+	private final Object[] buffer;
+	private final AtomicLongArray sequence;
+	private final int mask;
+
+	private final PaddedAtomicLong head = new PaddedAtomicLong(0);
+	private final PaddedAtomicLong tail = new PaddedAtomicLong(0);
+
+	private final WaitStrategy waitStrategy;
+	private final WaitStrategy.Poller<Object> poller = new WaitStrategy.Poller<Object>() {
+		@Override
+		public Object poll() {
+			final boolean closed = isClosed(); // read first, elements put before close are then visible
+			final DataType el = MPMCStore.this.poll();
+			return el != null || !closed ? el : CLOSED;
+		}
+	};
+
+	/**
+	 * @param capacity - minimum number of elements, rounded up to the next power of two
+	 */
+	public MPMCStore(int capacity) {
+		this(capacity, WaitStrategy.park());
+	}
+
+	/**
+	 * @param capacity - minimum number of elements, rounded up to the next power of two
+	 * @param waitStrategy - how readers and writers wait on an empty or full store
+	 */
+	public MPMCStore(int capacity, WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		final int size = SPSCStore.roundToPowerOfTwo(Math.max(2, capacity));
+		this.buffer = new Object[size];
+		this.sequence = new AtomicLongArray(size);
+		this.mask = size - 1;
+		for (int i = 0; i < size; i++)
+			sequence.set(i, i);
+	}
+
+	/**
+	 * Adds the element if there is space.
+	 *
+	 * @param el - the element to be put
+	 * @return false if the store is full
+	 */
+	public boolean offer(DataType el) {
+		if (el == null) throw new NullPointerException();
+		long pos = tail.get();
+		for (;;) {
+			final int index = (int) pos & mask;
+			final long diff = sequence.get(index) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					buffer[index] = el;
+					sequence.lazySet(index, pos + 1); // publishes the slot to consumers
+					return true;
+				}
+				pos = tail.get();
+			} else if (diff < 0) {
+				return false; // slot not yet consumed, the store is full
+			} else {
+				pos = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Retrieves and removes the next element if there is one.
+	 *
+	 * @return the next element or null if empty
+	 */
+	@SuppressWarnings("unchecked")
+	public DataType poll() {
+		long pos = head.get();
+		for (;;) {
+			final int index = (int) pos & mask;
+			final long diff = sequence.get(index) - (pos + 1);
+			if (diff == 0) {
+				if (head.compareAndSet(pos, pos + 1)) {
+					final DataType el = (DataType) buffer[index];
+					buffer[index] = null;
+					sequence.lazySet(index, pos + buffer.length); // hands the slot back to producers
+					return el;
+				}
+				pos = head.get();
+			} else if (diff < 0) {
+				return null; // slot not yet filled, the store is empty
+			} else {
+				pos = head.get();
+			}
+		}
+	}
+
+	/**
+	 * Note: waits according to the WaitStrategy while the store is full. Like the BoundedStore it stores the element even if
+	 * the calling thread is interrupted, the interrupt flag is restored afterwards.
+	 */
+	@Override
+	public void put(final DataType el) {
+		boolean interrupted = false;
+		if (!offer(el)) {
+			final WaitStrategy.Poller<Boolean> offered = new WaitStrategy.Poller<Boolean>() {
+				@Override
+				public Boolean poll() {
+					return offer(el) ? Boolean.TRUE : null;
+				}
+			};
+			// await returns null on an interrupt, the flag is cleared to go on waiting
+			while (waitStrategy.await(offered) == null)
+				interrupted |= Thread.interrupted();
+		}
+		waitStrategy.signalAll();
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Note: waits according to the WaitStrategy if empty.
+	 *
+	 * @return the next element or null if the store is closed and drained or the calling thread was interrupted
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public DataType get() {
+		final Object el = waitStrategy.await(poller);
+		if (el == CLOSED) return null;
+		waitStrategy.signalAll();
+		return (DataType) el;
+	}
+
+	@Override
+	public int drainTo(Collection<? super DataType> buffer, int maxElements) {
+		int n = 0;
+		DataType el;
+		while (n < maxElements && (el = poll()) != null) {
+			buffer.add(el);
+			n++;
+		}
+		if (n > 0) waitStrategy.signalAll();
+		return n;
+	}
+
+	/**
+	 * Note: like put, it stores every element even if the calling thread is interrupted.
+	 */
+	@Override
+	public void putAll(Collection<? extends DataType> elements) {
+		for (DataType el : elements)
+			put(el);
+	}
+
+	@Override
+	protected void onClose() {
+		waitStrategy.signalAll();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return head.get() >= tail.get();
+	}
+
+	/**
+	 * @return Returns the length of the queue.
+	 */
+	public int getLength() {
+		final long h = head.get();
+		return (int) Math.max(0, Math.min(tail.get() - h, buffer.length));
+	}
+
+	/**
+	 * @return Returns the maximum number of elements.
+	 */
+	public int getCapacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * @return Returns the WaitStrategy with the waiting statistics of this store.
+	 */
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+}
@@ -0,0 +1,78 @@
+package org.lemming.data;
+
+import java.util.Collection;
+
+import org.lemming.interfaces.Store;
+
+/**
+ * Output view of a module that counts the elements put to the target store and the time spent waiting for a bounded
+ * target to accept them. All other calls are passed on to the target.
+ *
+ * @param <T> - data type
+ */
+public class MeteredStore<T> extends AbstractStore<T> {
+
+	private final Store<T> target;
+	private final StageMetrics metrics;
+
+	/**
+	 * @param target - the store receiving the elements
+	 * @param metrics - the metrics of the writing module
+	 */
+	public MeteredStore(Store<T> target, StageMetrics metrics) {
+		this.target = target;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void put(T el) {
+		final long t = System.nanoTime();
+		target.put(el);
+		metrics.recordOutputWait(System.nanoTime() - t);
+		metrics.recordOutput(1);
+	}
+
+	@Override
+	public void putAll(Collection<? extends T> elements) {
+		final long t = System.nanoTime();
+		target.putAll(elements);
+		metrics.recordOutputWait(System.nanoTime() - t);
+		metrics.recordOutput(elements.size());
+	}
+
+	@Override
+	public T get() {
+		return target.get();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return target.isEmpty();
+	}
+
+	@Override
+	public int drainTo(Collection<? super T> buffer, int maxElements) {
+		return target.drainTo(buffer, maxElements);
+	}
+
+	@Override
+	public void registerProducer() {
+		target.registerProducer();
+	}
+
+	@Override
+	public void close() {
+		target.close();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return target.isClosed();
+	}
+
+	@Override
+	public int getLength() {
+		return target instanceof AbstractStore ? ((AbstractStore<T>) target).getLength() : -1;
+	}
+
+}
@@ -1,10 +1,9 @@
 package org.lemming.data;
 
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.Queue;
 
-import org.lemming.interfaces.Store;
-
 /**
  * This is an implementation of a Store with a non-blocking queue. A non-blocking queue will return null if the queue is empty.
  * 
@@ -12,7 +11,7 @@ import org.lemming.interfaces.Store;
  *
  * @param <DataType> - data type
  */
-public class NonblockingQueueStore<DataType> implements Store<DataType> {
+public class NonblockingQueueStore<DataType> extends AbstractStore<DataType> {
 
 	private Queue<DataType> q = new LinkedList<>();
 	
@@ -34,4 +33,20 @@ public class NonblockingQueueStore<DataType> implements Store<DataType> {
 		return q.isEmpty();
 	}
 
+	@Override
+	public int drainTo(Collection<? super DataType> buffer, int maxElements) {
+		int n = 0;
+		DataType el;
+		while (n < maxElements && (el = q.poll()) != null) {
+			buffer.add(el);
+			n++;
+		}
+		return n;
+	}
+
+	@Override
+	public void putAll(Collection<? extends DataType> elements) {
+		q.addAll(elements);
+	}
+
 }
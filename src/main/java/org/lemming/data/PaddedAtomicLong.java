@@ -0,0 +1,23 @@
+package org.lemming.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An AtomicLong padded to fill a cache line, so that the head and tail counters of a store
+ * written by different threads do not share a cache line (false sharing).
+ */
+class PaddedAtomicLong extends AtomicLong {
+
+	private static final long serialVersionUID = 1L;
+
+	/** plain value for the thread owning the counter, kept on its cache line, e.g. a cached copy of the other side's counter */
+	long cache;
+
+	// 7 longs after the values fill the rest of a 64 byte cache line, the JVM keeps unused fields
+	@SuppressWarnings("unused")
+	private long p1, p2, p3, p4, p5, p6, p7;
+
+	PaddedAtomicLong(long initialValue) {
+		super(initialValue);
+	}
+}
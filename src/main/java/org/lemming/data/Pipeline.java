@@ -1,11 +1,14 @@
 package org.lemming.data;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ThreadFactory;
 
-import org.lemming.interfaces.Processor;
-import org.lemming.interfaces.Source;
-import org.lemming.utils.LemMING;
+import org.lemming.interfaces.Metered;
+import org.lemming.interfaces.Store;
+import org.lemming.processors.SingleInputSingleOutput;
 
 /**
  * @author Ronny Sczech
@@ -13,16 +16,52 @@ import org.lemming.utils.LemMING;
  */
 public class Pipeline implements Runnable {
 	
+	/**
+	 * The Store implementations available for the links between modules.
+	 */
+	public enum StoreType {
+		/** unbounded blocking queue, see {@link QueueStore} */
+		QUEUE,
+		/** unbounded table, see {@link FastStore} */
+		FAST,
+		/** unbounded transfer queue, see {@link TransferQueueStore} */
+		TRANSFER,
+		/** bounded and lock based, see {@link BoundedStore} */
+		BOUNDED,
+		/** bounded and lock-free for one writer and one reader, see {@link SPSCStore} */
+		SPSC,
+		/** bounded and lock-free for several writers and readers, see {@link MPMCStore} */
+		MPMC
+	}
+	
+	/**
+	 * The kind of threads running the modules and the processor tasks.
+	 */
+	public enum ExecutionMode {
+		/** one platform thread per module, processor tasks on a shared pool */
+		PLATFORM,
+		/** one virtual thread per module and per processor task, needs Java 21, falls back to PLATFORM otherwise */
+		VIRTUAL
+	}
+	
 	private ThreadGroup group;
-	private LinkedList<Thread> pipe;
+	private LinkedList<Runnable> pipe;
+	private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+	private ThreadFactory virtualThreads;
 	public Properties props;
+	private StoreType storeType = StoreType.QUEUE;
+	private int storeCapacity = 1024;
+	private Scheduler scheduler = Scheduler.getDefault();
+	private boolean ownScheduler; // created by setExecutionMode, shut down when replaced
+	private final PipelineMetrics metrics = new PipelineMetrics();
+	private final List<Runnable> preconditions = new ArrayList<Runnable>();
 
 	/**
 	 * 
 	 */
 	public Pipeline(){
 		this.group = new ThreadGroup("Pipe");
-		this.pipe = new LinkedList<Thread>();
+		this.pipe = new LinkedList<Runnable>();
 		props = new Properties();
 	}
 	
@@ -30,7 +69,74 @@ public class Pipeline implements Runnable {
 	 * @param module - Runnable to add
 	 */
 	public void add(Runnable module){
-		pipe.addLast(new Thread(group,module,module.getClass().getName()));
+		if (module instanceof SingleInputSingleOutput)
+			((SingleInputSingleOutput<?,?>) module).setScheduler(scheduler);
+		if (module instanceof Metered)
+			metrics.add(((Metered) module).getMetrics());
+		pipe.addLast(module);
+	}
+	
+	/**
+	 * @param module - processor to add
+	 * @param parallelism - maximum number of tasks the processor may run
+	 */
+	public void add(SingleInputSingleOutput<?,?> module, int parallelism){
+		scheduler.setParallelism(module, parallelism);
+		add(module);
+	}
+	
+	/**
+	 * @param scheduler - shared by the processors added after this call
+	 */
+	public void setScheduler(Scheduler scheduler){
+		if (ownScheduler) this.scheduler.shutdown();
+		this.scheduler = scheduler;
+		ownScheduler = false;
+	}
+	
+	/**
+	 * @return Returns the scheduler shared by the processors of this pipeline.
+	 */
+	public Scheduler getScheduler(){
+		return scheduler;
+	}
+	
+	/**
+	 * Selects the threads running the modules. A new scheduler of the same kind is created, so the mode has to be set
+	 * before the modules are added. A scheduler created by an earlier call is shut down.
+	 * 
+	 * @param mode - execution mode
+	 * @throws IllegalStateException if modules were already added
+	 */
+	public void setExecutionMode(ExecutionMode mode){
+		if (!pipe.isEmpty())
+			throw new IllegalStateException("The execution mode has to be set before the modules are added");
+		if (mode == ExecutionMode.VIRTUAL) {
+			virtualThreads = Scheduler.virtualThreadFactory();
+			if (virtualThreads == null) {
+				System.err.println("Virtual threads are not supported by this Java version, using platform threads");
+				mode = ExecutionMode.PLATFORM;
+			}
+		}
+		this.executionMode = mode;
+		final Scheduler replaced = scheduler;
+		this.scheduler = mode == ExecutionMode.VIRTUAL ? Scheduler.newVirtual(replaced.getCpuBudget()) : new Scheduler(replaced.getCpuBudget());
+		if (ownScheduler) replaced.shutdown();
+		ownScheduler = true;
+	}
+	
+	/**
+	 * @return Returns the execution mode in use.
+	 */
+	public ExecutionMode getExecutionMode(){
+		return executionMode;
+	}
+	
+	/**
+	 * @return Returns the metrics of the modules added to this pipeline.
+	 */
+	public PipelineMetrics getMetrics(){
+		return metrics;
 	}
 	
 	public void setProperties(Properties props){
@@ -38,34 +144,92 @@ public class Pipeline implements Runnable {
 	}
 	
 	/**
+	 * @param type - Store implementation returned by {@link #newStore()}
+	 * @param capacity - capacity of the bounded Store implementations
+	 */
+	public void setStoreType(StoreType type, int capacity){
+		this.storeType = type;
+		this.storeCapacity = capacity;
+	}
+	
+	/**
+	 * @param <T> - data type
+	 * @return a new Store of the type set with {@link #setStoreType(StoreType, int)}, a QueueStore by default
+	 */
+	public <T> Store<T> newStore(){
+		return newStore(storeType);
+	}
+	
+	/**
+	 * @param type - Store implementation
+	 * @param <T> - data type
+	 * @return a new Store of the specified type
+	 */
+	public <T> Store<T> newStore(StoreType type){
+		switch (type) {
+		case FAST:
+			return new FastStore<T>();
+		case TRANSFER:
+			return new TransferQueueStore<T>();
+		case BOUNDED:
+			return new BoundedStore<T>(storeCapacity);
+		case SPSC:
+			return new SPSCStore<T>(storeCapacity);
+		case MPMC:
+			return new MPMCStore<T>(storeCapacity);
+		default:
+			return new QueueStore<T>();
+		}
+	}
+	
+	/**
+	 * Runs the queued modules and then the module in the calling thread. The module has closed its output when run returns,
+	 * so the following modules see the end of the stream without polling.
+	 * 
 	 * @param module - Runnable to run as sequential
 	 */
-	@SuppressWarnings("rawtypes")
 	public void addSequential(Runnable module){
 		if (!pipe.isEmpty()) run();
+		if (module instanceof SingleInputSingleOutput)
+			((SingleInputSingleOutput<?,?>) module).setScheduler(scheduler);
+		if (module instanceof Metered)
+			metrics.add(((Metered) module).getMetrics());
 		module.run();
-		if (module instanceof Source){
-			Source lm = (Source) module;
-			while(lm.hasMoreOutputs()){ //wait until store is filled up completely
-				LemMING.pause(5);
-			}
-			System.out.println("module " + lm.getClass().getSimpleName() + " completed!");
-		} else if (module instanceof Processor){
-			Processor lm = (Processor) module;
-			while(lm.hasMoreOutputs()){ //wait until store is filled up completely
-				LemMING.pause(5);
-			}
-			System.out.println("module " + lm.getClass().getSimpleName() + " completed!");
-		}
+		System.out.println("module " + module.getClass().getSimpleName() + " completed!");
 		pipe.clear();
 	}
 
+	/**
+	 * @param check - run before the modules are started, throws an exception if they must not run
+	 */
+	void addPrecondition(Runnable check){
+		preconditions.add(check);
+	}
+
+	private Thread newThread(Runnable module){
+		final String name = module.getClass().getName();
+		if (executionMode == ExecutionMode.PLATFORM)
+			return new Thread(group,module,name);
+		final Thread t = virtualThreads.newThread(module);
+		t.setName(name);
+		return t;
+	}
+
 	@Override
 	public void run() {
-		for(Thread starter:pipe){
+		for(Runnable check:preconditions)
+			check.run();
+		// all processors share the budget from the start, each one unregisters when it finished
+		for(Runnable module:pipe)
+			if (module instanceof SingleInputSingleOutput)
+				((SingleInputSingleOutput<?,?>) module).getScheduler().register(module);
+		final List<Thread> threads = new ArrayList<Thread>(pipe.size());
+		for(Runnable module:pipe){
+			final Thread starter = newThread(module);
+			threads.add(starter);
 			starter.start();
 		}
-		for(Thread joiner:pipe){
+		for(Thread joiner:threads){
 			try {
 				joiner.join();
 			} catch (InterruptedException e) {
@@ -0,0 +1,318 @@
+package org.lemming.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.imglib2.algorithm.MultiThreaded;
+
+import org.lemming.data.Pipeline.StoreType;
+import org.lemming.interfaces.Processor;
+import org.lemming.interfaces.Source;
+import org.lemming.interfaces.Splitter;
+import org.lemming.interfaces.Store;
+import org.lemming.interfaces.Well;
+import org.lemming.processors.StoreSplitter;
+
+/**
+ * The PipelineBuilder describes a Pipeline as a graph of modules and wires the Stores automatically. Modules are connected
+ * with the typed connect methods, build then checks the graph, creates one Store per consumer and adds the modules to the Pipeline.
+ * <p>
+ * The Store of a link is chosen from the number of threads writing and reading it: an SPSCStore for one writer and one reader,
+ * an MPMCStore otherwise (e.g. for a multi-threaded processor or for several producers feeding the same consumer). A module
+ * writing or reading with several threads must implement MultiThreaded, like the processors and the ParallelFrameSource. A producer
+ * connected to several consumers gets a StoreSplitter, which passes the same element to all consumers without copying it.
+ * Modules must not be wired by hand when they are added to a builder.
+ * <p>
+ * The numbers of threads are read by build. A module that writes or reads an SPSCStore with one thread must keep one thread:
+ * the Pipeline checks this when it runs and throws an IllegalStateException if setNumThreads raised it after build. Set the
+ * threads before build, or choose an MPMC Store for the link with setStoreType.
+ */
+public class PipelineBuilder {
+
+	private static class Node {
+		final Runnable module;
+		final List<Node> consumers = new ArrayList<Node>();
+		final List<Node> producers = new ArrayList<Node>();
+		StoreType storeType;
+
+		Node(Runnable module) {
+			this.module = module;
+		}
+
+		boolean isProducer() {
+			return module instanceof Source || module instanceof Processor || module instanceof Splitter;
+		}
+
+		boolean isConsumer() {
+			return module instanceof Processor || module instanceof Well;
+		}
+
+		String name() {
+			return module.getClass().getSimpleName();
+		}
+	}
+
+	private final Pipeline pipeline;
+	private final Map<Runnable, Node> nodes = new LinkedHashMap<Runnable, Node>();
+	private boolean built;
+
+	/**
+	 * Builds a new Pipeline.
+	 */
+	public PipelineBuilder() {
+		this(new Pipeline());
+	}
+
+	/**
+	 * @param pipeline - the Pipeline the modules are added to, its store capacity and scheduler are used
+	 */
+	public PipelineBuilder(Pipeline pipeline) {
+		this.pipeline = pipeline;
+	}
+
+	/**
+	 * @param from - source
+	 * @param to - processor reading the output of the source
+	 * @param <T> - data type
+	 * @return this builder
+	 */
+	public <T> PipelineBuilder connect(Source<T> from, Processor<T, ?> to) {
+		return link(from, to);
+	}
+
+	/**
+	 * @param from - source
+	 * @param to - well reading the output of the source
+	 * @param <T> - data type
+	 * @return this builder
+	 */
+	public <T> PipelineBuilder connect(Source<T> from, Well<T> to) {
+		return link(from, to);
+	}
+
+	/**
+	 * @param from - processor
+	 * @param to - processor reading the output of the first one
+	 * @param <T> - data type
+	 * @return this builder
+	 */
+	public <T> PipelineBuilder connect(Processor<?, T> from, Processor<T, ?> to) {
+		return link(from, to);
+	}
+
+	/**
+	 * @param from - processor
+	 * @param to - well reading the output of the processor
+	 * @param <T> - data type
+	 * @return this builder
+	 */
+	public <T> PipelineBuilder connect(Processor<?, T> from, Well<T> to) {
+		return link(from, to);
+	}
+
+	/**
+	 * @param from - splitter
+	 * @param to - processor receiving a copy of every element
+	 * @param <T> - data type
+	 * @return this builder
+	 */
+	public <T> PipelineBuilder connect(Splitter<T> from, Processor<T, ?> to) {
+		return link(from, to);
+	}
+
+	/**
+	 * @param from - splitter
+	 * @param to - well receiving a copy of every element
+	 * @param <T> - data type
+	 * @return this builder
+	 */
+	public <T> PipelineBuilder connect(Splitter<T> from, Well<T> to) {
+		return link(from, to);
+	}
+
+	/**
+	 * Overrides the automatic choice of the Store feeding a consumer.
+	 *
+	 * @param consumer - a processor or well of the graph
+	 * @param type - Store implementation of its input
+	 * @return this builder
+	 */
+	public PipelineBuilder setStoreType(Runnable consumer, StoreType type) {
+		node(consumer).storeType = type;
+		return this;
+	}
+
+	private PipelineBuilder link(Runnable from, Runnable to) {
+		if (built)
+			throw new IllegalStateException("Pipeline is already built");
+		if (from == to)
+			throw new IllegalArgumentException(from.getClass().getSimpleName() + " cannot be connected to itself");
+		final Node f = node(from);
+		final Node t = node(to);
+		if (f.consumers.contains(t))
+			throw new IllegalArgumentException(f.name() + " is already connected to " + t.name());
+		f.consumers.add(t);
+		t.producers.add(f);
+		return this;
+	}
+
+	private Node node(Runnable module) {
+		if (module == null)
+			throw new NullPointerException();
+		Node n = nodes.get(module);
+		if (n == null) {
+			n = new Node(module);
+			nodes.put(module, n);
+		}
+		return n;
+	}
+
+	/**
+	 * Checks that every module is connected on all of its sides and that the graph has no cycle.
+	 *
+	 * @throws IllegalStateException describing the first problem found
+	 */
+	public void validate() {
+		if (nodes.isEmpty())
+			throw new IllegalStateException("The pipeline is empty");
+		for (Node n : nodes.values()) {
+			if (n.isConsumer() && n.producers.isEmpty())
+				throw new IllegalStateException(n.name() + " has no input");
+			if (n.isProducer() && n.consumers.isEmpty())
+				throw new IllegalStateException(n.name() + " has no output");
+		}
+		topologicalOrder();
+	}
+
+	// depth first search, throws on a cycle
+	private List<Node> topologicalOrder() {
+		final Map<Node, Integer> state = new IdentityHashMap<Node, Integer>(); // 1 visiting, 2 done
+		final List<Node> order = new ArrayList<Node>(nodes.size());
+		for (Node n : nodes.values())
+			visit(n, state, order);
+		final List<Node> reversed = new ArrayList<Node>(order.size());
+		for (int i = order.size() - 1; i >= 0; i--)
+			reversed.add(order.get(i));
+		return reversed;
+	}
+
+	private static void visit(Node n, Map<Node, Integer> state, List<Node> order) {
+		final Integer s = state.get(n);
+		if (s != null) {
+			if (s == 1)
+				throw new IllegalStateException("The pipeline has a cycle through " + n.name());
+			return;
+		}
+		state.put(n, 1);
+		for (Node c : n.consumers)
+			visit(c, state, order);
+		state.put(n, 2);
+		order.add(n);
+	}
+
+	/**
+	 * Validates the graph, creates and sets the Stores and adds all modules to the Pipeline in topological order. The
+	 * Pipeline refuses to run if a module of a single-threaded SPSCStore link has more threads by then.
+	 *
+	 * @return the Pipeline, ready to run
+	 * @throws IllegalStateException if the graph is invalid
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Pipeline build() {
+		if (built)
+			throw new IllegalStateException("Pipeline is already built");
+		validate();
+		final List<Node> order = topologicalOrder();
+
+		// one input store per consumer, shared by all of its producers
+		final Map<Node, Store> inputs = new HashMap<Node, Store>();
+		final List<Node> singleThreaded = new ArrayList<Node>(); // next to an SPSCStore
+		for (Node n : order) {
+			if (!n.isConsumer()) continue;
+			int writers = 0;
+			for (Node p : n.producers)
+				writers += p.consumers.size() > 1 && !(p.module instanceof Splitter) ? 1 : threads(p);
+			final Store s = newStore(n, writers, threads(n));
+			if (s instanceof SPSCStore) {
+				singleThreaded.add(n);
+				for (Node p : n.producers)
+					if (p.consumers.size() == 1) singleThreaded.add(p); // otherwise a splitter writes the store
+			}
+			inputs.put(n, s);
+			if (n.module instanceof Processor)
+				((Processor) n.module).setInput(s);
+			else
+				((Well) n.module).setInput(s);
+		}
+
+		final Map<Node, Runnable> splitters = new HashMap<Node, Runnable>();
+		for (Node n : order) {
+			if (n.consumers.isEmpty()) continue;
+			if (n.module instanceof Splitter) {
+				for (Node c : n.consumers)
+					((Splitter) n.module).addOutput(inputs.get(c));
+			} else if (n.consumers.size() == 1) {
+				setOutput(n, inputs.get(n.consumers.get(0)));
+			} else {
+				// fan-out: the splitter passes the same element to every consumer
+				final StoreSplitter splitter = new StoreSplitter();
+				final Store s = threads(n) > 1 ? pipeline.newStore(StoreType.MPMC) : pipeline.newStore(StoreType.SPSC);
+				if (s instanceof SPSCStore)
+					singleThreaded.add(n);
+				setOutput(n, s);
+				splitter.setInput(s);
+				for (Node c : n.consumers)
+					splitter.addOutput(inputs.get(c));
+				splitters.put(n, splitter);
+			}
+		}
+
+		for (Node n : order) {
+			pipeline.add(n.module);
+			if (splitters.containsKey(n))
+				pipeline.add(splitters.get(n));
+		}
+		pipeline.addPrecondition(checkThreads(singleThreaded));
+		built = true;
+		return pipeline;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static void setOutput(Node n, Store s) {
+		if (n.module instanceof Processor)
+			((Processor) n.module).setOutput(s);
+		else
+			((Source) n.module).setOutput(s);
+	}
+
+	private <T> Store<T> newStore(Node consumer, int writers, int readers) {
+		if (consumer.storeType != null)
+			return pipeline.newStore(consumer.storeType);
+		return pipeline.newStore(writers == 1 && readers == 1 ? StoreType.SPSC : StoreType.MPMC);
+	}
+
+	// a module sized as single-threaded for an SPSCStore must not run with more threads
+	private static Runnable checkThreads(final List<Node> singleThreaded) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				for (Node n : singleThreaded)
+					if (threads(n) > 1)
+						throw new IllegalStateException(n.name() + " was built with one thread on an SPSCStore but has "
+								+ threads(n) + " threads");
+			}
+		};
+	}
+
+	// number of threads a module uses on one side of a Store
+	private static int threads(Node n) {
+		if (n.module instanceof MultiThreaded)
+			return Math.max(1, ((MultiThreaded) n.module).getNumThreads());
+		return 1;
+	}
+
+}
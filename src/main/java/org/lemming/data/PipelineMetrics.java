@@ -0,0 +1,114 @@
+package org.lemming.data;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Collects the {@link StageMetrics} of the modules of a Pipeline. The metrics can be read as a snapshot, printed in regular
+ * intervals while the pipeline runs, or exported as JMX MBeans to watch a live run with a JMX console like jconsole.
+ */
+public class PipelineMetrics {
+
+	private final List<StageMetrics> stages = new ArrayList<StageMetrics>();
+	private final List<ObjectName> registered = new ArrayList<ObjectName>();
+	private ScheduledExecutorService reporter;
+
+	/**
+	 * @param stage - metrics of a module
+	 */
+	public synchronized void add(StageMetrics stage) {
+		if (!stages.contains(stage))
+			stages.add(stage);
+	}
+
+	/**
+	 * @return Returns the metrics of all modules, in the order they were added.
+	 */
+	public synchronized List<StageMetrics> getStages() {
+		return new ArrayList<StageMetrics>(stages);
+	}
+
+	/**
+	 * @return one line per module with throughput, processing times, waiting times and input depth
+	 */
+	public String snapshot() {
+		final StringBuilder sb = new StringBuilder();
+		for (StageMetrics s : getStages())
+			sb.append(s).append('\n');
+		return sb.toString();
+	}
+
+	/**
+	 * Prints a snapshot in regular intervals on a daemon thread until {@link #stopReporting()} is called.
+	 *
+	 * @param periodMillis - interval between two snapshots
+	 * @param out - stream the snapshots are printed to
+	 */
+	public synchronized void startReporting(long periodMillis, final PrintStream out) {
+		stopReporting();
+		reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread t = new Thread(r, "PipelineMetrics-reporter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		reporter.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				out.print(snapshot());
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the periodic snapshots.
+	 */
+	public synchronized void stopReporting() {
+		if (reporter != null) {
+			reporter.shutdown();
+			reporter = null;
+		}
+	}
+
+	/**
+	 * Registers the metrics of every module as MBean domain:type=Stage,name=index-ModuleName with the platform MBean server.
+	 *
+	 * @param domain - JMX domain of the pipeline
+	 * @throws JMException if an MBean cannot be registered
+	 */
+	public synchronized void registerMBeans(String domain) throws JMException {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (int i = 0; i < stages.size(); i++) {
+			final StageMetrics s = stages.get(i);
+			final ObjectName name = new ObjectName(domain + ":type=Stage,name=" + ObjectName.quote(i + "-" + s.getName()));
+			if (server.isRegistered(name)) server.unregisterMBean(name);
+			server.registerMBean(s, name);
+			registered.add(name);
+		}
+	}
+
+	/**
+	 * Removes the MBeans registered with {@link #registerMBeans(String)}.
+	 *
+	 * @throws JMException if an MBean cannot be unregistered
+	 */
+	public synchronized void unregisterMBeans() throws JMException {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName name : registered)
+			if (server.isRegistered(name)) server.unregisterMBean(name);
+		registered.clear();
+	}
+
+}
@@ -1,5 +1,6 @@
 package org.lemming.data;
 
+import java.util.Collection;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.lemming.interfaces.Peekable;
@@ -13,7 +14,7 @@ import org.lemming.interfaces.Store;
  *
  * @param <DataType> - data type
  */
-public class QueueStore<DataType> implements Store<DataType>, Peekable<DataType> {
+public class QueueStore<DataType> extends AbstractStore<DataType> implements Peekable<DataType> {
 
 	private LinkedBlockingQueue<DataType> q = new LinkedBlockingQueue<DataType>();
 
@@ -25,26 +26,38 @@ public class QueueStore<DataType> implements Store<DataType>, Peekable<DataType>
 	/**
 	 * Note: blocks the caller if empty.
 	 * 
+	 * @return the next element or null if the store is closed and drained or the calling thread was interrupted
 	 */
 	@Override
 	public DataType get()  {
-		try {
-			return q.take();
-		} catch (InterruptedException e) {
-			return null;
-		}
+		return take(q);
 	}
 	
 	/**
 	 * @return Returns the length of the queue.
 	 */
 	public int getLength() {
-		return q.size();
+		return length(q);
 	}
 
 	@Override
 	public boolean isEmpty() {
-		return q.isEmpty();
+		return isEmpty(q);
+	}
+	
+	@Override
+	public int drainTo(Collection<? super DataType> buffer, int maxElements) {
+		return drainTo(q, buffer, maxElements);
+	}
+	
+	@Override
+	public void putAll(Collection<? extends DataType> elements) {
+		q.addAll(elements);
+	}
+	
+	@Override
+	protected void onClose() {
+		closeQueue(q);
 	}
 	
 	@Override
@@ -60,17 +73,37 @@ public class QueueStore<DataType> implements Store<DataType>, Peekable<DataType>
 
 			@Override
 			public DataType get() {
-				try {
-					return q.take();
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-					return null;
-				}
+				return take(q);
 			}
 
 			@Override
 			public boolean isEmpty() {
-				return q.isEmpty();
+				return QueueStore.this.isEmpty(q);
+			}
+
+			@Override
+			public int drainTo(Collection<? super DataType> buffer, int maxElements) {
+				return QueueStore.this.drainTo(q, buffer, maxElements);
+			}
+
+			@Override
+			public void putAll(Collection<? extends DataType> elements) {
+				q.addAll(elements);
+			}
+
+			@Override
+			public void registerProducer() {
+				QueueStore.this.registerProducer();
+			}
+
+			@Override
+			public void close() {
+				QueueStore.this.close();
+			}
+
+			@Override
+			public boolean isClosed() {
+				return QueueStore.this.isClosed();
 			}
 			
 		};
@@ -0,0 +1,195 @@
+package org.lemming.data;
+
+import java.util.Collection;
+
+/**
+ * The SPSCStore implements a lock-free Store for exactly one writing and one reading thread, which is the typical link between
+ * two stages of a linear Pipeline. The elements are kept in a preallocated ring buffer, so no objects are created per element,
+ * and the head and tail indices are padded to avoid false sharing between producer and consumer.
+ * <p>
+ * put waits while the buffer is full and get waits while it is empty, as defined by the store's {@link WaitStrategy}. For links with several writers or readers use the MPMCStore.
+ *
+ * @param <DataType> - data type
+ */
+public class SPSCStore<DataType> extends AbstractStore<DataType> {
+
+	private final Object[] buffer;
+	private final int mask;
+
+	/** next index to read, written by the consumer only, its cache holds the consumer's view of tail */
+	private final PaddedAtomicLong head = new PaddedAtomicLong(0);
+	/** next index to write, written by the producer only, its cache holds the producer's view of head */
+	private final PaddedAtomicLong tail = new PaddedAtomicLong(0);
+
+	private final WaitStrategy waitStrategy;
+	private final WaitStrategy.Poller<Object> poller = new WaitStrategy.Poller<Object>() {
+		@Override
+		public Object poll() {
+			final boolean closed = isClosed(); // read first, elements put before close are then visible
+			final DataType el = SPSCStore.this.poll();
+			return el != null || !closed ? el : CLOSED;
+		}
+	};
+
+	/**
+	 * @param capacity - minimum number of elements, rounded up to the next power of two
+	 */
+	public SPSCStore(int capacity) {
+		this(capacity, WaitStrategy.park());
+	}
+
+	/**
+	 * @param capacity - minimum number of elements, rounded up to the next power of two
+	 * @param waitStrategy - how readers and writers wait on an empty or full store
+	 */
+	public SPSCStore(int capacity, WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		final int size = roundToPowerOfTwo(capacity);
+		this.buffer = new Object[size];
+		this.mask = size - 1;
+	}
+
+	static int roundToPowerOfTwo(int value) {
+		if (value > 1 << 30)
+			throw new IllegalArgumentException("Capacity too large: " + value);
+		return 1 << (32 - Integer.numberOfLeadingZeros(value - 1));
+	}
+
+	/**
+	 * Adds the element if there is space.
+	 *
+	 * @param el - the element to be put
+	 * @return false if the store is full
+	 */
+	public boolean offer(DataType el) {
+		if (el == null) throw new NullPointerException();
+		final long t = tail.get();
+		// the view of the other side's index avoids reading the shared counter on every call
+		if (t - tail.cache >= buffer.length) {
+			tail.cache = head.get();
+			if (t - tail.cache >= buffer.length) return false;
+		}
+		buffer[(int) t & mask] = el;
+		tail.lazySet(t + 1); // publishes the element to the consumer
+		return true;
+	}
+
+	/**
+	 * Retrieves and removes the next element if there is one.
+	 *
+	 * @return the next element or null if empty
+	 */
+	@SuppressWarnings("unchecked")
+	public DataType poll() {
+		final long h = head.get();
+		if (h >= head.cache) {
+			head.cache = tail.get();
+			if (h >= head.cache) return null;
+		}
+		final int index = (int) h & mask;
+		final DataType el = (DataType) buffer[index];
+		buffer[index] = null;
+		head.lazySet(h + 1); // hands the slot back to the producer
+		return el;
+	}
+
+	/**
+	 * Note: waits according to the WaitStrategy while the store is full. Like the BoundedStore it stores the element even if
+	 * the calling thread is interrupted, the interrupt flag is restored afterwards.
+	 */
+	@Override
+	public void put(final DataType el) {
+		boolean interrupted = false;
+		if (!offer(el)) {
+			final WaitStrategy.Poller<Boolean> offered = new WaitStrategy.Poller<Boolean>() {
+				@Override
+				public Boolean poll() {
+					return offer(el) ? Boolean.TRUE : null;
+				}
+			};
+			// await returns null on an interrupt, the flag is cleared to go on waiting
+			while (waitStrategy.await(offered) == null)
+				interrupted |= Thread.interrupted();
+		}
+		waitStrategy.signalAll();
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Note: waits according to the WaitStrategy if empty.
+	 *
+	 * @return the next element or null if the store is closed and drained or the calling thread was interrupted
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public DataType get() {
+		final Object el = waitStrategy.await(poller);
+		if (el == CLOSED) return null;
+		waitStrategy.signalAll();
+		return (DataType) el;
+	}
+
+	/**
+	 * Moves the available elements with a single update of the head index.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public int drainTo(Collection<? super DataType> buffer, int maxElements) {
+		final long h = head.get();
+		head.cache = tail.get();
+		final int n = (int) Math.min(head.cache - h, maxElements);
+		if (n <= 0) return 0;
+		for (long i = h; i < h + n; i++) {
+			final int index = (int) i & mask;
+			buffer.add((DataType) this.buffer[index]);
+			this.buffer[index] = null;
+		}
+		head.lazySet(h + n);
+		waitStrategy.signalAll();
+		return n;
+	}
+
+	/**
+	 * Note: like put, it stores every element even if the calling thread is interrupted.
+	 */
+	@Override
+	public void putAll(Collection<? extends DataType> elements) {
+		for (DataType el : elements)
+			put(el);
+	}
+
+	@Override
+	protected void onClose() {
+		waitStrategy.signalAll();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return head.get() >= tail.get();
+	}
+
+	/**
+	 * @return Returns the length of the queue.
+	 */
+	public int getLength() {
+		final long h = head.get();
+		return (int) Math.min(tail.get() - h, buffer.length);
+	}
+
+	/**
+	 * @return Returns the maximum number of elements.
+	 */
+	public int getCapacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * @return Returns the WaitStrategy with the waiting statistics of this store.
+	 */
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+}
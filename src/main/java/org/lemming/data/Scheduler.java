@@ -0,0 +1,196 @@
+package org.lemming.data;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The Scheduler runs the tasks of all processors of a Pipeline on one shared executor and divides a CPU budget among them.
+ * A stage registers itself before it starts and asks for the number of tasks it may run. Stages with an explicit parallelism
+ * limit get up to that limit, the remaining budget is split evenly among the other registered stages, and every stage gets at
+ * least one task so the pipeline cannot stall.
+ * <p>
+ * The tasks of a stage block on their input store for the whole run, so the executor must be able to run all granted tasks
+ * at the same time. The default executor therefore is a cached pool of daemon threads, which are reused by later runs
+ * instead of every processor creating its own pool.
+ */
+public class Scheduler {
+
+	private static Scheduler defaultScheduler;
+
+	private final ExecutorService executor;
+	private final int cpuBudget;
+	private final Set<Object> stages = new LinkedHashSet<Object>();
+	private final Map<Object, Integer> limits = new WeakHashMap<Object, Integer>();
+
+	/**
+	 * Creates a scheduler with a budget of one task per available processor.
+	 */
+	public Scheduler() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param cpuBudget - total number of tasks shared by all registered stages
+	 */
+	public Scheduler(int cpuBudget) {
+		this(cpuBudget, Executors.newCachedThreadPool(new WorkerFactory()));
+	}
+
+	/**
+	 * @param cpuBudget - total number of tasks shared by all registered stages
+	 * @param executor - runs the tasks, must not queue tasks while all its threads are busy
+	 */
+	public Scheduler(int cpuBudget, ExecutorService executor) {
+		if (cpuBudget < 1)
+			throw new IllegalArgumentException("CPU budget must be positive: " + cpuBudget);
+		this.cpuBudget = cpuBudget;
+		this.executor = executor;
+	}
+
+	/**
+	 * @return the scheduler shared by all processors that were not given one explicitly
+	 */
+	public static synchronized Scheduler getDefault() {
+		if (defaultScheduler == null)
+			defaultScheduler = new Scheduler();
+		return defaultScheduler;
+	}
+
+	/**
+	 * @param cpuBudget - total number of tasks shared by all registered stages
+	 * @return a scheduler running each task on its own virtual thread, or on the default executor if the
+	 * Java runtime has no virtual threads
+	 */
+	public static Scheduler newVirtual(int cpuBudget) {
+		final ThreadFactory factory = virtualThreadFactory();
+		if (factory == null)
+			return new Scheduler(cpuBudget);
+		try {
+			// virtual threads are cheap to create and must not be pooled, Executors.newThreadPerTaskExecutor needs Java 21
+			final Object executor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+			return new Scheduler(cpuBudget, (ExecutorService) executor);
+		} catch (ReflectiveOperationException e) {
+			return new Scheduler(cpuBudget);
+		}
+	}
+
+	/**
+	 * Looks up Thread.ofVirtual() at runtime, so the code still compiles for and runs on older Java versions.
+	 *
+	 * @return a factory for virtual threads or null if the Java runtime does not support them (before Java 21)
+	 */
+	public static ThreadFactory virtualThreadFactory() {
+		try {
+			final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Adds a stage to the ones sharing the CPU budget, typically when it starts running. Registering a stage twice has no
+	 * effect. A registered stage stays referenced until it is unregistered.
+	 *
+	 * @param stage - the stage, typically a processor
+	 */
+	public synchronized void register(Object stage) {
+		stages.add(stage);
+	}
+
+	/**
+	 * Removes a finished stage, its share of the budget goes to the remaining stages.
+	 *
+	 * @param stage - the stage
+	 */
+	public synchronized void unregister(Object stage) {
+		stages.remove(stage);
+	}
+
+	/**
+	 * @param stage - the stage
+	 * @param maxTasks - maximum number of tasks of the stage
+	 */
+	public synchronized void setParallelism(Object stage, int maxTasks) {
+		if (maxTasks < 1)
+			throw new IllegalArgumentException("Parallelism must be positive: " + maxTasks);
+		limits.put(stage, maxTasks);
+	}
+
+	/**
+	 * @param stage - a registered stage
+	 * @param requested - number of tasks the stage would like to run
+	 * @return the number of tasks the stage may run, at least one
+	 */
+	public synchronized int getParallelism(Object stage, int requested) {
+		final Integer limit = limits.get(stage);
+		if (limit != null)
+			return Math.max(1, Math.min(requested, Math.min(limit, cpuBudget)));
+
+		int free = cpuBudget;
+		int shared = 0;
+		for (Object s : stages) {
+			final Integer l = limits.get(s);
+			if (l != null)
+				free -= l;
+			else
+				shared++;
+		}
+		if (!stages.contains(stage)) shared++;
+		final int share = free / Math.max(1, shared);
+		return Math.max(1, Math.min(requested, share));
+	}
+
+	/**
+	 * @param stage - a stage
+	 * @param tasks - number of tasks the stage runs
+	 * @return the number of threads a task of the stage may use for a single element, the share of the stage divided by
+	 * its tasks, at least one
+	 */
+	public synchronized int getThreadsPerTask(Object stage, int tasks) {
+		return Math.max(1, getParallelism(stage, Integer.MAX_VALUE) / Math.max(1, tasks));
+	}
+
+	/**
+	 * @param task - the task to run
+	 * @param <T> - result type
+	 * @return a Future for the result of the task
+	 */
+	public <T> Future<T> submit(Callable<T> task) {
+		return executor.submit(task);
+	}
+
+	/**
+	 * @return Returns the total number of tasks shared by all stages.
+	 */
+	public int getCpuBudget() {
+		return cpuBudget;
+	}
+
+	/**
+	 * Stops accepting tasks, running tasks are completed.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	static class WorkerFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			final Thread t = new Thread(r, "Scheduler-worker-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
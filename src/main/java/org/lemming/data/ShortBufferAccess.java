@@ -0,0 +1,50 @@
+package org.lemming.data;
+
+import java.nio.ShortBuffer;
+
+import net.imglib2.img.basictypeaccess.ShortAccess;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+
+/**
+ * Pixel access of an ImgLib2 ArrayImg backed by a ShortBuffer instead of a short[]. With a view of a memory-mapped file the
+ * image reads the pixels directly from the file pages, the byte order is the one of the buffer.
+ */
+public class ShortBufferAccess implements ShortAccess, ArrayDataAccess<ShortBufferAccess> {
+
+	private final ShortBuffer buffer;
+
+	/**
+	 * @param buffer - pixel data, index 0 is the first pixel
+	 */
+	public ShortBufferAccess(ShortBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	@Override
+	public short getValue(int index) {
+		return buffer.get(index);
+	}
+
+	@Override
+	public void setValue(int index, short value) {
+		buffer.put(index, value);
+	}
+
+	@Override
+	public ShortBufferAccess createArray(int numEntities) {
+		return new ShortBufferAccess(ShortBuffer.allocate(numEntities));
+	}
+
+	@Override
+	public Object getCurrentStorageArray() {
+		return buffer;
+	}
+
+	/**
+	 * @return Returns the buffer holding the pixels.
+	 */
+	public ShortBuffer getBuffer() {
+		return buffer;
+	}
+
+}
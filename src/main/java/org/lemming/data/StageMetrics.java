@@ -0,0 +1,189 @@
+package org.lemming.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.lemming.interfaces.Store;
+
+/**
+ * Counters of one module of a Pipeline: elements taken and put, the processing time per element, the time waiting for
+ * input and for space in the output, and the number of elements waiting in the input. The stage with a full input and
+ * little input wait is the bottleneck of the pipeline.
+ * <p>
+ * The counters are updated by the module itself and may be read at any time from other threads.
+ */
+public class StageMetrics implements StageMetricsMBean {
+
+	private final String name;
+	private final AtomicLong elementsIn = new AtomicLong();
+	private final AtomicLong elementsOut = new AtomicLong();
+	private final AtomicLong inputWait = new AtomicLong();
+	private final AtomicLong outputWait = new AtomicLong();
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private volatile long startNanos;
+	private volatile long endNanos;
+	private volatile boolean running;
+	private volatile Store<?> input;
+
+	/**
+	 * @param name - name of the stage
+	 */
+	public StageMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Marks the start of a run and clears the counters of an earlier one.
+	 */
+	public void start() {
+		elementsIn.set(0);
+		elementsOut.set(0);
+		inputWait.set(0);
+		outputWait.set(0);
+		latency.reset();
+		endNanos = 0;
+		startNanos = System.nanoTime();
+		running = true;
+	}
+
+	/**
+	 * Marks the end of a run, the rates are computed up to this point.
+	 */
+	public void stop() {
+		endNanos = System.nanoTime();
+		running = false;
+	}
+
+	/**
+	 * @param nanos - processing time of one input element
+	 */
+	public void recordElement(long nanos) {
+		elementsIn.incrementAndGet();
+		latency.record(nanos);
+	}
+
+	/**
+	 * @param n - number of elements put to the output
+	 */
+	public void recordOutput(int n) {
+		elementsOut.addAndGet(n);
+	}
+
+	/**
+	 * @param nanos - time waiting for an input element
+	 */
+	public void recordInputWait(long nanos) {
+		inputWait.addAndGet(nanos);
+	}
+
+	/**
+	 * @param nanos - time waiting to put to the output
+	 */
+	public void recordOutputWait(long nanos) {
+		outputWait.addAndGet(nanos);
+	}
+
+	/**
+	 * @param input - the store read by the stage, its length is reported as input depth
+	 */
+	public void setInput(Store<?> input) {
+		this.input = input;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getElementsIn() {
+		return elementsIn.get();
+	}
+
+	@Override
+	public long getElementsOut() {
+		return elementsOut.get();
+	}
+
+	/**
+	 * @return Returns the time since the start, or the duration of the last run.
+	 */
+	public long getElapsedNanos() {
+		final long start = startNanos;
+		if (start == 0) return 0;
+		return (running ? System.nanoTime() : endNanos) - start;
+	}
+
+	@Override
+	public double getInputRate() {
+		return rate(elementsIn.get());
+	}
+
+	@Override
+	public double getOutputRate() {
+		return rate(elementsOut.get());
+	}
+
+	private double rate(long n) {
+		final long elapsed = getElapsedNanos();
+		return elapsed <= 0 ? 0 : n * 1e9 / elapsed;
+	}
+
+	/**
+	 * @return Returns the histogram of the processing times in nanoseconds.
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	@Override
+	public double getLatencyMean() {
+		return latency.getMean() / 1000;
+	}
+
+	@Override
+	public double getLatency50() {
+		return latency.getValueAtPercentile(50) / 1000d;
+	}
+
+	@Override
+	public double getLatency99() {
+		return latency.getValueAtPercentile(99) / 1000d;
+	}
+
+	@Override
+	public double getLatencyMax() {
+		return latency.getMax() / 1000d;
+	}
+
+	@Override
+	public double getInputWait() {
+		return inputWait.get() / 1000d;
+	}
+
+	@Override
+	public double getOutputWait() {
+		return outputWait.get() / 1000d;
+	}
+
+	@Override
+	public int getInputDepth() {
+		final Store<?> s = input;
+		if (s instanceof AbstractStore)
+			return ((AbstractStore<?>) s).getLength();
+		return -1;
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-24s in %9d (%9.1f/s) out %9d (%9.1f/s) latency us mean %8.1f p50 %8.1f p99 %8.1f max %8.1f"
+				+ " wait ms in %8.1f out %8.1f depth %d",
+				name, getElementsIn(), getInputRate(), getElementsOut(), getOutputRate(), getLatencyMean(), getLatency50(),
+				getLatency99(), getLatencyMax(), getInputWait() / 1000, getOutputWait() / 1000, getInputDepth());
+	}
+
+}
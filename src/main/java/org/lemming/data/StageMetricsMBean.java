@@ -0,0 +1,73 @@
+package org.lemming.data;
+
+/**
+ * JMX view of the {@link StageMetrics} of one module. Durations are in microseconds, rates in elements per second.
+ */
+public interface StageMetricsMBean {
+
+	/**
+	 * @return Returns the name of the stage.
+	 */
+	public String getName();
+
+	/**
+	 * @return Returns the number of elements taken from the input.
+	 */
+	public long getElementsIn();
+
+	/**
+	 * @return Returns the number of elements put to the output.
+	 */
+	public long getElementsOut();
+
+	/**
+	 * @return Returns the input elements per second since the start.
+	 */
+	public double getInputRate();
+
+	/**
+	 * @return Returns the output elements per second since the start.
+	 */
+	public double getOutputRate();
+
+	/**
+	 * @return Returns the mean processing time of an element.
+	 */
+	public double getLatencyMean();
+
+	/**
+	 * @return Returns the median processing time of an element.
+	 */
+	public double getLatency50();
+
+	/**
+	 * @return Returns the 99th percentile of the processing time of an element.
+	 */
+	public double getLatency99();
+
+	/**
+	 * @return Returns the longest processing time of an element.
+	 */
+	public double getLatencyMax();
+
+	/**
+	 * @return Returns the time spent waiting for input, summed over all tasks.
+	 */
+	public double getInputWait();
+
+	/**
+	 * @return Returns the time spent waiting for space in the output, summed over all tasks.
+	 */
+	public double getOutputWait();
+
+	/**
+	 * @return Returns the number of elements waiting in the input, -1 if unknown.
+	 */
+	public int getInputDepth();
+
+	/**
+	 * @return Returns true while the stage is running.
+	 */
+	public boolean isRunning();
+
+}
@@ -1,9 +1,8 @@
 package org.lemming.data;
 
+import java.util.Collection;
 import java.util.concurrent.LinkedTransferQueue;
 
-import org.lemming.interfaces.Store;
-
 /**
  * The QueueStore implements a Store with a transfer queue. A producer will wait for the consumer to consume the elements in this queue.
  * 
@@ -12,7 +11,7 @@ import org.lemming.interfaces.Store;
  * @param <DataType> - data type
  */
 
-public class TransferQueueStore<DataType> implements Store<DataType> {
+public class TransferQueueStore<DataType> extends AbstractStore<DataType> {
 	
 	private final LinkedTransferQueue<DataType> q = new LinkedTransferQueue<DataType>();
 
@@ -21,26 +20,38 @@ public class TransferQueueStore<DataType> implements Store<DataType> {
 		q.put(el);
 	}
 
+	/**
+	 * @return the next element or null if the store is closed and drained or the calling thread was interrupted
+	 */
 	@Override
 	public DataType get() {
-		
-		try {
-			return q.take();		
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-			return null;
-		}
+		return take(q);
 	}
 
 	@Override
 	public boolean isEmpty() {
-		return q.isEmpty();
+		return isEmpty(q);
+	}
+	
+	@Override
+	public int drainTo(Collection<? super DataType> buffer, int maxElements) {
+		return drainTo(q, buffer, maxElements);
+	}
+	
+	@Override
+	public void putAll(Collection<? extends DataType> elements) {
+		q.addAll(elements);
+	}
+	
+	@Override
+	protected void onClose() {
+		closeQueue(q);
 	}
 	
 	/**
 	 * @return Returns the length of the queue.
 	 */
 	public int getLength() {
-		return q.size();
+		return length(q);
 	}
 }
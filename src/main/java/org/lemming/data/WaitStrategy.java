@@ -0,0 +1,223 @@
+package org.lemming.data;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A WaitStrategy decides how a thread waits on a Store that is momentarily empty (or full). The store retries its
+ * {@link Poller} until it returns an element, and the strategy spends the time in between by spinning, yielding, parking
+ * or blocking on a condition. Each store owns its strategy instance, so the counters describe the waiting on that store.
+ * <p>
+ * Available strategies:
+ * <ul>
+ * <li>{@link #spinYield()} - lowest latency, keeps a core busy while waiting</li>
+ * <li>{@link #park()} - spins and yields for a short while, then parks with a growing timeout</li>
+ * <li>{@link #blocking()} - waits on a condition that is signalled by the writing side</li>
+ * </ul>
+ */
+public abstract class WaitStrategy {
+
+	/**
+	 * One attempt of the waiting operation.
+	 *
+	 * @param <T> - data type
+	 */
+	public interface Poller<T> {
+		/**
+		 * @return the result of the operation or null if it should be retried
+		 */
+		public T poll();
+	}
+
+	static final int SPIN_TRIES = 100;
+	static final int YIELD_TRIES = 100;
+
+	final AtomicLong spins = new AtomicLong();
+	final AtomicLong yields = new AtomicLong();
+	final AtomicLong parkedNanos = new AtomicLong();
+
+	/**
+	 * Repeats the poller until it returns a result.
+	 *
+	 * @param poller - the operation to retry
+	 * @param <T> - data type
+	 * @return the result of the poller or null if the calling thread was interrupted
+	 */
+	public abstract <T> T await(Poller<T> poller);
+
+	/**
+	 * Called by a store whenever its state changed (element added or removed) to wake up waiting threads.
+	 */
+	public void signalAll() {
+	}
+
+	/**
+	 * @return Returns the number of busy spin iterations.
+	 */
+	public long getSpinIterations() {
+		return spins.get();
+	}
+
+	/**
+	 * @return Returns the number of times the waiting thread yielded.
+	 */
+	public long getYields() {
+		return yields.get();
+	}
+
+	/**
+	 * @return Returns the total time in nanoseconds waiting threads were parked or blocked.
+	 */
+	public long getParkedNanos() {
+		return parkedNanos.get();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [spins=" + getSpinIterations() + ", yields=" + getYields()
+			+ ", parked=" + TimeUnit.NANOSECONDS.toMillis(getParkedNanos()) + "ms]";
+	}
+
+	/**
+	 * @return a strategy that spins and then yields, it never parks the thread
+	 */
+	public static WaitStrategy spinYield() {
+		return new SpinYieldWaitStrategy();
+	}
+
+	/**
+	 * @return a strategy that spins, yields and then parks for up to one millisecond at a time
+	 */
+	public static WaitStrategy park() {
+		return new ParkingWaitStrategy(TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+	/**
+	 * @param maxParkNanos - the longest time a thread is parked before it polls again
+	 * @return a strategy that spins, yields and then parks with a growing timeout
+	 */
+	public static WaitStrategy park(long maxParkNanos) {
+		return new ParkingWaitStrategy(maxParkNanos);
+	}
+
+	/**
+	 * @return a strategy that blocks on a condition until the store signals a change
+	 */
+	public static WaitStrategy blocking() {
+		return new BlockingWaitStrategy();
+	}
+
+	/**
+	 * Retries the poller in a loop and waits a little longer after each unsuccessful attempt.
+	 */
+	static abstract class PollingWaitStrategy extends WaitStrategy {
+
+		@Override
+		public <T> T await(Poller<T> poller) {
+			int counter = 0;
+			T result;
+			while ((result = poller.poll()) == null) {
+				if (Thread.currentThread().isInterrupted()) return null;
+				counter = idle(counter);
+			}
+			return result;
+		}
+
+		/**
+		 * Waits once after an unsuccessful attempt.
+		 *
+		 * @param counter - number of unsuccessful attempts so far
+		 * @return the new counter
+		 */
+		protected abstract int idle(int counter);
+	}
+
+	static class SpinYieldWaitStrategy extends PollingWaitStrategy {
+
+		@Override
+		protected int idle(int counter) {
+			if (counter < SPIN_TRIES) {
+				spins.incrementAndGet();
+				return counter + 1;
+			}
+			yields.incrementAndGet();
+			Thread.yield();
+			return counter;
+		}
+	}
+
+	static class ParkingWaitStrategy extends PollingWaitStrategy {
+
+		private static final long MIN_PARK_NANOS = 1000L;
+		private final long maxParkNanos;
+
+		ParkingWaitStrategy(long maxParkNanos) {
+			this.maxParkNanos = Math.max(MIN_PARK_NANOS, maxParkNanos);
+		}
+
+		@Override
+		protected int idle(int counter) {
+			if (counter < SPIN_TRIES) {
+				spins.incrementAndGet();
+			} else if (counter < SPIN_TRIES + YIELD_TRIES) {
+				yields.incrementAndGet();
+				Thread.yield();
+			} else {
+				// double the park time with every round up to the maximum
+				final int shift = Math.min(counter - SPIN_TRIES - YIELD_TRIES, 20);
+				final long nanos = Math.min(MIN_PARK_NANOS << shift, maxParkNanos);
+				final long start = System.nanoTime();
+				LockSupport.parkNanos(this, nanos);
+				parkedNanos.addAndGet(System.nanoTime() - start);
+			}
+			return counter + 1;
+		}
+	}
+
+	/**
+	 * Waits on a condition. The stores publish their elements with lazySet, which may be reordered with a later read of
+	 * a waiter count, so signalAll always takes the lock: the waiter polls again under the same lock and either sees the
+	 * element or is signalled.
+	 */
+	static class BlockingWaitStrategy extends WaitStrategy {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition changed = lock.newCondition();
+
+		@Override
+		public <T> T await(Poller<T> poller) {
+			T result = poller.poll();
+			if (result != null) return result;
+			final long start = System.nanoTime();
+			lock.lock();
+			try {
+				while ((result = poller.poll()) == null) {
+					if (Thread.currentThread().isInterrupted()) return null;
+					try {
+						changed.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return null;
+					}
+				}
+				return result;
+			} finally {
+				lock.unlock();
+				parkedNanos.addAndGet(System.nanoTime() - start);
+			}
+		}
+
+		@Override
+		public void signalAll() {
+			lock.lock();
+			try {
+				changed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
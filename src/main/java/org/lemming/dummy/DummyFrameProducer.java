@@ -39,6 +39,7 @@ public class DummyFrameProducer implements Source<ImgLib2Frame<UnsignedShortType
 	@Override
 	public void setOutput(Store<ImgLib2Frame<UnsignedShortType>> store) {
 		output = store;
+		store.registerProducer();
 	}
 	
 	class DummyFrame extends ImgLib2Frame<UnsignedShortType> {
@@ -97,6 +98,7 @@ public class DummyFrameProducer implements Source<ImgLib2Frame<UnsignedShortType
 		DummyFrame lastFrame =	new DummyFrame(curSlice);
 		lastFrame.setLast(true);
 		output.put(lastFrame);
+		output.close();
 		System.out.println("*** DummyFrameProducer ****");
 	}	
 			
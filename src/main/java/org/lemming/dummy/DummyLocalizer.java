@@ -41,6 +41,7 @@ public class DummyLocalizer<T, F extends Frame<T>> implements ImageLocalizer<T,F
 	@Override
 	public void setOutput(Store<Localization> s) {
 		out = s;
+		s.registerProducer();
 	}
 	
 	static class DummyLocalization implements Localization {
@@ -76,13 +77,18 @@ public class DummyLocalizer<T, F extends Frame<T>> implements ImageLocalizer<T,F
 	@Override
 	public void run() {
 		Frame<T> f;
-		do {
+		while (!(in.isClosed() && in.isEmpty())) {
 			f = in.get();
+			if (f == null) {
+				if (Thread.currentThread().isInterrupted()) break;
+				continue;
+			}
 			//System.out.println("loop:"+f.getFrameNumber());
 			out.put(new DummyLocalization(f.getFrameNumber(), 0));
 			out.put(new DummyLocalization(0, f.getFrameNumber()));			
-		} while(!f.isLast());
-		hasMoreOutputs=false;			
+		}
+		hasMoreOutputs=false;
+		out.close();
 		
 		System.out.println("*** DummyLocalizer ****");
 	}
@@ -15,14 +15,22 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 
 import javax.swing.JButton;
 
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
 import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Fraction;
 
+import org.lemming.data.BufferPool;
 import org.lemming.data.ImgLib2Frame;
+import org.lemming.data.ShortBufferAccess;
+import org.lemming.interfaces.FrameReader;
 import org.lemming.utils.LFile;
 import org.lemming.utils.LemMING;
 
@@ -33,12 +41,17 @@ import org.lemming.utils.LemMING;
  * file format. Each 'dax' file has an 'inf' file associated with it which provides 
  * details (like the number of frames, image width, image height, byte order) that
  * are necessary to be able to read bytes from the 'dax' file. The 'inf' file must
- * have the same name as the 'dax' file (e.g. path/filename.dax &harr; path/filename.inf). 
+ * have the same name as the 'dax' file (e.g. path/filename.dax &harr; path/filename.inf). <p>
+ * In memory-mapped mode the file is mapped in windows of whole frames and every frame is an image reading its pixels
+ * directly from the mapped pages, without copying them. Files larger than 2 GB are mapped window by window. The images
+ * of this mode are read-only.
  * 
  * @author Joe Borbely
  * 
  **/
-public class DAXLoader extends SingleOutput<ImgLib2Frame<UnsignedShortType>> {
+public class DAXLoader extends SingleOutput<ImgLib2Frame<UnsignedShortType>> implements FrameReader<UnsignedShortType> {
+
+	private static final int PAGE_SIZE = 4096;
 
 	protected int width;
 	protected int height;
@@ -49,6 +62,17 @@ public class DAXLoader extends SingleOutput<ImgLib2Frame<UnsignedShortType>> {
 	private boolean isBigEndian;
 	private boolean savedInf;
 	private String infFilename;
+	
+	private boolean memoryMapped;
+	private boolean prefault;
+	private volatile int touched; // keeps the page reads from being optimized away
+	private BufferPool pool = BufferPool.getDefault();
+	private ByteBuffer readBuffer;
+	private long windowBytes = Integer.MAX_VALUE;
+	private RandomAccessFile file;
+	private ByteBuffer window;
+	private long windowFirst;
+	private long windowFrames;
 
 	/**
 	 * @param filename - file
@@ -198,10 +222,149 @@ public class DAXLoader extends SingleOutput<ImgLib2Frame<UnsignedShortType>> {
 		return daxFrame;
 	}
 
+	/** Reads the data of the specified frame into a caller supplied array, through a file handle and a read buffer
+	 *  kept open between the frames.
+	 * 
+	 * @param frame the frame number. Allowed values are 0 &le; frame &lt; nFrames
+	 * @param pixels receives the width*height pixels of the frame
+	 * @throws IOException if the file cannot be read
+	 */
+	public void readFrame(long frame, short[] pixels) throws IOException {
+		final int frameBytes = width * height * 2;
+		if (file == null)
+			file = new RandomAccessFile(daxFilename, "r");
+		if (readBuffer == null || readBuffer.capacity() != frameBytes)
+			readBuffer = ByteBuffer.allocateDirect(frameBytes);
+		readBuffer.clear();
+		long pos = frame * frameBytes;
+		final FileChannel channel = file.getChannel();
+		while (readBuffer.hasRemaining()) {
+			final int n = channel.read(readBuffer, pos);
+			if (n < 0) throw new IOException("Frame " + frame + " is beyond the end of " + daxFilename);
+			pos += n;
+		}
+		readBuffer.flip();
+		readBuffer.order(isBigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(pixels);
+	}
+	
+	/**
+	 * @param pool - pool of the pixel arrays of the frames read without memory mapping
+	 */
+	public void setBufferPool(BufferPool pool) {
+		this.pool = pool;
+	}
+	
+	/**
+	 * @param memoryMapped - map the file instead of reading every frame into a new array
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+	
+	/**
+	 * Reads one value of every page of a frame when it is mapped, so the disk is read by the thread calling
+	 * {@link #mapFrame(long)} (e.g. the reader of a {@link PrefetchingSource}) instead of the processor using the frame.
+	 * 
+	 * @param prefault - touch the pages of a frame when it is mapped
+	 */
+	public void setPrefault(boolean prefault) {
+		this.prefault = prefault;
+	}
+	
+	/**
+	 * @param bytes - maximum size of a mapped window, rounded down to whole frames, at most 2 GB
+	 */
+	public void setMappedWindow(long bytes) {
+		this.windowBytes = Math.min(bytes, Integer.MAX_VALUE);
+	}
+	
+	/** Maps the specified frame of the dax file as an image backed by the mapped file, nothing is copied.
+	 *  A new window is mapped when the frame lies outside the current one, images of earlier windows stay valid.
+	 * 
+	 * @param frame the frame number. Allowed values are 0 &le; frame &lt; nFrames
+	 * @return a read-only image of the frame
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public Img<UnsignedShortType> mapFrame(long frame) throws IOException {
+		final long frameBytes = 2L * width * height;
+		if (frameBytes > Integer.MAX_VALUE)
+			throw new IOException("Frame too large to be mapped: " + frameBytes + " bytes");
+		if (window == null || frame < windowFirst || frame >= windowFirst + windowFrames) {
+			if (file == null)
+				file = new RandomAccessFile(daxFilename, "r");
+			final FileChannel channel = file.getChannel();
+			final long framesInFile = channel.size() / frameBytes;
+			if (frame < 0 || frame >= framesInFile)
+				throw new IOException("Frame " + frame + " is beyond the end of " + daxFilename);
+			final long perWindow = Math.max(1, windowBytes / frameBytes);
+			windowFirst = frame / perWindow * perWindow;
+			windowFrames = Math.min(perWindow, framesInFile - windowFirst);
+			window = channel.map(MapMode.READ_ONLY, windowFirst * frameBytes, windowFrames * frameBytes);
+		}
+		final ByteBuffer bytes = window.duplicate();
+		final int offset = (int) ((frame - windowFirst) * frameBytes);
+		bytes.position(offset);
+		bytes.limit(offset + (int) frameBytes);
+		if (prefault) {
+			int sum = 0;
+			for (int i = offset; i < offset + frameBytes; i += PAGE_SIZE)
+				sum += bytes.get(i);
+			touched = sum;
+		}
+		// slice resets the byte order, set it on the slice
+		final ShortBuffer pixels = bytes.slice().order(isBigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+		final ArrayImg<UnsignedShortType, ShortBufferAccess> img = 
+				new ArrayImg<UnsignedShortType, ShortBufferAccess>(new ShortBufferAccess(pixels), new long[]{width,height}, new Fraction());
+		img.setLinkedType(new UnsignedShortType(img));
+		return img;
+	}
+	
+	@Override
+	public long getNumberOfFrames() {
+		return nFrames;
+	}
+	
+	/**
+	 * In copy mode the pixel array is taken from the BufferPool of the loader and goes back when the frame is released.
+	 */
+	@Override
+	public ImgLib2Frame<UnsignedShortType> readFrame(long index, long frameNo) throws IOException {
+		if (memoryMapped)
+			return new ImgLib2Frame<UnsignedShortType>(frameNo, width, height, mapFrame(index));
+		final short[] pixels = pool.takeShorts(width*height);
+		try {
+			readFrame(index, pixels);
+		} catch (IOException e) {
+			pool.release(pixels);
+			throw e;
+		}
+		return new ImgLib2Frame<UnsignedShortType>(frameNo, width, height, ArrayImgs.unsignedShorts(pixels, new long[]{width,height}), pixels, pool);
+	}
+	
+	/**
+	 * Closes the file, the images already mapped stay valid.
+	 */
+	@Override
+	public void close() {
+		window = null;
+		if (file == null) return;
+		try {
+			file.close();
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+		file = null;
+	}
+
     @Override
 	public void beforeRun() {
        	curFrame = 0;
  	}
+    
+    @Override
+    public void afterRun() {
+    	close();
+    }
 	
 	@Override
 	public boolean hasMoreOutputs() {
@@ -210,9 +373,14 @@ public class DAXLoader extends SingleOutput<ImgLib2Frame<UnsignedShortType>> {
 
 	@Override
 	public ImgLib2Frame<UnsignedShortType> newOutput() {
-		short[] pixelArray = readFrame(curFrame);
-		Img<UnsignedShortType> imglib2Array = ArrayImgs.unsignedShorts(pixelArray, new long[]{width,height});
-		ImgLib2Frame<UnsignedShortType> out = new ImgLib2Frame<UnsignedShortType>(curFrame, width, height, imglib2Array);
+		final ImgLib2Frame<UnsignedShortType> out;
+		try {
+			out = readFrame(curFrame, curFrame);
+		} catch (IOException e) {
+			close();
+			LemMING.error("Can\'t "+(memoryMapped ? "map" : "read")+" dax file: "+daxFilename+" ("+e.getMessage()+")");
+			return null;
+		}
 		curFrame++;
 		return out;
 	}
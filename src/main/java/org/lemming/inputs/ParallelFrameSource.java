@@ -0,0 +1,302 @@
+package org.lemming.inputs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.type.numeric.RealType;
+
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.data.MeteredStore;
+import org.lemming.data.StageMetrics;
+import org.lemming.interfaces.FrameReader;
+import org.lemming.interfaces.Metered;
+import org.lemming.interfaces.Source;
+import org.lemming.interfaces.Store;
+import org.lemming.outputs.NullStoreWarning;
+
+/**
+ * Reads the frames of several files, or of several ranges of one file, with a pool of reader threads feeding one Store.
+ * The files form one movie in the order they are added: the frame numbers continue from one file to the next and start
+ * at 0, whichever thread reads a frame. No frame is marked as last, the end of the movie is signalled by closing the
+ * output store only.
+ * <p>
+ * The movie is read in chunks handed out in frame order: a file added with one reader is one chunk, a file added with
+ * several readers is split into chunks of {@link #setChunkSize(int)} frames that are read with whichever of its readers
+ * is idle. A chunk is handed out only while fewer than getNumThreads() chunks starting from the oldest unfinished one are
+ * being read, so a frame arrives at most getNumThreads() chunks late, see {@link #getMaxLateness()}. Modules relying on
+ * the order of their input, like the TemporalMedianBackground, need a processor with setPreserveOrder and at least this
+ * window in between.
+ *
+ * @param <T> - data type
+ */
+public class ParallelFrameSource<T extends RealType<T>> implements Source<ImgLib2Frame<T>>, MultiThreaded, Metered {
+
+	/** default number of frames of a chunk of a file read by several readers */
+	public static final int DEFAULT_CHUNK_SIZE = 16;
+
+	private static class FileReaders<T extends RealType<T>> {
+		final List<? extends FrameReader<T>> all;
+		final BlockingQueue<FrameReader<T>> idle;
+		final long numFrames, offset;
+
+		FileReaders(List<? extends FrameReader<T>> readers, long numFrames, long offset) {
+			this.all = readers;
+			this.idle = new ArrayBlockingQueue<FrameReader<T>>(readers.size(), false, readers);
+			this.numFrames = numFrames;
+			this.offset = offset;
+		}
+	}
+
+	private static class Chunk<T extends RealType<T>> {
+		final FileReaders<T> file;
+		final int index;
+		final long from, to;
+
+		Chunk(FileReaders<T> file, int index, long from, long to) {
+			this.file = file;
+			this.index = index;
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	private int numThreads;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private final List<FileReaders<T>> files = new ArrayList<FileReaders<T>>();
+	private long numFrames;
+	private int numReaders;
+	private Store<ImgLib2Frame<T>> output;
+	private volatile boolean running;
+	private final StageMetrics metrics = new StageMetrics(getClass().getSimpleName());
+
+	// chunks handed out in order, guarded by lock
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition chunkDone = lock.newCondition();
+	private List<Chunk<T>> chunks;
+	private boolean[] finished;
+	private int nextChunk;
+	private int oldestUnfinished;
+
+	/**
+	 * @param numThreads - number of reader threads
+	 */
+	public ParallelFrameSource(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Appends a file read by one thread.
+	 *
+	 * @param reader - reader of the file
+	 * @throws IOException if the number of frames cannot be read
+	 */
+	public void addFile(FrameReader<T> reader) throws IOException {
+		addFile(Collections.singletonList(reader));
+	}
+
+	/**
+	 * Appends a file read by several threads, each chunk of the file is read with one of the readers.
+	 *
+	 * @param readers - readers of the same file, one per thread reading it
+	 * @throws IOException if the number of frames cannot be read
+	 */
+	public void addFile(List<? extends FrameReader<T>> readers) throws IOException {
+		if (readers.isEmpty())
+			throw new IllegalArgumentException("No reader for the file");
+		final long n = readers.get(0).getNumberOfFrames();
+		files.add(new FileReaders<T>(readers, n, numFrames));
+		numFrames += n;
+		numReaders += readers.size();
+	}
+
+	/**
+	 * @param chunkSize - number of frames of a chunk of a file added with several readers
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+
+	/**
+	 * @return Returns the number of positions a frame may arrive behind its place in the movie, the window a processor
+	 * with setPreserveOrder needs to put the frames back in order.
+	 */
+	public long getMaxLateness() {
+		long largest = 0;
+		for (FileReaders<T> f : files)
+			largest = Math.max(largest, f.all.size() > 1 ? Math.min(chunkSize, f.numFrames) : f.numFrames);
+		return getNumThreads() * largest;
+	}
+
+	/**
+	 * @return Returns the number of frames of all files added so far.
+	 */
+	public long getNumberOfFrames() {
+		return numFrames;
+	}
+
+	@Override
+	public void setOutput(Store<ImgLib2Frame<T>> store) {
+		output = store;
+		if (store != null) store.registerProducer();
+	}
+
+	@Override
+	public boolean hasMoreOutputs() {
+		return running;
+	}
+
+	/**
+	 * @return Returns the number of threads putting frames into the output: the reader threads, at most one per reader.
+	 */
+	@Override
+	public int getNumThreads() {
+		return Math.min(numThreads, Math.max(1, numReaders));
+	}
+
+	@Override
+	public void setNumThreads() {
+		numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	@Override
+	public StageMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public void run() {
+		if (output == null)
+			throw new NullStoreWarning(this.getClass().getName());
+
+		running = true;
+		metrics.start();
+		final Store<ImgLib2Frame<T>> out = new MeteredStore<ImgLib2Frame<T>>(output, metrics);
+		chunks = new ArrayList<Chunk<T>>();
+		for (FileReaders<T> f : files) {
+			final long size = f.all.size() > 1 ? chunkSize : Math.max(1, f.numFrames);
+			for (long from = 0; from < f.numFrames; from += size)
+				chunks.add(new Chunk<T>(f, chunks.size(), from, Math.min(f.numFrames, from + size)));
+		}
+		finished = new boolean[chunks.size()];
+		nextChunk = 0;
+		oldestUnfinished = 0;
+		final int threads = getNumThreads();
+		final ExecutorService pool = Executors.newFixedThreadPool(threads, new ReaderFactory());
+		final List<Future<Void>> futures = new ArrayList<Future<Void>>(threads);
+		try {
+			for (int i = 0; i < threads; i++)
+				futures.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException, InterruptedException {
+						Chunk<T> c;
+						while ((c = claim(threads)) != null)
+							read(c, out);
+						return null;
+					}
+				}));
+			for (Future<Void> f : futures)
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Reading frames failed: " + e.getCause().getMessage(), e.getCause());
+		} finally {
+			running = false;
+			pool.shutdownNow();
+			try {
+				// the readers are closed once no thread uses them any more
+				pool.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			for (FileReaders<T> f : files)
+				for (FrameReader<T> r : f.all)
+					r.close();
+			metrics.stop();
+			output.close();
+		}
+	}
+
+	// the next chunk in frame order, waits while threads chunks from the oldest unfinished one are being read
+	private Chunk<T> claim(int threads) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (running && nextChunk < chunks.size() && nextChunk >= oldestUnfinished + threads)
+				chunkDone.await();
+			if (!running || nextChunk >= chunks.size()) return null;
+			return chunks.get(nextChunk++);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void read(Chunk<T> c, Store<ImgLib2Frame<T>> out) throws IOException, InterruptedException {
+		final FrameReader<T> reader = c.file.idle.take();
+		try {
+			for (long i = c.from; i < c.to && running; i++) {
+				if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+				final long t = System.nanoTime();
+				final ImgLib2Frame<T> frame = reader.readFrame(i, c.file.offset + i);
+				metrics.recordElement(System.nanoTime() - t);
+				out.put(frame);
+			}
+		} finally {
+			c.file.idle.add(reader);
+		}
+		lock.lock();
+		try {
+			finished[c.index] = true;
+			while (oldestUnfinished < finished.length && finished[oldestUnfinished])
+				oldestUnfinished++;
+			chunkDone.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the readers after the frames they are reading.
+	 */
+	public void stop() {
+		running = false;
+		lock.lock();
+		try {
+			chunkDone.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	static class ReaderFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			final Thread t = new Thread(r, "ParallelFrameSource-reader-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+}
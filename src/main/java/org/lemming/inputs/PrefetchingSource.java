@@ -0,0 +1,123 @@
+package org.lemming.inputs;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.lemming.data.StageMetrics;
+
+/**
+ * Reads ahead of the pipeline: the wrapped source generates its outputs on a separate I/O thread and keeps up to depth of
+ * them ready, so a slow disk stalls the pipeline only when the read-ahead buffer runs empty. The wrapped source is driven
+ * by this one, it must not be added to the pipeline itself.
+ * <p>
+ * The metrics of the wrapped source report the time spent reading a frame, the input wait of this source reports the
+ * time the pipeline waited for the disk.
+ *
+ * @param <T> - data type
+ */
+public class PrefetchingSource<T> extends SingleOutput<T> {
+
+	private static final Object END = new Object();
+
+	private final SingleOutput<T> source;
+	private final BlockingQueue<Object> buffer;
+	private Thread reader;
+	private volatile Throwable failure;
+	private Object next;
+
+	/**
+	 * @param source - the source to read ahead of
+	 * @param depth - number of outputs read in advance
+	 */
+	public PrefetchingSource(SingleOutput<T> source, int depth) {
+		this.source = source;
+		this.buffer = new ArrayBlockingQueue<Object>(Math.max(1, depth));
+	}
+
+	@Override
+	public void beforeRun() {
+		failure = null;
+		next = null;
+		buffer.clear();
+		reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				read();
+			}
+		}, "PrefetchingSource-" + source.getClass().getSimpleName());
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	private void read() {
+		final StageMetrics readMetrics = source.getMetrics();
+		readMetrics.start();
+		try {
+			source.beforeRun();
+			while (source.hasMoreOutputs()) {
+				final long t = System.nanoTime();
+				final T el = source.newOutput();
+				readMetrics.recordElement(System.nanoTime() - t);
+				buffer.put(el);
+				readMetrics.recordOutput(1);
+			}
+			source.afterRun();
+		} catch (InterruptedException e) {
+			return;
+		} catch (RuntimeException | Error e) {
+			failure = e;
+		} finally {
+			readMetrics.stop();
+			try {
+				buffer.put(END);
+			} catch (InterruptedException e) {
+				// stopped by the consumer, nobody waits for the end
+			}
+		}
+	}
+
+	@Override
+	public boolean hasMoreOutputs() {
+		if (next == null) {
+			final long t = System.nanoTime();
+			try {
+				next = buffer.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				reader.interrupt();
+				return false;
+			}
+			getMetrics().recordInputWait(System.nanoTime() - t);
+		}
+		if (next == END) {
+			if (failure != null)
+				throw new RuntimeException("Reading ahead failed: " + failure.getMessage(), failure);
+			return false;
+		}
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	protected T newOutput() {
+		if (!hasMoreOutputs()) return null;
+		final T el = (T) next;
+		next = null;
+		return el;
+	}
+
+	/**
+	 * @return Returns the metrics of the wrapped source, measuring the time to read an output.
+	 */
+	public StageMetrics getReadMetrics() {
+		return source.getMetrics();
+	}
+
+	/**
+	 * @return Returns the number of outputs read but not yet taken by the pipeline.
+	 */
+	public int getBuffered() {
+		return buffer.size();
+	}
+
+}
@@ -46,11 +46,4 @@ public class RandomLocalizer extends SingleOutput<Localization> {
     	return new XYLocalization(dwidth*rand.nextDouble(), dheight*rand.nextDouble());
 	}
 	
-	@Override
-	public void afterRun(){
-		XYLocalization lastLoc = new XYLocalization(0,0);
-		lastLoc.setLast(true);
-		output.put(lastLoc);
-	}
-	
 }
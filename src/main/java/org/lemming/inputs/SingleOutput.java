@@ -1,5 +1,8 @@
 package org.lemming.inputs;
 
+import org.lemming.data.MeteredStore;
+import org.lemming.data.StageMetrics;
+import org.lemming.interfaces.Metered;
 import org.lemming.interfaces.Source;
 import org.lemming.interfaces.Store;
 import org.lemming.outputs.NullStoreWarning;
@@ -7,32 +10,47 @@ import org.lemming.outputs.NullStoreWarning;
 /**
  * This class represents a module with a single output. This typically represents a generator of objects of type T.
  * It provides a standard implementation of the run method, which checks the output before calling newOutput
- * in a loop while hasMoreOutputs is true.
+ * in a loop while hasMoreOutputs is true, and closes the output when done. The time to generate an element and the
+ * number of elements put are reported by getMetrics.
  * 
  * @author Thomas Pengo
  * @author Ronny Sczech
  *
  * @param <T> Type parameter for the kind of objects that are being generated.
  */
-public abstract class SingleOutput<T> implements Source<T> {
+public abstract class SingleOutput<T> implements Source<T>, Metered {
 
 	/**
 	 * output
 	 */
 	public Store<T> output;
+	
+	private final StageMetrics metrics = new StageMetrics(getClass().getSimpleName());
 
 	@Override
 	public final void run() {
 		if (output==null)
 			throw new NullStoreWarning(this.getClass().getName()); 
 		
-		beforeRun();
-		
-		while (hasMoreOutputs()) {
-			output.put(newOutput());
+		final Store<T> target = output;
+		metrics.start();
+		output = new MeteredStore<T>(target, metrics);
+		try {
+			beforeRun();
+			
+			while (hasMoreOutputs()) {
+				final long t = System.nanoTime();
+				final T el = newOutput();
+				metrics.recordElement(System.nanoTime() - t);
+				output.put(el);
+			}
+			
+			afterRun();
+		} finally {
+			metrics.stop();
+			output = target;
+			output.close();
 		}
-		
-		afterRun();
 	}
 	
 	/**
@@ -45,6 +63,12 @@ public abstract class SingleOutput<T> implements Source<T> {
 	@Override
 	public void setOutput(Store<T> s) {
 		output = s;
+		if (s != null) s.registerProducer();
+	}
+	
+	@Override
+	public StageMetrics getMetrics() {
+		return metrics;
 	}
 	
 	/**
@@ -0,0 +1,395 @@
+package org.lemming.inputs;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+import org.lemming.data.BufferPool;
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.interfaces.FrameReader;
+import org.lemming.utils.LemMING;
+
+/**
+ * Reads a TIFF or OME-TIFF stack one plane at a time, without loading the whole movie. The image file directories are
+ * parsed lazily while the planes are read, and the strip offsets of every directory give direct access to its pixels,
+ * so the first frame is available as soon as its directory is read and memory stays at the frames in the pipeline.
+ * <p>
+ * Supported are uncompressed grayscale planes of 8 and 16 bit unsigned integers and 32 bit floats, in classic TIFF and
+ * BigTIFF files of either byte order. Stacks written by ImageJ beyond 4 GB, which only have a directory for the first
+ * plane, are read from the plane count of the ImageJ description.
+ *
+ * @param <T> - data type
+ */
+public class TIFFStreamLoader<T extends RealType<T> & NativeType<T>> extends SingleOutput<ImgLib2Frame<T>> implements FrameReader<T> {
+
+	private static final int WIDTH = 256, HEIGHT = 257, BITS_PER_SAMPLE = 258, COMPRESSION = 259, DESCRIPTION = 270,
+			STRIP_OFFSETS = 273, SAMPLES_PER_PIXEL = 277, STRIP_BYTE_COUNTS = 279, SAMPLE_FORMAT = 339;
+	private static final int FORMAT_FLOAT = 3;
+	private static final Pattern IMAGEJ_IMAGES = Pattern.compile("(?s)^ImageJ=.*\\nimages=(\\d+)");
+
+	/** the layout of one plane, taken from its image file directory */
+	static class Plane {
+		int width, height, bits = 1, samples = 1, compression = 1, format = 1;
+		long[] stripOffsets, stripByteCounts;
+		String description;
+
+		int getByteCount() {
+			return width * height * (bits / 8);
+		}
+	}
+
+	private final String filename;
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private ByteOrder order;
+	private boolean bigTiff;
+	private final List<Long> directories = new ArrayList<Long>();
+	private long nextDirectory;
+	private Plane first;
+	private int contiguousPlanes;
+	private ByteBuffer scratch;
+	private BufferPool pool = BufferPool.getDefault();
+	private int curPlane;
+
+	/**
+	 * @param path - file path
+	 */
+	public TIFFStreamLoader(String path) {
+		this.filename = path;
+	}
+
+	/**
+	 * Opens the file and reads the directory of the first plane.
+	 *
+	 * @throws IOException if the file cannot be read or is not a TIFF file
+	 */
+	public void open() throws IOException {
+		if (channel != null) return;
+		file = new RandomAccessFile(filename, "r");
+		channel = file.getChannel();
+		final ByteBuffer header = read(0, 16);
+		final short magic = header.getShort(0);
+		if (magic == 0x4949)
+			order = ByteOrder.LITTLE_ENDIAN;
+		else if (magic == 0x4d4d)
+			order = ByteOrder.BIG_ENDIAN;
+		else
+			throw new IOException(filename + " is not a TIFF file");
+		header.order(order);
+		final int version = header.getShort(2);
+		if (version == 42) {
+			nextDirectory = header.getInt(4) & 0xffffffffL;
+		} else if (version == 43) {
+			bigTiff = true;
+			nextDirectory = header.getLong(8);
+		} else {
+			throw new IOException(filename + " has an unknown TIFF version " + version);
+		}
+		directories.clear();
+		if (directory(0) < 0)
+			throw new IOException(filename + " has no images");
+		first = readPlane(directories.get(0));
+		if (first.description != null && directory(1) < 0) {
+			final Matcher m = IMAGEJ_IMAGES.matcher(first.description);
+			if (m.find()) contiguousPlanes = Integer.parseInt(m.group(1));
+		}
+	}
+
+	/**
+	 * Closes the file.
+	 */
+	@Override
+	public void close() {
+		if (file == null) return;
+		try {
+			file.close();
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+		file = null;
+		channel = null;
+	}
+
+	/**
+	 * Walks the chain of directories up to the requested one, directories found earlier are not read again.
+	 *
+	 * @param index - plane index
+	 * @return the file offset of the directory, or -1 if the file has fewer planes
+	 */
+	private long directory(int index) throws IOException {
+		while (directories.size() <= index) {
+			if (nextDirectory == 0) return -1;
+			final long offset = nextDirectory;
+			directories.add(offset);
+			final int countSize = bigTiff ? 8 : 2;
+			final int entrySize = bigTiff ? 20 : 12;
+			final ByteBuffer count = read(offset, countSize);
+			final long entries = bigTiff ? count.getLong(0) : count.getShort(0) & 0xffff;
+			final ByteBuffer next = read(offset + countSize + entries * entrySize, bigTiff ? 8 : 4);
+			nextDirectory = bigTiff ? next.getLong(0) : next.getInt(0) & 0xffffffffL;
+		}
+		return directories.get(index);
+	}
+
+	private Plane readPlane(long offset) throws IOException {
+		final int countSize = bigTiff ? 8 : 2;
+		final int entrySize = bigTiff ? 20 : 12;
+		final ByteBuffer count = read(offset, countSize);
+		final int entries = (int) (bigTiff ? count.getLong(0) : count.getShort(0) & 0xffff);
+		final ByteBuffer ifd = read(offset + countSize, entries * entrySize);
+		final Plane p = new Plane();
+		for (int i = 0; i < entries; i++) {
+			final int pos = i * entrySize;
+			final int tag = ifd.getShort(pos) & 0xffff;
+			final int type = ifd.getShort(pos + 2) & 0xffff;
+			final long n = bigTiff ? ifd.getLong(pos + 4) : ifd.getInt(pos + 4) & 0xffffffffL;
+			final int valuePos = pos + (bigTiff ? 12 : 8);
+			switch (tag) {
+			case WIDTH: p.width = (int) values(ifd, valuePos, type, n)[0]; break;
+			case HEIGHT: p.height = (int) values(ifd, valuePos, type, n)[0]; break;
+			case BITS_PER_SAMPLE: p.bits = (int) values(ifd, valuePos, type, n)[0]; break;
+			case COMPRESSION: p.compression = (int) values(ifd, valuePos, type, n)[0]; break;
+			case SAMPLES_PER_PIXEL: p.samples = (int) values(ifd, valuePos, type, n)[0]; break;
+			case SAMPLE_FORMAT: p.format = (int) values(ifd, valuePos, type, n)[0]; break;
+			case STRIP_OFFSETS: p.stripOffsets = values(ifd, valuePos, type, n); break;
+			case STRIP_BYTE_COUNTS: p.stripByteCounts = values(ifd, valuePos, type, n); break;
+			case DESCRIPTION:
+				final ByteBuffer b = valueBytes(ifd, valuePos, n);
+				final byte[] text = new byte[(int) n];
+				b.get(text);
+				p.description = new String(text, "ISO-8859-1").trim();
+				break;
+			default:
+			}
+		}
+		if (p.compression != 1)
+			throw new IOException(filename + " is compressed, only uncompressed TIFF files can be streamed");
+		if (p.samples != 1 || (p.bits != 8 && p.bits != 16 && p.bits != 32) || (p.bits == 32 && p.format != FORMAT_FLOAT))
+			throw new IOException(filename + " has an unsupported pixel type: " + p.samples + " x " + p.bits + " bit");
+		if (p.stripOffsets == null || p.stripByteCounts == null || p.stripOffsets.length != p.stripByteCounts.length)
+			throw new IOException(filename + " has no valid strips");
+		return p;
+	}
+
+	private static int typeSize(int type) {
+		switch (type) {
+		case 3: return 2; // SHORT
+		case 4: case 13: return 4; // LONG, IFD
+		case 16: case 18: return 8; // LONG8, IFD8
+		default: return 1;
+		}
+	}
+
+	// the bytes of a value, inline in the entry or at the offset it holds
+	private ByteBuffer valueBytes(ByteBuffer ifd, int valuePos, long size) throws IOException {
+		if (size <= (bigTiff ? 8 : 4)) {
+			final ByteBuffer b = ifd.duplicate().order(order);
+			b.position(valuePos);
+			return b;
+		}
+		final long offset = bigTiff ? ifd.getLong(valuePos) : ifd.getInt(valuePos) & 0xffffffffL;
+		return read(offset, (int) size);
+	}
+
+	private long[] values(ByteBuffer ifd, int valuePos, int type, long n) throws IOException {
+		final int size = typeSize(type);
+		final ByteBuffer b = valueBytes(ifd, valuePos, n * size);
+		final int start = b.position();
+		final long[] v = new long[(int) n];
+		for (int i = 0; i < n; i++) {
+			final int pos = start + i * size;
+			switch (size) {
+			case 2: v[i] = b.getShort(pos) & 0xffff; break;
+			case 4: v[i] = b.getInt(pos) & 0xffffffffL; break;
+			case 8: v[i] = b.getLong(pos); break;
+			default: v[i] = b.get(pos) & 0xff;
+			}
+		}
+		return v;
+	}
+
+	private ByteBuffer read(long offset, int length) throws IOException {
+		final ByteBuffer b = ByteBuffer.allocate(length).order(order == null ? ByteOrder.BIG_ENDIAN : order);
+		readFully(b, offset);
+		return b;
+	}
+
+	private void readFully(ByteBuffer b, long offset) throws IOException {
+		while (b.hasRemaining()) {
+			final int n = channel.read(b, offset + b.position());
+			if (n < 0) throw new IOException("Unexpected end of " + filename);
+		}
+		b.flip();
+	}
+
+	/**
+	 * @param index - plane index, starting at 0
+	 * @return true if the file has a plane with that index, reads the directories up to it
+	 * @throws IOException if the file cannot be read
+	 */
+	public boolean hasPlane(int index) throws IOException {
+		open();
+		if (contiguousPlanes > 0) return index < contiguousPlanes;
+		return directory(index) >= 0;
+	}
+
+	/**
+	 * Reads the strips of a single plane into a new image.
+	 *
+	 * @param index - plane index, starting at 0
+	 * @return the pixels of the plane
+	 * @throws IOException if the plane does not exist or cannot be read
+	 */
+	@SuppressWarnings({ "rawtypes" })
+	public Img readPlane(int index) throws IOException {
+		final Plane p = readStrips(index);
+		return image(p, pixels(p, null));
+	}
+
+	// reads the strips of a plane into the scratch buffer, returns the layout of the plane
+	private Plane readStrips(int index) throws IOException {
+		if (!hasPlane(index))
+			throw new IOException(filename + " has no plane " + index);
+		final Plane p;
+		final long[] offsets;
+		if (contiguousPlanes > 0) {
+			p = first;
+			offsets = new long[] { p.stripOffsets[0] + (long) index * p.getByteCount() };
+		} else {
+			p = index == 0 ? first : readPlane(directory(index));
+			offsets = p.stripOffsets;
+		}
+		final int bytes = p.getByteCount();
+		if (scratch == null || scratch.capacity() < bytes)
+			scratch = ByteBuffer.allocateDirect(bytes);
+		scratch.clear();
+		scratch.order(order);
+		for (int s = 0; s < offsets.length && scratch.position() < bytes; s++) {
+			final int len = contiguousPlanes > 0 ? bytes : (int) Math.min(p.stripByteCounts[s], bytes - scratch.position());
+			final int end = scratch.position() + len;
+			scratch.limit(end);
+			long pos = offsets[s];
+			while (scratch.hasRemaining()) {
+				final int n = channel.read(scratch, pos);
+				if (n < 0) throw new IOException("Unexpected end of " + filename);
+				pos += n;
+			}
+			scratch.limit(bytes);
+		}
+		if (scratch.position() < bytes)
+			throw new IOException(filename + " has too few pixels in plane " + index);
+		scratch.flip();
+		return p;
+	}
+
+	// copies the scratch buffer into an array taken from the pool, or into a new array without a pool
+	private Object pixels(Plane p, BufferPool from) {
+		final int n = p.width * p.height;
+		switch (p.bits) {
+		case 8:
+			final byte[] b = from == null ? new byte[n] : from.takeBytes(n);
+			scratch.get(b);
+			return b;
+		case 16:
+			final short[] s = from == null ? new short[n] : from.takeShorts(n);
+			scratch.asShortBuffer().get(s);
+			return s;
+		default:
+			final float[] f = from == null ? new float[n] : from.takeFloats(n);
+			scratch.asFloatBuffer().get(f);
+			return f;
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes" })
+	private static Img image(Plane p, Object pixels) {
+		final long[] dims = new long[] { p.width, p.height };
+		switch (p.bits) {
+		case 8:
+			return ArrayImgs.unsignedBytes((byte[]) pixels, dims);
+		case 16:
+			return ArrayImgs.unsignedShorts((short[]) pixels, dims);
+		default:
+			return ArrayImgs.floats((float[]) pixels, dims);
+		}
+	}
+
+	/**
+	 * @param pool - pool of the pixel arrays of the frames
+	 */
+	public void setBufferPool(BufferPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Reads all directories of the file.
+	 */
+	@Override
+	public long getNumberOfFrames() throws IOException {
+		open();
+		if (contiguousPlanes > 0) return contiguousPlanes;
+		int n = directories.size();
+		while (directory(n) >= 0)
+			n++;
+		return n;
+	}
+
+	/**
+	 * The pixel array is taken from the BufferPool of the loader and goes back when the frame is released.
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public ImgLib2Frame<T> readFrame(long index, long frameNo) throws IOException {
+		final Plane p = readStrips((int) index);
+		final Object pixels = pixels(p, pool);
+		return new ImgLib2Frame<T>(frameNo, p.width, p.height, image(p, pixels), pixels, pool);
+	}
+
+	@Override
+	public void beforeRun() {
+		curPlane = 0;
+		try {
+			open();
+		} catch (IOException e) {
+			LemMING.error("Can\'t open TIFF file: " + filename + " (" + e.getMessage() + ")");
+		}
+	}
+
+	@Override
+	public boolean hasMoreOutputs() {
+		try {
+			return hasPlane(curPlane);
+		} catch (IOException e) {
+			LemMING.error("Can\'t read TIFF file: " + filename + " (" + e.getMessage() + ")");
+			return false;
+		}
+	}
+
+	@Override
+	protected ImgLib2Frame<T> newOutput() {
+		try {
+			curPlane++;
+			return readFrame(curPlane - 1, curPlane);
+		} catch (IOException e) {
+			LemMING.error("Can\'t read TIFF file: " + filename + " (" + e.getMessage() + ")");
+			return null;
+		}
+	}
+
+	@Override
+	public void afterRun() {
+		close();
+	}
+
+}
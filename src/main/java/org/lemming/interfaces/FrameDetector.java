@@ -0,0 +1,19 @@
+package org.lemming.interfaces;
+
+import java.util.List;
+
+/**
+ * The last step of a FrameOperatorChain, finds the localizations in the pixels of a frame. A detector may be used by
+ * several threads at the same time.
+ */
+public interface FrameDetector {
+
+	/**
+	 * @param frameNo - frame number of the localizations
+	 * @param pixels - the frame, the pixel (x,y) is at index y*width+x
+	 * @param width - frame width
+	 * @param height - frame height
+	 * @return the localizations found
+	 */
+	public List<Localization> detect(long frameNo, float[] pixels, int width, int height);
+}
@@ -0,0 +1,15 @@
+package org.lemming.interfaces;
+
+/**
+ * A step of a FrameOperatorChain, e.g. a background subtraction or a smoothing, which replaces the pixels of a frame in
+ * place. An operator may be applied by several threads at the same time.
+ */
+public interface FrameOperator {
+
+	/**
+	 * @param pixels - the frame, the pixel (x,y) is at index y*width+x
+	 * @param width - frame width
+	 * @param height - frame height
+	 */
+	public void apply(float[] pixels, int width, int height);
+}
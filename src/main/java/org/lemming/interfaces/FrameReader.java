@@ -0,0 +1,35 @@
+package org.lemming.interfaces;
+
+import java.io.IOException;
+
+import net.imglib2.type.numeric.RealType;
+
+import org.lemming.data.ImgLib2Frame;
+
+/**
+ * Random access to the frames of a movie file. A reader is used by one thread at a time, several threads reading the
+ * same file use a reader each.
+ *
+ * @param <T> - data type
+ */
+public interface FrameReader<T extends RealType<T>> {
+
+	/**
+	 * @return Returns the number of frames in the file.
+	 * @throws IOException if the file cannot be read
+	 */
+	public long getNumberOfFrames() throws IOException;
+
+	/**
+	 * @param index - frame index in the file, starting at 0
+	 * @param frameNo - number of the frame in the movie
+	 * @return the frame, a pixel array taken from a BufferPool goes back to it when the frame is released
+	 * @throws IOException if the frame cannot be read
+	 */
+	public ImgLib2Frame<T> readFrame(long index, long frameNo) throws IOException;
+
+	/**
+	 * Releases the file, the frames already read stay valid.
+	 */
+	public void close();
+}
@@ -0,0 +1,14 @@
+package org.lemming.interfaces;
+
+import org.lemming.data.StageMetrics;
+
+/**
+ * A module reporting its throughput, processing times and waiting times.
+ */
+public interface Metered {
+
+	/**
+	 * @return Returns the metrics of the module, updated while it runs.
+	 */
+	public StageMetrics getMetrics();
+}
@@ -1,7 +1,14 @@
 package org.lemming.interfaces;
 
+import java.util.Collection;
+
 /**
- * Store represents a repository of generic objects. Only a get, a put and an isempty class are provided.
+ * Store represents a repository of generic objects. Besides get, put and isEmpty, batch versions of get and put are provided
+ * to move many small elements (e.g. localizations) with a single synchronization.
+ * <p>
+ * The end of the stream is signalled on the store itself: every writer calls registerProducer before it starts and close
+ * after its last element. Once all writers closed the store, readers drain the remaining elements and stop when the store
+ * is closed and empty, checked in this order. A blocking get returns null instead of waiting on a closed and drained store.
  * 
  * @author Thomas Pengo
  *
@@ -28,4 +35,35 @@ public interface Store<DataType> {
 	 */
 	boolean isEmpty();
 	
+	/**
+	 * Removes up to maxElements of the elements currently available and adds them to the buffer, without waiting.
+	 * 
+	 * @param buffer - caller supplied collection receiving the elements
+	 * @param maxElements - the maximum number of elements to transfer
+	 * @return the number of elements transferred
+	 */
+	public int drainTo(Collection<? super DataType> buffer, int maxElements);
+	
+	/**
+	 * Adds all elements of the collection to the store, in iteration order.
+	 * 
+	 * @param elements - the elements to be put
+	 */
+	public void putAll(Collection<? extends DataType> elements);
+	
+	/**
+	 * Announces a writer. The store is closed when every registered writer has called close.
+	 */
+	public void registerProducer();
+	
+	/**
+	 * Signals that a writer has put its last element. Waiting readers are released once the last writer closed the store.
+	 */
+	public void close();
+	
+	/**
+	 * @return true if all writers closed the store, no more elements will be put
+	 */
+	public boolean isClosed();
+	
 }
@@ -145,7 +145,6 @@ public class GaussRenderOutput extends SingleInput<Localization> implements Rend
 	@Override
 	public void process(Localization loc) {
 		if (loc==null) return;
-		if (loc.isLast()) {stop(); return;}
 		double x = loc.getX();
 		double y = loc.getY();
 		int[][] X = Miscellaneous.getWindowPixels((int)x, (int)y, width, height, sigmaX, aspectRatio);
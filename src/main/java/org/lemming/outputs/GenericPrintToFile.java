@@ -40,6 +40,7 @@ public class GenericPrintToFile extends SingleInput<FastMap<String,Object>> {
 			e.printStackTrace();
 			LemMING.error(e.getMessage());
 		}
+		System.out.println("Export finished");
 	}
 
 	@Override
@@ -49,11 +50,7 @@ public class GenericPrintToFile extends SingleInput<FastMap<String,Object>> {
 		StringBuilder out = new StringBuilder();
 		for (String key : elements.keySet()){
 			Object o = elements.get(key);
-			if(o instanceof LastElement){ 
-				stop();
-				System.out.println("Export finished"); 
-				return;
-			}
+			if(o instanceof LastElement) return; // end marker of a table view, not a row
 			out.append(o.toString());out.append(", ");
 		}
 		out.append("\n");
@@ -74,6 +71,7 @@ public class GenericPrintToFile extends SingleInput<FastMap<String,Object>> {
 			LemMING.error(e.getMessage());
 		}
 		Locale.setDefault( curLocale );
+		System.out.println("Export finished");
 	}
 
 }
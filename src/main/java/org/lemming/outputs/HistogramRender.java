@@ -109,15 +109,14 @@ public class HistogramRender extends SingleInput<Localization> implements Render
 		super.run();
 	}
 
+	@Override
+	public void afterRun() {
+		System.out.println("Rendering finished");
+	}
+
 	@Override
 	public void process(Localization element) {
 		if(element==null) return;
-		if(element.isLast()){ 
-			stop();
-			//t.cancel();
-			System.out.println("Rendering finished:"+element.getID()); 
-			return;
-		}
 		double x = element.getX();
 		double y = element.getY();
         if ( (x > xmin) && (x <= xmax) && (y > ymin) && (y <= ymax)) {
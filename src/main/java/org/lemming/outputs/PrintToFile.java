@@ -49,16 +49,12 @@ public class PrintToFile extends SingleInput<Localization> {
 			LemMING.error(e.getMessage());
 		}
 		Locale.setDefault( curLocale );
+		System.out.println("Export finished");
 	}
 	
 	@Override
 	public void process(Localization l) {
 		if (l==null) return;
-		if(l.isLast()){ 
-			stop();
-			System.out.println("Export finished:"+l.getID()); 
-			return;
-		}
 		try {
 			String out = String.format("%d, %f, %f\n",l.getID(),l.getX(),l.getY());
 			w.write(out);
@@ -12,8 +12,6 @@ public class PrintToScreen extends SingleInput<Localization> {
 	public void process(Localization l) {
 		if (l==null) return;
 		System.out.println(String.format("%d, %f, %f",l.getID(),l.getX(),l.getY()));
-		if (l.isLast())
-			stop();
 	}
 
 }
@@ -1,17 +1,27 @@
 package org.lemming.outputs;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lemming.data.StageMetrics;
+import org.lemming.interfaces.Metered;
 import org.lemming.interfaces.Store;
 import org.lemming.interfaces.Well;
 
 /**
+ * This class represents a module with a single input. The run method processes the elements of the input until the input
+ * is closed and drained or stop is called. The throughput and processing times are reported by getMetrics.
+ * 
  * @author Ronny Sczech
  *
  * @param <T> - data type
  */
-public abstract class SingleInput<T> implements Well<T> {
+public abstract class SingleInput<T> implements Well<T>, Metered {
 
 	protected Store<T> input;
 	private volatile boolean running = true;
+	private int batchSize = 256;
+	private final StageMetrics metrics = new StageMetrics(getClass().getSimpleName());
 
 	@Override
 	public void run() {
@@ -20,13 +30,35 @@ public abstract class SingleInput<T> implements Well<T> {
 		if (input==null)
 			throw new NullStoreWarning(this.getClass().getName()); 
 		
+		metrics.setInput(input);
+		metrics.start();
+		final List<T> batch = new ArrayList<T>(batchSize);
 		while (running) {
-			process(nextInput());			
+			// take everything that is available at once, wait for a single element otherwise
+			if (input.drainTo(batch, batchSize) == 0) {
+				if (input.isClosed() && input.isEmpty()) break;
+				final long t = System.nanoTime();
+				final T el = nextInput();
+				metrics.recordInputWait(System.nanoTime() - t);
+				if (el != null) processMetered(el);
+				else if (Thread.currentThread().isInterrupted()) break;
+				continue;
+			}
+			for (int i = 0, n = batch.size(); i < n; i++)
+				processMetered(batch.get(i));
+			batch.clear();
 		}
+		metrics.stop();
 		
 		afterRun();
 	}
 	
+	private void processMetered(T element) {
+		final long t = System.nanoTime();
+		process(element);
+		metrics.recordElement(System.nanoTime() - t);
+	}
+	
 	/**
 	 * @param element - element
 	 */
@@ -47,6 +79,18 @@ public abstract class SingleInput<T> implements Well<T> {
 	public void setInput(Store<T> s) {
 		input = s;
 	}
+	
+	@Override
+	public StageMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * @param batchSize - maximum number of elements taken from the input at once
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
 
 	/**
 	 * 
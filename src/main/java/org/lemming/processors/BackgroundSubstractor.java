@@ -1,31 +1,46 @@
 package org.lemming.processors;
 
-import ij.process.FloatProcessor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import net.imglib2.Cursor;
-import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.view.Views;
 
+import org.lemming.data.BufferPool;
 import org.lemming.data.ImgLib2Frame;
 import org.lemming.interfaces.Frame;
+import org.lemming.interfaces.FrameOperator;
+import org.lemming.utils.PixelArrays;
 
-
-public class BackgroundSubstractor<T extends RealType<T> & NativeType<T>, F extends Frame<T>> extends SingleInputSingleOutput<F, F> {
+/**
+ * Subtracts the background found by rolling a ball under the intensity landscape of every frame, as the ImageJ
+ * background subtracter does. The ball of a radius is built once and shared. The ball is rolled over row bands of a
+ * frame in parallel on the Scheduler of the processor, see setBands. Frames of UnsignedShortType and FloatType stored
+ * in an ArrayImg are read from and written to their pixel arrays directly. As a {@link FrameOperator} it subtracts the
+ * background inside a {@link FrameOperatorChain}.
+ */
+public class BackgroundSubstractor<T extends RealType<T> & NativeType<T>, F extends Frame<T>> extends SingleInputSingleOutput<F, F> implements FrameOperator {
 
 	private boolean hasMoreOutputs=true;
 	private long start;
 	private boolean invert=false;
 	private boolean doPresmooth=false;
 	private double radius=1;
+	private int bands;
+	private BufferPool pool = BufferPool.getDefault();
 	
 	public BackgroundSubstractor(double radius, boolean doPresmooth, boolean invert){
 		start=System.currentTimeMillis();
 		hasMoreOutputs = true;
-		new ArrayImgFactory<T>();
 		this.radius = radius;
 		this.doPresmooth = doPresmooth;
 		this.invert = invert;
@@ -41,121 +56,183 @@ public class BackgroundSubstractor<T extends RealType<T> & NativeType<T>, F exte
 	public void process(F frame) {
 		if (frame==null) return;
 		process1(frame);
-		if (frame.isLast()){
-			long end = System.currentTimeMillis();
-			System.out.println("Last frame finished:"+frame.getFrameNumber()+" in "+(end-start)+" ms");
-			frame.setLast(true);
-			output.put(frame);
-			hasMoreOutputs = false;
-			stop();
-			return;
-		}
 		if (frame.getFrameNumber() % 500 == 0)
 			System.out.println("Frames finished:"+frame.getFrameNumber());
 	}
+
+	@Override
+	public void afterRun() {
+		long end = System.currentTimeMillis();
+		System.out.println("Last frame finished in "+(end-start)+" ms");
+		hasMoreOutputs = false;
+	}
 	
 	private void invert(float[] pixels){
 		for (int i=0; i<pixels.length; i++)
             pixels[i] = -pixels[i];
 	}
 	
-	private FloatProcessor wrap(RandomAccessibleInterval<T> source){
-		FloatProcessor fp = new FloatProcessor((int)source.dimension(0),(int)source.dimension(1));
-		float[] pixels = (float[])fp.getPixels();
-		Cursor<T> cursor = Views.flatIterable(source).cursor();
-		int pp = 0;
-		while(cursor.hasNext())
-			pixels[pp++]=cursor.next().getRealFloat();
-
-		return fp;
+	/** Copies the frame into a float array of the pool, directly from the pixel array if there is one. */
+	private float[] wrap(RandomAccessibleInterval<T> source, short[] shorts, float[] floats){
+		final int n = (int)source.dimension(0)*(int)source.dimension(1);
+		float[] pixels = pool.takeFloats(n);
+		if (floats != null) {
+			System.arraycopy(floats, 0, pixels, 0, n);
+		} else if (shorts != null) {
+			for (int i=0; i<n; i++)
+				pixels[i] = shorts[i] & 0xffff;
+		} else {
+			Cursor<T> cursor = Views.flatIterable(source).cursor();
+			int pp = 0;
+			while(cursor.hasNext())
+				pixels[pp++]=cursor.next().getRealFloat();
+		}
+		return pixels;
 	}
 
 	@SuppressWarnings("unchecked")
 	private void process1(F frame) {
 		
 		RandomAccessibleInterval<T> interval = frame.getPixels();
-		RollingBall ball = new RollingBall(radius);
-        boolean shrink = ball.shrinkFactor >1;
-        String typename = Views.iterable(interval).firstElement().getClass().getSimpleName();
-        T type = Views.iterable(interval).firstElement().createVariable();
-        FloatProcessor fp = wrap(interval);
-        float[] pixels = (float[])fp.getPixels();
+		final int width = (int)interval.dimension(0);
+		final int height = (int)interval.dimension(1);
+        final short[] shorts = PixelArrays.unsignedShorts(interval);
+        final float[] floats = PixelArrays.floats(interval);
+        float[] pixels = wrap(interval, shorts, floats);
         
-        if (typename.contains("FloatType"))
-        	fp.snapshot();
-
-        if (invert)
-            invert(pixels);
-        if (doPresmooth)
-            filter3x3(fp);
-        if (Thread.currentThread().isInterrupted()) return;
-        FloatProcessor smallImage = shrink ? shrinkImage(fp, ball.shrinkFactor) : fp;
-        if (Thread.currentThread().isInterrupted()) return;
-        rollBall(ball, smallImage);
-        if (Thread.currentThread().isInterrupted()) return;
-        if (shrink)
-        	enlargeImage(smallImage,fp, ball.shrinkFactor); //interval will be overwritten !
-        if (Thread.currentThread().isInterrupted()) return;
-
-        if (invert)
-            invert(pixels);
-        
-        RandomAccessibleInterval<T> out = unwrap(interval, fp,type);
-        output.put((F) new ImgLib2Frame<T>(frame.getFrameNumber(),(int) out.dimension(0), (int)out.dimension(1), out));
+        try {
+        	if (!background(pixels, width, height)) return;
+	        ImgLib2Frame<T> outFrame = unwrap(frame, pixels, shorts, floats);
+	        outFrame.setLast(frame.isLast());
+	        output.put((F) outFrame);
+        } finally {
+        	pool.release(pixels);
+        	ImgLib2Frame.release(frame);
+        }
+	}
+	
+	/**
+	 * Subtracts the background in place, for a {@link FrameOperatorChain}. The pixels are not clamped or offset.
+	 */
+	@Override
+	public void apply(float[] pixels, int width, int height) {
+		final int n = width*height;
+		final float[] bg = pool.takeFloats(n);
+		try {
+			System.arraycopy(pixels, 0, bg, 0, n);
+			if (!background(bg, width, height)) return;
+			for (int p=0; p<n; p++)
+				pixels[p] -= bg[p];
+		} finally {
+			pool.release(bg);
+		}
 	}
 	
+	/** Replaces the pixels by the background, returns false if the thread was interrupted. */
+	private boolean background(float[] pixels, int width, int height) {
+		RollingBall ball = RollingBall.get(radius);
+        boolean shrink = ball.shrinkFactor >1;
+        float[] smallImage = null;
+        try {
+	        if (invert)
+	            invert(pixels);
+	        if (doPresmooth)
+	            filter3x3(pixels, width, height);
+	        if (Thread.currentThread().isInterrupted()) return false;
+	        final int sWidth = shrink ? (width+ball.shrinkFactor-1)/ball.shrinkFactor : width;
+	        final int sHeight = shrink ? (height+ball.shrinkFactor-1)/ball.shrinkFactor : height;
+	        smallImage = shrink ? shrinkImage(pixels, width, height, ball.shrinkFactor) : pixels;
+	        if (Thread.currentThread().isInterrupted()) return false;
+	        rollBall(ball, smallImage, sWidth, sHeight);
+	        if (Thread.currentThread().isInterrupted()) return false;
+	        if (shrink)
+	        	enlargeImage(smallImage, sWidth, sHeight, pixels, width, height, ball.shrinkFactor); //interval will be overwritten !
+	        if (Thread.currentThread().isInterrupted()) return false;
 	
-    private RandomAccessibleInterval<T> unwrap(RandomAccessibleInterval<T> interval, FloatProcessor fp, T type) {
-    	float[] bgPixels = (float[])fp.getPixels();
-    	String typename = type.getClass().getSimpleName();
-    	Img<T> out = new ArrayImgFactory<T>().create(new long[]{fp.getWidth(), fp.getHeight()}, type);
-    	RandomAccess<T> ra = out.randomAccess();
-    	Cursor<T> cursor = Views.flatIterable(interval).cursor();
-    	int p=0;
-    	if (typename.contains("FloatType")){
-    		float[] snapshotPixels = (float[])fp.getSnapshotPixels(); //original data in the snapshot
-    		while(cursor.hasNext()){
-    			cursor.fwd();
-    			ra.setPosition(cursor);
-    			ra.get().setReal(snapshotPixels[p]-bgPixels[p]);
-    			p++;
+	        if (invert)
+	            invert(pixels);
+	        return true;
+        } finally {
+        	if (smallImage != null && smallImage != pixels)
+        		pool.release(smallImage);
+        }
+	}
+	
+	
+	/** Subtracts the background, the output pixels are taken from the pool and returned when the output frame is released. */
+	@SuppressWarnings("unchecked")
+    private ImgLib2Frame<T> unwrap(F frame, float[] bgPixels, short[] shorts, float[] floats) {
+		final RandomAccessibleInterval<T> interval = frame.getPixels();
+		final int width = (int) interval.dimension(0);
+		final int height = (int) interval.dimension(1);
+		final int n = width*height;
+		final long[] dims = new long[]{width, height};
+		final T type = Views.iterable(interval).firstElement();
+    	Object buffer = null;
+    	Img<?> out;
+    	if (type instanceof FloatType){
+    		final float[] outPixels = pool.takeFloats(n);
+    		if (floats != null)
+    			for (int p=0; p<n; p++)
+    				outPixels[p] = floats[p]-bgPixels[p]; //original data
+    		else {
+    			final Cursor<T> cursor = Views.flatIterable(interval).cursor();
+    			for (int p=0; p<n; p++)
+    				outPixels[p] = cursor.next().getRealFloat()-bgPixels[p];
     		}
-    	} else if (typename.contains("UnsignedShortType")){
-    		float offset = invert ? 65535.0f : 0f;
-            while(cursor.hasNext()){
-    			cursor.fwd();
-    			float value = cursor.get().getRealFloat() - bgPixels[p] + offset;
+    		out = ArrayImgs.floats(outPixels, dims);
+    		buffer = outPixels;
+    	} else if (type instanceof UnsignedShortType){
+    		final short[] outPixels = pool.takeShorts(n);
+    		final float offset = invert ? 65535.0f : 0f;
+    		final Cursor<T> cursor = shorts == null ? Views.flatIterable(interval).cursor() : null;
+    		for (int p=0; p<n; p++){
+    			float value = (shorts != null ? shorts[p] & 0xffff : cursor.next().getRealFloat()) - bgPixels[p] + offset;
                 if (value<0f) value = 0f;
                 if (value>65535f) value = 65535f;
-    			ra.setPosition(cursor);
-    			ra.get().setReal(value);
-    			p++;
+    			outPixels[p] = (short) Math.round(value);
     		}
-    	} else if (typename.contains("UnsignedByteType")){
-    		float offset = invert ? 255.0f : 0f;
-            while(cursor.hasNext()){
-    			cursor.fwd();
-    			float value = cursor.get().getRealFloat() - bgPixels[p] + offset;
+    		out = ArrayImgs.unsignedShorts(outPixels, dims);
+    		buffer = outPixels;
+    	} else if (type instanceof UnsignedByteType){
+    		final byte[] outPixels = pool.takeBytes(n);
+    		final float offset = invert ? 255.0f : 0f;
+    		final Cursor<T> cursor = Views.flatIterable(interval).cursor();
+    		for (int p=0; p<n; p++){
+    			float value = cursor.next().getRealFloat() - bgPixels[p] + offset;
                 if (value<0f) value = 0f;
                 if (value>255f) value = 255f;
-    			ra.setPosition(cursor);
-    			ra.get().setReal(value);
-    			p++;
+    			outPixels[p] = (byte) Math.round(value);
     		}
+    		out = ArrayImgs.unsignedBytes(outPixels, dims);
+    		buffer = outPixels;
+    	} else {
+    		out = new ArrayImgFactory<T>().create(dims, type.createVariable());
     	}
     	
-		return out;
+		return new ImgLib2Frame<T>(frame.getFrameNumber(), width, height, (RandomAccessibleInterval<T>) out, buffer, pool);
+	}
+
+	/**
+	 * @param pool - pool of the pixel arrays of the output frames and of the working images
+	 */
+	public void setBufferPool(BufferPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @param bands - number of row bands the ball is rolled over in parallel, 0 for the share of the CPU budget of a task
+	 * of the processor, see getThreadsPerTask
+	 */
+	public void setBands(int bands) {
+		this.bands = Math.max(0, bands);
 	}
 
 	/** Creates a lower resolution image for ball-rolling. */
-    FloatProcessor shrinkImage(FloatProcessor ip, int shrinkFactor) {
-        int width = ip.getWidth();
-        int height = ip.getHeight();
-        float[] pixels = (float[])ip.getPixels();
+    float[] shrinkImage(float[] pixels, int width, int height, int shrinkFactor) {
         int sWidth = (width+shrinkFactor-1)/shrinkFactor;
         int sHeight = (height+shrinkFactor-1)/shrinkFactor;
-        FloatProcessor smallImage = new FloatProcessor(sWidth, sHeight);
-        float[] sPixels = (float[])smallImage.getPixels();
+        float[] sPixels = pool.takeFloats(sWidth*sHeight);
         float min, thispixel;
         
         for (int ySmall=0; ySmall<sHeight; ySmall++) {
@@ -171,7 +248,7 @@ public class BackgroundSubstractor<T extends RealType<T> & NativeType<T>, F exte
                 sPixels[xSmall+ySmall*sWidth] = min; // each point in small image is minimum of its neighborhood
             }
         }
-        return smallImage;
+        return sPixels;
     }
 
     /** 'Rolls' a filtering object over a (shrunken) image in order to find the
@@ -186,28 +263,51 @@ public class BackgroundSubstractor<T extends RealType<T> & NativeType<T>, F exte
         before running this procedure is advised for large ball radii because the
         processing time increases with ball radius^2.
     */
-    void rollBall(RollingBall ball, FloatProcessor fp) {
-        float[] pixels = (float[])fp.getPixels();   //the input pixels
-        int width = fp.getWidth();
-        int height = fp.getHeight();
+    void rollBall(final RollingBall ball, final float[] pixels, final int width, final int height) {
+        final float[] src = pool.takeFloats(width*height); //the input pixels, pixels receives the background
+        System.arraycopy(pixels, 0, src, 0, width*height);
+        try {
+            int numBands = bands > 0 ? bands : getThreadsPerTask();
+            numBands = Math.max(1, Math.min(numBands, height/ball.width)); // the halo of a band should not dominate
+            if (numBands == 1) {
+                rollBand(ball, src, pixels, width, height, 0, height);
+                return;
+            }
+            new Tiles(width, height, width, (height+numBands-1)/numBands, 0).run(getScheduler(), numBands, new Tiles.Task<Object>() {
+                @Override
+                public Object process(Tiles.Tile tile) {
+                    rollBand(ball, src, pixels, width, height, tile.y0, tile.y1);
+                    return null;
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.release(src);
+        }
+    }
+
+    /** Rolls the ball over the rows firstLine to lastLine (exclusive) of the background. Every ball position touching
+        these rows is computed, so that bands give the same result as the whole image. Only the rows of the band are
+        written, bands can be rolled in parallel.
+    */
+    static void rollBand(RollingBall ball, float[] src, float[] pixels, int width, int height, int firstLine, int lastLine) {
         float[] zBall = ball.data;
         int ballWidth = ball.width;
         int radius = ballWidth/2;
-        float[] cache = new float[width*ballWidth]; //temporarily stores the pixels we work on
+        for (int p=firstLine*width; p<lastLine*width; p++)
+            pixels[p] = -Float.MAX_VALUE;   //unprocessed pixels start at minus infinity
 
-        for (int y=-radius; y<height+radius; y++) { //for all positions of the ball center:
-            int nextLineToWriteInCache = (y+radius)%ballWidth;
-            int nextLineToRead = y + radius;        //line of the input not touched yet
-            if (nextLineToRead<height) {
-                System.arraycopy(pixels, nextLineToRead*width, cache, nextLineToWriteInCache*width, width);
-                for (int x=0, p=nextLineToRead*width; x<width; x++,p++)
-                    pixels[p] = -Float.MAX_VALUE;   //unprocessed pixels start at minus infinity
-            }
+        int yFirst = Math.max(-radius, firstLine-radius);
+        int yLast = Math.min(height+radius, lastLine+radius);
+        for (int y=yFirst; y<yLast; y++) { //for all positions of the ball center touching the band:
             int y0 = y-radius;                      //the first line to see whether the ball touches
             if (y0 < 0) y0 = 0;
             int yBall0 = y0-y+radius;               //y coordinate in the ball corresponding to y0
             int yend = y+radius;                    //the last line to see whether the ball touches
             if (yend>=height) yend = height-1;
+            int w0 = Math.max(y0, firstLine);       //the lines of the band raised by the ball
+            int wend = Math.min(yend, lastLine-1);
             for (int x=-radius; x<width+radius; x++) {
                 float z = Float.MAX_VALUE;          //the height of the ball (ball is in position x,y)
                 int x0 = x-radius;
@@ -216,34 +316,27 @@ public class BackgroundSubstractor<T extends RealType<T> & NativeType<T>, F exte
                 int xend = x+radius;
                 if (xend>=width) xend = width-1;
                 for (int yp=y0, yBall=yBall0; yp<=yend; yp++,yBall++) { //for all points inside the ball
-                    int cachePointer = (yp%ballWidth)*width+x0;
-                    for (int xp=x0, bp=xBall0+yBall*ballWidth; xp<=xend; xp++, cachePointer++, bp++) {
-                        float zReduced = cache[cachePointer] - zBall[bp];
+                    for (int xp=x0, p=xp+yp*width, bp=xBall0+yBall*ballWidth; xp<=xend; xp++, p++, bp++) {
+                        float zReduced = src[p] - zBall[bp];
                         if (z > zReduced)           //does this point imply a greater height?
                             z = zReduced;
                     }
                 }
-                for (int yp=y0, yBall=yBall0; yp<=yend; yp++,yBall++) //raise pixels to ball surface
+                for (int yp=w0, yBall=yBall0+w0-y0; yp<=wend; yp++,yBall++) //raise pixels to ball surface
                     for (int xp=x0, p=xp+yp*width, bp=xBall0+yBall*ballWidth; xp<=xend; xp++, p++, bp++) {
                         float zMin = z + zBall[bp];
                         if (pixels[p] < zMin)
                             pixels[p] = zMin;
                     }
             }
-        }        
+        }
     }
     
     /** Uses bilinear interpolation to find the points in the full-scale background
         given the points from the shrunken image background. (At the edges, it is
         actually extrapolation.)
     */                                 
-    void enlargeImage(FloatProcessor smallImage, FloatProcessor fp, int shrinkFactor) {
-        int width = fp.getWidth();
-        int height = fp.getHeight();
-        int smallWidth = smallImage.getWidth();
-        int smallHeight = smallImage.getHeight();
-        float[] pixels = (float[])fp.getPixels();
-        float[] sPixels = (float[])smallImage.getPixels();
+    void enlargeImage(float[] sPixels, int smallWidth, int smallHeight, float[] pixels, int width, int height, int shrinkFactor) {
         int[] xSmallIndices = new int[width];         //index of first point in smallImage
         float[] xWeights = new float[width];        //weight of this point
         makeInterpolationArrays(xSmallIndices, xWeights, width, smallWidth, shrinkFactor);
@@ -300,11 +393,8 @@ public class BackgroundSubstractor<T extends RealType<T> & NativeType<T>, F exte
      *  When used as maximum filter, it returns the average change of the
      *  pixel value by this operation
      */
-    double filter3x3(FloatProcessor fp) {
-        int width = fp.getWidth();
-        int height = fp.getHeight();
+    static double filter3x3(float[] pixels, int width, int height) {
         double shiftBy = 0;
-        float[] pixels = (float[])fp.getPixels();
         for (int y=0; y<height; y++)
             shiftBy += filter3(pixels, width, y*width, 1);
         for (int x=0; x<width; x++)
@@ -313,7 +403,7 @@ public class BackgroundSubstractor<T extends RealType<T> & NativeType<T>, F exte
     }
 
     /** Filter a line: maximum or average of 3-pixel neighborhood */
-    double filter3(float[] pixels, int length, int pixel0, int inc) {
+    static double filter3(float[] pixels, int length, int pixel0, int inc) {
         double shiftBy = 0;
         float v3 = pixels[pixel0];  //will be pixel[i+1]
         float v2 = v3;              //will be pixel[i]
@@ -336,10 +426,23 @@ public class BackgroundSubstractor<T extends RealType<T> & NativeType<T>, F exte
  */
 class RollingBall {
 
+    private static final ConcurrentMap<Double, RollingBall> balls = new ConcurrentHashMap<Double, RollingBall>();
+
     float[] data;
     int width;
-    int shrinkFactor;
+    final int shrinkFactor;
     
+    /** @return the ball of the radius, built once and shared by all frames and threads */
+    static RollingBall get(double radius) {
+        RollingBall ball = balls.get(radius);
+        if (ball == null) {
+            RollingBall built = new RollingBall(radius);
+            ball = balls.putIfAbsent(radius, built);
+            if (ball == null) ball = built;
+        }
+        return ball;
+    }
+
     RollingBall(double radius) {
         int arcTrimPer;
         if (radius<=10) {
@@ -5,31 +5,29 @@ import java.util.Arrays;
 import java.util.List;
 
 import net.imglib2.Cursor;
-import net.imglib2.IterableInterval;
-import net.imglib2.Localizable;
 import net.imglib2.Point;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.Sampler;
-import net.imglib2.algorithm.dog.DifferenceOfGaussian;
-import net.imglib2.algorithm.gauss3.Gauss3;
 import net.imglib2.algorithm.localextrema.RefinedPeak;
 import net.imglib2.algorithm.localextrema.SubpixelLocalization;
-import net.imglib2.algorithm.neighborhood.Neighborhood;
-import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Intervals;
-import net.imglib2.util.Util;
-import net.imglib2.view.ExtendedRandomAccessibleInterval;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 
+import org.lemming.data.BufferPool;
+import org.lemming.data.ImgLib2Frame;
 import org.lemming.data.XYFLocalization;
 import org.lemming.interfaces.Frame;
 import org.lemming.interfaces.Localization;
-import org.lemming.processors.LocalExtrema.LocalNeighborhoodCheck;
+import org.lemming.utils.DogFilter;
+import org.lemming.utils.PixelArrays;
 
 /**
+ * Detects spots as maxima of the difference of Gaussians of a frame, computed by a {@link DogFilter}, and refines them to
+ * subpixel positions.
+ * 
  * @author Ronny Sczech
  *
  * @param <T> - data type
@@ -41,6 +39,13 @@ public class DogDetector<T extends RealType<T>, F extends Frame<T>> extends Sing
 	private final double[] calibration;
 	private float threshold;
 	private boolean hasMoreOutputs;
+	private BufferPool pool = BufferPool.getDefault();
+	private final ThreadLocal< DogFilter > filters = new ThreadLocal< DogFilter >() {
+		@Override
+		protected DogFilter initialValue() {
+			return new DogFilter( radius, calibration );
+		}
+	};
 	
 	/**
 	 * @param radius - estimated feature radius
@@ -59,61 +64,73 @@ public class DogDetector<T extends RealType<T>, F extends Frame<T>> extends Sing
 	public void process(F frame) {
 		if (frame==null) return;
 		process1(frame);
-		if (frame.isLast()){
-			System.out.println("Last frame finished:"+frame.getFrameNumber());
-			XYFLocalization lastloc = new XYFLocalization(frame.getFrameNumber(), 0, 0);
-			lastloc.setLast(true);
-			output.put(lastloc);
-			hasMoreOutputs = false;
-			stop();
-			return;
-		}
 		if (frame.getFrameNumber() % 500 == 0)
 			System.out.println("Frames finished:"+frame.getFrameNumber());
 	}
 
+	@Override
+	public void afterRun() {
+		System.out.println("Last frame finished");
+		hasMoreOutputs = false;
+	}
+
 	private void process1(Frame<T> frame) {
+		try {
+			detect( frame );
+		} finally {
+			ImgLib2Frame.release( frame );
+		}
+	}
+	
+	/**
+	 * @param pool - pool of the copies of frames that are not unsigned short or float array images
+	 */
+	public void setBufferPool(BufferPool pool) {
+		this.pool = pool;
+	}
+
+	private void detect(Frame<T> frame) {
 		
 		final RandomAccessibleInterval< T > interval = frame.getPixels();
-		final ExtendedRandomAccessibleInterval<T, RandomAccessibleInterval<T>> extended = Views.extendMirrorSingle(interval);
+		final int width = ( int ) interval.dimension( 0 );
+		final int height = ( int ) interval.dimension( 1 );
+		
+		// Gaussians, difference and maxima in one engine per thread, which keeps its images from frame to frame
+		final DogFilter filter = filters.get();
+		final short[] shorts = PixelArrays.unsignedShorts( interval );
+		final float[] floats = PixelArrays.floats( interval );
+		final int numPeaks;
+		if ( shorts != null )
+			numPeaks = filter.detect( shorts, width, height, threshold );
+		else if ( floats != null )
+			numPeaks = filter.detect( floats, width, height, threshold );
+		else {
+			final float[] copy = pool.takeFloats( width * height );
+			try {
+				final Cursor< T > c = Views.flatIterable( interval ).cursor();
+				for ( int i = 0; i < copy.length; i++ )
+					copy[ i ] = c.next().getRealFloat();
+				numPeaks = filter.detect( copy, width, height, threshold );
+			} finally {
+				pool.release( copy );
+			}
+		}
 		
 		// WE NEED TO SHIFT COORDINATES BY -MIN[] TO HAVE THE CORRECT LOCATION.
 		final long[] min = new long[ interval.numDimensions() ];
 		interval.min( min );
+		final long[] offset = new long[ min.length ];
 		for ( int d = 0; d < min.length; d++ )
 		{
-			min[ d ] = -min[ d ];
+			offset[ d ] = -min[ d ];
 		}
-		final FloatType type = new FloatType();
-		final RandomAccessibleInterval< FloatType > dog = Views.offset( Util.getArrayOrCellImgFactory( interval, type ).create( interval, type ), min );
-		final RandomAccessibleInterval< FloatType > dog2 = Views.offset( Util.getArrayOrCellImgFactory( interval, type ).create( interval, type ), min );
-	
-		final double sigma1 = radius / Math.sqrt( interval.numDimensions() ) * 0.9;
-		final double sigma2 = radius / Math.sqrt( interval.numDimensions() ) * 1.1;
-		final double[][] sigmas = DifferenceOfGaussian.computeSigmas( 0.5, 2, calibration, sigma1, sigma2 );
-		
-		try {
-			Gauss3.gauss( sigmas[ 1 ], extended, dog2 );
-			Gauss3.gauss( sigmas[ 0 ], extended, dog );
-		} catch (IncompatibleTypeException e) {
-			e.printStackTrace();
-		}
-		
-		final IterableInterval< FloatType > dogIterable = Views.iterable( dog );
-		final IterableInterval< FloatType > tmpIterable = Views.iterable( dog2 );
-		final Cursor< FloatType > dogCursor = dogIterable.cursor();
-		final Cursor< FloatType > tmpCursor = tmpIterable.cursor();
-		while ( dogCursor.hasNext() )
-			dogCursor.next().sub( tmpCursor.next() );
-		
-		final FloatType val = new FloatType();
-		val.setReal(threshold);
-		final LocalNeighborhoodCheck< Point, FloatType > localNeighborhoodCheck = new LocalExtrema.MaximumCheck< FloatType >( val );
+		final RandomAccessibleInterval< FloatType > dog = Views.offset( ArrayImgs.floats( filter.getDog(), width, height ), offset );
 		final IntervalView< FloatType > dogWithBorder = Views.interval( Views.extendMirrorSingle( dog ), Intervals.expand( dog, 1 ) );
-		/*final ExecutorService service = Executors.newFixedThreadPool( numThreads );
-		final List< Point > peaks = LocalExtrema.findLocalExtrema( dogWithBorder, localNeighborhoodCheck, service );
-		service.shutdown();*/
-		final List< Point > peaks = LocalExtrema.findLocalExtrema( dogWithBorder, localNeighborhoodCheck,1);
+		
+		final int[] indices = filter.getPeaks();
+		final List< Point > peaks = new ArrayList< Point >( numPeaks );
+		for ( int i = 0; i < numPeaks; i++ )
+			peaks.add( new Point( min[ 0 ] + indices[ i ] % width, min[ 1 ] + indices[ i ] / width ) );
 		
 		/*final SubpixelLocalization< Point, FloatType > spl = new SubpixelLocalization< Point, FloatType >( dog.numDimensions() );
 		//spl.setNumThreads( numThreads );
@@ -0,0 +1,116 @@
+package org.lemming.processors;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+
+import org.lemming.data.BufferPool;
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.interfaces.Frame;
+import org.lemming.interfaces.FrameDetector;
+import org.lemming.interfaces.FrameOperator;
+import org.lemming.interfaces.Localization;
+import org.lemming.utils.PixelArrays;
+
+/**
+ * Runs a chain of {@link FrameOperator}s and a {@link FrameDetector} on every frame in one task, e.g. a background
+ * subtraction, a smoothing and a peak finder. The frame is copied once into a float array of the pool, which the
+ * operators modify in place while it is still in the cache, and only the localizations are put into the output. A
+ * pipeline of separate processors instead creates a new frame per step and passes it through a Store.
+ * <p>
+ * Operators and detectors that are processors themselves, like a BackgroundSubstractor or a tiled MaxFilterPeakFinder,
+ * split a frame among at most the threads of one task of the chain, so the chain as a whole stays within its CPU budget.
+ *
+ * @param <T> - data type
+ * @param <F> - frame type
+ */
+public class FrameOperatorChain<T extends RealType<T>, F extends Frame<T>> extends SingleInputSingleOutput<F, Localization> {
+
+	/** replaces every pixel by the mean of its 3x3 neighborhood */
+	public static final FrameOperator SMOOTH_3X3 = new FrameOperator() {
+		@Override
+		public void apply(float[] pixels, int width, int height) {
+			BackgroundSubstractor.filter3x3(pixels, width, height);
+		}
+	};
+
+	private final List<FrameOperator> operators;
+	private final FrameDetector detector;
+	private BufferPool pool = BufferPool.getDefault();
+	private boolean hasMoreOutputs = true;
+
+	/**
+	 * @param detector - finds the localizations after the operators
+	 * @param operators - applied in the given order
+	 */
+	public FrameOperatorChain(FrameDetector detector, FrameOperator... operators) {
+		this.detector = detector;
+		this.operators = Arrays.asList(operators);
+		setNumThreads();
+		// processors used as steps size their helpers by the share of a task of the chain
+		for (FrameOperator op : operators)
+			if (op instanceof SingleInputSingleOutput) ((SingleInputSingleOutput<?, ?>) op).setChain(this);
+		if (detector instanceof SingleInputSingleOutput) ((SingleInputSingleOutput<?, ?>) detector).setChain(this);
+	}
+
+	@Override
+	public boolean hasMoreOutputs() {
+		return hasMoreOutputs;
+	}
+
+	@Override
+	public void process(F frame) {
+		if (frame == null) return;
+		try {
+			process1(frame);
+		} finally {
+			ImgLib2Frame.release(frame);
+		}
+	}
+
+	@Override
+	public void afterRun() {
+		hasMoreOutputs = false;
+	}
+
+	private void process1(F frame) {
+		final RandomAccessibleInterval<T> interval = frame.getPixels();
+		final int width = (int) interval.dimension(0);
+		final int height = (int) interval.dimension(1);
+		final float[] pixels = pool.takeFloats(width * height);
+		try {
+			PixelArrays.copyFloats(interval, pixels);
+			for (FrameOperator op : operators) {
+				if (Thread.currentThread().isInterrupted()) return;
+				op.apply(pixels, width, height);
+			}
+			for (Localization l : detector.detect(frame.getFrameNumber(), pixels, width, height))
+				output.put(l);
+		} finally {
+			pool.release(pixels);
+		}
+	}
+
+	/**
+	 * @param pool - pool of the working copies of the frames
+	 */
+	public void setBufferPool(BufferPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @return Returns the operators in the order they are applied.
+	 */
+	public List<FrameOperator> getOperators() {
+		return operators;
+	}
+
+	/**
+	 * @return Returns the detector.
+	 */
+	public FrameDetector getDetector() {
+		return detector;
+	}
+}
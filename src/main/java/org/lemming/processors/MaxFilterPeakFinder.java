@@ -0,0 +1,158 @@
+package org.lemming.processors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+
+import org.lemming.data.BufferPool;
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.data.XYFLocalization;
+import org.lemming.interfaces.Frame;
+import org.lemming.interfaces.FrameDetector;
+import org.lemming.interfaces.Localization;
+import org.lemming.utils.MaxFilter;
+import org.lemming.utils.PixelArrays;
+
+/**
+ * Finds the pixels above the threshold that are the maximum of their (2 size+1)x(2 size+1) neighborhood by comparing the
+ * frame with its {@link MaxFilter} dilation. The cost per pixel does not depend on the size, unlike {@link PeakFinder}
+ * which compares every pixel with its whole neighborhood. Neighborhoods are clipped at the border, and equal neighbors
+ * on a plateau are all reported.
+ * <p>
+ * With setTileSize a large frame is split into {@link Tiles} with a halo of size pixels, which are searched in parallel on
+ * the Scheduler of the processor, so that the latency of a single frame scales with the cores. As a {@link FrameDetector}
+ * it ends a {@link FrameOperatorChain}.
+ *
+ * @param <T> - data type
+ * @param <F> - frame type
+ */
+public class MaxFilterPeakFinder<T extends RealType<T>, F extends Frame<T>> extends SingleInputSingleOutput<F, Localization> implements FrameDetector {
+
+	private final double threshold;
+	private final int size;
+	private final BufferPool pool = BufferPool.getDefault();
+	private int tileSize;
+	private boolean hasMoreOutputs;
+
+	/**
+	 * @param threshold - the intensity of a peak must be greater than threshold
+	 * @param size - distance from a peak to the border of its neighborhood
+	 */
+	public MaxFilterPeakFinder(double threshold, int size) {
+		this.threshold = threshold;
+		this.size = size;
+		hasMoreOutputs = true;
+		setNumThreads();
+	}
+
+	@Override
+	public void process(F frame) {
+		if (frame == null) return;
+		process1(frame);
+		ImgLib2Frame.release(frame);
+	}
+
+	@Override
+	public void afterRun() {
+		hasMoreOutputs = false;
+	}
+
+	private void process1(F frame) {
+		final RandomAccessibleInterval<T> pixels = frame.getPixels();
+		final int width = (int) pixels.dimension(0);
+		final int height = (int) pixels.dimension(1);
+
+		float[] in = PixelArrays.floats(pixels);
+		final boolean copied = in == null;
+		if (copied)
+			in = PixelArrays.copyFloats(pixels, pool.takeFloats(width * height));
+		try {
+			for (Localization l : detect(frame.getFrameNumber(), in, width, height))
+				output.put(l);
+		} finally {
+			if (copied) pool.release(in);
+		}
+	}
+
+	@Override
+	public List<Localization> detect(long frameNo, float[] in, int width, int height) {
+		if (tileSize > 0 && (width > tileSize || height > tileSize))
+			return detectTiles(frameNo, in, width, height);
+		return detect(frameNo, in, width, height, new Tiles.Tile(0, 0, width, height, 0, width, height));
+	}
+
+	private List<Localization> detectTiles(final long frameNo, final float[] in, final int width, final int height) {
+		final List<Localization> all = new ArrayList<Localization>();
+		final List<List<Localization>> found;
+		try {
+			found = new Tiles(width, height, tileSize, size).run(getScheduler(), getThreadsPerTask(),
+					new Tiles.Task<List<Localization>>() {
+						@Override
+						public List<Localization> process(Tiles.Tile tile) {
+							return detect(frameNo, in, width, height, tile);
+						}
+					});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return all;
+		}
+		for (List<Localization> l : found)
+			all.addAll(l);
+		return all;
+	}
+
+	// searches the core of a tile, the halo around it is only used for the max filter
+	private List<Localization> detect(long frameNo, float[] in, int width, int height, Tiles.Tile tile) {
+		final int w = tile.getHaloWidth();
+		final int h = tile.getHaloHeight();
+		final boolean whole = w == width && h == height;
+		final float[] region = whole ? in : pool.takeFloats(w * h);
+		final float[] max = pool.takeFloats(w * h);
+		final float[] tmp = pool.takeFloats(w * h);
+		final List<Localization> found = new ArrayList<Localization>();
+		try {
+			if (!whole)
+				for (int y = 0; y < h; y++)
+					System.arraycopy(in, (tile.haloY0 + y) * width + tile.haloX0, region, y * w, w);
+			MaxFilter.filter(region, max, tmp, w, h, size);
+			for (int y = tile.y0; y < tile.y1; y++)
+				for (int x = tile.x0, i = (y - tile.haloY0) * w + x - tile.haloX0; x < tile.x1; x++, i++)
+					if (region[i] == max[i] && region[i] > threshold)
+						found.add(new XYFLocalization(frameNo, x, y));
+		} finally {
+			pool.release(tmp);
+			pool.release(max);
+			if (!whole) pool.release(region);
+		}
+		return found;
+	}
+
+	/**
+	 * @param tileSize - edge length of the tiles searched in parallel, 0 searches a frame in one piece
+	 */
+	public void setTileSize(int tileSize) {
+		this.tileSize = Math.max(0, tileSize);
+	}
+
+	/**
+	 * @return Returns the edge length of the tiles, 0 if frames are not split.
+	 */
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * @return Threshold
+	 */
+	public double getThreshold() {
+		return threshold;
+	}
+
+	@Override
+	public boolean hasMoreOutputs() {
+		return hasMoreOutputs;
+	}
+
+}
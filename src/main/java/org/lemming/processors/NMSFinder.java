@@ -1,24 +1,36 @@
 package org.lemming.processors;
 
-import net.imglib2.RandomAccess;
+import java.util.ArrayList;
+import java.util.List;
+
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.RealType;
+import org.lemming.data.BufferPool;
+import org.lemming.data.ImgLib2Frame;
 import org.lemming.data.XYFLocalization;
 import org.lemming.interfaces.Frame;
+import org.lemming.interfaces.FrameDetector;
 import org.lemming.interfaces.Localization;
+import org.lemming.utils.PixelArrays;
 
 /**
+ * Non-maximum suppression searching the maximum of every (n+1)x(n+1) block. A block maximum above the threshold is a
+ * peak if no pixel within n of it, up to the image border, is greater. The search runs on a float[], the pixel array
+ * of a FloatType ArrayImg or a copy of other frames taken from a BufferPool. As a {@link FrameDetector} it ends a
+ * {@link FrameOperatorChain}.
+ * 
  * @author Ronny Sczech
  *
  * @param <T> - pixel type
  * @param <F> - frame type
  */
-public class NMSFinder<T extends RealType<T>, F extends Frame<T>> extends SingleInputSingleOutput<F, Localization> {
+public class NMSFinder<T extends RealType<T>, F extends Frame<T>> extends SingleInputSingleOutput<F, Localization> implements FrameDetector {
 
 	private boolean hasMoreOutputs;
 	private float cutoff;
 	private int size;
 	private long start;
+	private BufferPool pool = BufferPool.getDefault();
 	
 	/**
 	 * @param threshold - minimum threshold for a peak 
@@ -40,76 +52,79 @@ public class NMSFinder<T extends RealType<T>, F extends Frame<T>> extends Single
 	@Override
 	public void process(F frame) {
 		if (frame==null) return;
-		process1(frame);
-		if (frame.isLast()){
-			long end = System.currentTimeMillis();
-			System.out.println("Last frame finished:"+frame.getFrameNumber()+" in "+(end-start)+" ms");
-			XYFLocalization lastloc = new XYFLocalization(frame.getFrameNumber(), 0, 0);
-			lastloc.setLast(true);
-			output.put(lastloc);
-			hasMoreOutputs = false;
-			stop();
-			return;
+		try {
+			process1(frame);
+		} finally {
+			ImgLib2Frame.release(frame);
 		}
 		if (frame.getFrameNumber() % 500 == 0)
 			System.out.println("Frames finished:"+frame.getFrameNumber());
 	}
 
+	@Override
+	public void afterRun() {
+		long end = System.currentTimeMillis();
+		System.out.println("Last frame finished in "+(end-start)+" ms");
+		hasMoreOutputs = false;
+	}
+
 	private void process1(F frame) {
 		final RandomAccessibleInterval<T> interval = frame.getPixels();
-		RandomAccess<T> ra = interval.randomAccess();
-		
-		int i,j,ii,jj,ll,kk;
-		int mi,mj;
-		boolean failed=false;
-		int n_=size;
-		long width_= interval.dimension(0);
-		long height_ = interval.dimension(1);
-	
-		for(i=n_;i<=width_-1-n_;i+=n_+1){	// Loop over (n+1)x(n+1)
-			for(j=n_;j<=height_-1-n_;j+=n_+1){
-				mi = i;
-				mj = j;
-				for(ii=i;ii<=i+n_;ii++){	
-					for(jj=j;jj<=j+n_;jj++){
-						ra.setPosition(new int[]{ii,jj});
-						T first = ra.get();
-						ra.setPosition(new int[]{mi,mj});
-						T second = ra.get();
-						if (first.compareTo(second) > 0){	
+		final int width = (int) interval.dimension(0);
+		final int height = (int) interval.dimension(1);
+		float[] pixels = PixelArrays.floats(interval);
+		final boolean copied = pixels == null;
+		if (copied)
+			pixels = PixelArrays.copyFloats(interval, pool.takeFloats(width * height));
+		try {
+			for (Localization l : detect(frame.getFrameNumber(), pixels, width, height))
+				output.put(l);
+		} finally {
+			if (copied) pool.release(pixels);
+		}
+	}
+
+	/**
+	 * @param pool - pool of the working copies of the frames
+	 */
+	public void setBufferPool(BufferPool pool) {
+		this.pool = pool;
+	}
+
+	// the block maximum and its value are kept in locals, pixel (x,y) is at y*width+x
+	@Override
+	public List<Localization> detect(long frameNo, float[] p, int width, int height) {
+		final List<Localization> found = new ArrayList<Localization>();
+		final int n = size;
+		for (int i = n; i <= width - 1 - n; i += n + 1) {
+			for (int j = n; j <= height - 1 - n; j += n + 1) {
+				int mi = i, mj = j;
+				float max = p[j * width + i];
+				for (int ii = i; ii <= i + n; ii++)
+					for (int jj = j; jj <= j + n; jj++) {
+						final float v = p[jj * width + ii];
+						if (v > max) {
+							max = v;
 							mi = ii;
 							mj = jj;
 						}
 					}
-				}
-				failed = false;
-				
+				if (!(max > cutoff)) continue;
+				boolean failed = false;
 				Outer:
-				for(ll=mi-n_;ll<=mi+n_;ll++){	
-					for(kk=mj-n_;kk<=mj+n_;kk++){
-						if((ll<i || ll>i+n_) || (kk<j || kk>j+n_)){
-							if(ll<width_ && ll>0 && kk<height_ && kk>0){
-								ra.setPosition(new int[]{ll,kk});
-								T first = ra.get();
-								ra.setPosition(new int[]{mi,mj});
-								T second = ra.get();
-								if(first.compareTo(second) > 0){
-									failed = true;
-									break Outer;
-								}
-							}
+				for (int kk = Math.max(0, mj - n); kk <= Math.min(height - 1, mj + n); kk++) {
+					final int row = kk * width;
+					for (int ll = Math.max(0, mi - n); ll <= Math.min(width - 1, mi + n); ll++)
+						if ((ll < i || ll > i + n || kk < j || kk > j + n) && p[row + ll] > max) {
+							failed = true;
+							break Outer;
 						}
-					}
 				}
-				if(!failed){
-					ra.setPosition(new int[]{mi,mj});
-					T first = ra.get();
-					if(first.getRealFloat() > cutoff){
-						output.put(new XYFLocalization(frame.getFrameNumber(), mi, mj));
-					}
-				}
-			}			
-		}	
+				if (!failed)
+					found.add(new XYFLocalization(frameNo, mi, mj));
+			}
+		}
+		return found;
 	}
-	
+
 }
@@ -11,6 +11,7 @@ import net.imglib2.view.IntervalView;
 import net.imglib2.view.SubsampleIntervalView;
 import net.imglib2.view.Views;
 
+import org.lemming.data.ImgLib2Frame;
 import org.lemming.data.XYFLocalization;
 import org.lemming.interfaces.Frame;
 import org.lemming.interfaces.Localization;
@@ -51,22 +52,20 @@ public class NMSSubFinder<T extends RealType<T>, F extends Frame<T>> extends Sin
 	public void process(F frame) {
 		if (frame==null) return;
 		process1(frame);
-		if (frame.isLast()){
-			long end = System.nanoTime();
-			System.out.println("Last frame finished:"+frame.getFrameNumber()+" in "+(end-start)/1000000+" ms");
-			double sum = 0.0;
-			for (double value : tt)
-				sum += value;
-			System.out.println("Time to Subsample: "+ sum/1000000);
-			XYFLocalization lastloc = new XYFLocalization(frame.getFrameNumber(), 0, 0);
-			lastloc.setLast(true);
-			output.put(lastloc);
-			hasMoreOutputs = false;
-			stop();
-			return;
-		}
 		if (frame.getFrameNumber() % 500 == 0)
 			System.out.println("Frames finished:"+frame.getFrameNumber());
+		ImgLib2Frame.release(frame);
+	}
+
+	@Override
+	public void afterRun() {
+		long end = System.nanoTime();
+		System.out.println("Last frame finished in "+(end-start)/1000000+" ms");
+		double sum = 0.0;
+		for (double value : tt)
+			sum += value;
+		System.out.println("Time to Subsample: "+ sum/1000000);
+		hasMoreOutputs = false;
 	}
 
 	private void process1(F frame) {
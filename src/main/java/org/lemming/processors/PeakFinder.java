@@ -1,20 +1,21 @@
 package org.lemming.processors;
 
-import net.imglib2.Cursor;
-import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.algorithm.neighborhood.Neighborhood;
-import net.imglib2.algorithm.neighborhood.RectangleShape;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.util.Intervals;
-import net.imglib2.view.Views;
 
+import org.lemming.data.BufferPool;
+import org.lemming.data.ImgLib2Frame;
 import org.lemming.data.XYFLocalization;
 import org.lemming.interfaces.Frame;
 import org.lemming.interfaces.Localization;
 import org.lemming.processors.SingleInputSingleOutput;
+import org.lemming.utils.PixelArrays;
 
 /**
+ * Finds the pixels above the threshold that are greater than all pixels of their (2 size+1)x(2 size+1) neighborhood.
+ * The search runs on a float[], the pixel array of a FloatType ArrayImg or a copy of other frames taken from a
+ * BufferPool.
+ * 
  * @author Ronny Sczech
  *
  * @param <T> - data type
@@ -27,6 +28,7 @@ public class PeakFinder<T extends RealType<T>, F extends Frame<T>> extends Singl
 	protected boolean hasMoreOutputs;
 	private int size;
 	private long start;
+	private BufferPool pool = BufferPool.getDefault();
 
 	/**
 	 * @param threshold - threshold for subtracting background
@@ -42,60 +44,67 @@ public class PeakFinder<T extends RealType<T>, F extends Frame<T>> extends Singl
 	@Override
 	public void process(F frame) {
 		if (frame==null) return;
-		process1(frame);
-		if (frame.isLast()){ // make the poison pill
-			long end = System.currentTimeMillis();
-			System.out.println("Last frame finished:"+frame.getFrameNumber()+" in "+(end-start)+" ms");
-			XYFLocalization lastloc = new XYFLocalization(frame.getFrameNumber(), 0, 0);
-			lastloc.setLast(true);
-			output.put(lastloc);
-			hasMoreOutputs = false;
-			stop();
-			return;
+		try {
+			process1(frame);
+		} finally {
+			ImgLib2Frame.release(frame);
 		}
 		if (frame.getFrameNumber() % 100 == 0)
 			System.out.println("Frames finished:"+frame.getFrameNumber());
 	}
+
+	@Override
+	public void afterRun() {
+		long end = System.currentTimeMillis();
+		System.out.println("Last frame finished in "+(end-start)+" ms");
+		hasMoreOutputs = false;
+	}
 	
 	private void process1(F frame) {
-		
-		Interval interval = Intervals.expand( frame.getPixels(), -size );
-		
-		RandomAccessibleInterval<T> source = Views.interval( frame.getPixels(), interval );
-		
-		final Cursor< T > center = Views.iterable( source ).cursor();
-
-		final RectangleShape shape = new RectangleShape( size, true );
+		final RandomAccessibleInterval<T> interval = frame.getPixels();
+		final int width = (int) interval.dimension(0);
+		final int height = (int) interval.dimension(1);
+		float[] pixels = PixelArrays.floats(interval);
+		final boolean copied = pixels == null;
+		if (copied)
+			pixels = PixelArrays.copyFloats(interval, pool.takeFloats(width * height));
+		try {
+			processFloats(frame.getFrameNumber(), pixels, width, height);
+		} finally {
+			if (copied) pool.release(pixels);
+		}
+	}
 
-		for ( final Neighborhood< T > localNeighborhood : shape.neighborhoods( source ) )
-		{
-		    // what is the value that we investigate?
-		    // (the center cursor runs over the image in the same iteration order as neighborhood)
-		    final T centerValue = center.next();
-		    
-		    if (centerValue.getRealDouble() < getThreshold()) 
-		    	continue;
-		
-		    // keep this boolean true as long as no other value in the local neighborhood
-		    // is larger or equal
-		    boolean isMaximum = true;
-		
-		    // check if all pixels in the local neighborhood that are smaller
-		    for ( final T value : localNeighborhood )
-		    {
-		        // test if the center is smaller than the current pixel value
-		        if ( centerValue.compareTo( value ) <= 0 )
-		        {
-		            isMaximum = false;
-		            break;
-		        }
-		    }
-		    
-		    if (isMaximum)
-		    	output.put(new XYFLocalization(frame.getFrameNumber(), center.getIntPosition(0), center.getIntPosition(1)));
+	// pixel (x,y) is at y*width+x
+	private void processFloats(long frameNo, float[] p, int width, int height) {
+		final double t = getThreshold();
+		for (int y = size; y < height - size; y++) {
+			for (int x = size; x < width - size; x++) {
+				final float c = p[y * width + x];
+				if (c < t) continue;
+				boolean isMaximum = true;
+				Outer:
+				for (int yy = y - size; yy <= y + size; yy++) {
+					final int row = yy * width;
+					for (int xx = x - size; xx <= x + size; xx++)
+						if ((xx != x || yy != y) && !(c > p[row + xx])) {
+							isMaximum = false;
+							break Outer;
+						}
+				}
+				if (isMaximum)
+					output.put(new XYFLocalization(frameNo, x, y));
+			}
 		}
 	}
 		
+	/**
+	 * @param pool - pool of the working copies of the frames
+	 */
+	public void setBufferPool(BufferPool pool) {
+		this.pool = pool;
+	}
+
 	/**
 	 * @return Threshold
 	 */
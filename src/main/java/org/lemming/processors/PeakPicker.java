@@ -10,6 +10,7 @@ import net.imglib2.util.Intervals;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 
+import org.lemming.data.ImgLib2Frame;
 import org.lemming.data.XYFLocalization;
 import org.lemming.interfaces.Frame;
 import org.lemming.interfaces.Localization;
@@ -41,17 +42,15 @@ public class PeakPicker<T extends RealType<T>, F extends Frame<T>> extends Singl
 	public void process(F frame) {
 		if (frame==null) return;
 		process1(frame);
-		if (frame.isLast()){
-			System.out.println("Last frame finished:"+frame.getFrameNumber());
-			XYFLocalization lastloc = new XYFLocalization(frame.getFrameNumber(), 0, 0);
-			lastloc.setLast(true);
-			output.put(lastloc);
-			hasMoreOutputs  = false;
-			stop();
-			return;
-		}
 		if (frame.getFrameNumber() % 500 == 0)
 			System.out.println("Frames finished:"+frame.getFrameNumber());
+		ImgLib2Frame.release(frame);
+	}
+
+	@Override
+	public void afterRun() {
+		System.out.println("Last frame finished");
+		hasMoreOutputs = false;
 	}
 
 	private void process1(F frame) {
@@ -20,7 +20,7 @@ public class ROISelectProcessor extends SingleInputSingleOutput<Localization,Loc
 	 * @param yLength - height
 	 */
 	public ROISelectProcessor(int x, int xLength, int y, int yLength) {
-		roi = new Roi(x,y,xLength,yLength);
+		this(new Roi(x,y,xLength,yLength));
 	}
 	
 	/**
@@ -28,16 +28,12 @@ public class ROISelectProcessor extends SingleInputSingleOutput<Localization,Loc
 	 */
 	public ROISelectProcessor(Roi theRoi) {
 		roi = theRoi;
+		setBatchSize(256);
 	}
 	
 	@Override
 	public void process(Localization loc) {
 		if (loc==null) return;
-		if(loc.isLast()){ 
-			hasMoreOutputs = false;
-			stop();
-			return;
-		}
 		double x = loc.getX();
 		double y = loc.getY();
 		
@@ -45,6 +41,11 @@ public class ROISelectProcessor extends SingleInputSingleOutput<Localization,Loc
 			output.put(loc);
 	}
 
+	@Override
+	public void afterRun() {
+		hasMoreOutputs = false;
+	}
+
 	@Override
 	public boolean hasMoreOutputs() {
 		return hasMoreOutputs ;
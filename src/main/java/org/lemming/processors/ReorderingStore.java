@@ -0,0 +1,247 @@
+package org.lemming.processors;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.lemming.data.AbstractStore;
+import org.lemming.interfaces.Frame;
+import org.lemming.interfaces.Store;
+
+/**
+ * Output view of a SingleInputSingleOutput processor that keeps the order of the input. The outputs of the task processing an
+ * element are collected per thread and passed on to the target store only after the outputs of all earlier elements. Frames
+ * are ordered by {@link Frame#getFrameNumber()}, so the output is ordered by frame even if a source delivers the frames out of
+ * order, as the ParallelFrameSource does. Other elements keep the order in which they were taken from the input.
+ * <p>
+ * The frame after the last one passed on is expected next. The first frame number is not known in advance and frames may be
+ * skipped, so while the expected frame has not been taken the smallest completed frame is passed on once the window is full.
+ * Frames arriving more than window elements late therefore break the order.
+ * <p>
+ * At most window elements are taken but not yet passed on, a task waits before taking the next element otherwise. This bounds
+ * the memory held back behind a slow frame. The outputs are put to the target outside of the lock by one thread at a time,
+ * so a full target only holds up that thread and, once the window is full, the takers.
+ *
+ * @param <T> - data type
+ */
+class ReorderingStore<T> extends AbstractStore<T> {
+
+	private static class Pending<T> implements Comparable<Pending<T>> {
+		final long key;
+		final long seq;
+		final List<T> items = new ArrayList<T>();
+		boolean done;
+
+		Pending(long key, long seq) {
+			this.key = key;
+			this.seq = seq;
+		}
+
+		@Override
+		public int compareTo(Pending<T> o) {
+			if (key != o.key) return key < o.key ? -1 : 1;
+			return seq < o.seq ? -1 : seq > o.seq ? 1 : 0;
+		}
+	}
+
+	private final Store<T> target;
+	private final int window;
+
+	private final ReentrantLock takeLock = new ReentrantLock();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition windowFree = lock.newCondition();
+	private long taken;
+	private long passedOn;
+	private long nextKey = Long.MIN_VALUE; // Long.MIN_VALUE while unknown
+	private final PriorityQueue<Pending<T>> pending = new PriorityQueue<Pending<T>>();
+	// outputs in order, waiting to be put by the emitting thread
+	private final ArrayDeque<List<T>> ready = new ArrayDeque<List<T>>();
+	private boolean emitting;
+
+	private final ThreadLocal<Pending<T>> current = new ThreadLocal<Pending<T>>();
+
+	/**
+	 * @param target - the store receiving the ordered output
+	 * @param window - maximum number of elements taken but not yet passed on
+	 */
+	ReorderingStore(Store<T> target, int window) {
+		this.target = target;
+		this.window = Math.max(1, window);
+	}
+
+	/**
+	 * Takes the next element of the input and starts collecting the outputs of the calling thread for it.
+	 * Must be followed by {@link #complete()} once the element is processed.
+	 *
+	 * @param input - the input of the processor
+	 * @param <E> - input type
+	 * @return the next element or null if the input is closed and drained or the thread was interrupted
+	 * @throws InterruptedException if interrupted while waiting for the window
+	 */
+	<E> E take(Store<E> input) throws InterruptedException {
+		takeLock.lockInterruptibly();
+		try {
+			lock.lockInterruptibly();
+			try {
+				while (taken - passedOn >= window)
+					windowFree.await();
+			} finally {
+				lock.unlock();
+			}
+			final E el = input.get();
+			if (el == null) return null;
+			lock.lock();
+			try {
+				final long seq = taken++;
+				if (el instanceof Frame) {
+					current.set(new Pending<T>(((Frame<?>) el).getFrameNumber(), seq));
+				} else {
+					if (seq == 0) nextKey = 0; // arrival order starts at 0
+					current.set(new Pending<T>(seq, seq));
+				}
+				pending.add(current.get());
+			} finally {
+				lock.unlock();
+			}
+			return el;
+		} finally {
+			takeLock.unlock();
+		}
+	}
+
+	/**
+	 * Ends the element taken by the calling thread and passes on all outputs that are now in order.
+	 */
+	void complete() {
+		final Pending<T> p = current.get();
+		if (p == null) return;
+		current.remove();
+		lock.lock();
+		try {
+			p.done = true;
+			release(false);
+		} finally {
+			lock.unlock();
+		}
+		emit();
+	}
+
+	/**
+	 * Passes on the outputs of all completed elements in order, called once all tasks finished.
+	 */
+	void flush() {
+		lock.lock();
+		try {
+			release(true);
+		} finally {
+			lock.unlock();
+		}
+		emit();
+	}
+
+	// moves the completed elements that are in order from pending to ready, called with the lock held
+	private void release(boolean all) {
+		Pending<T> p;
+		while ((p = pending.peek()) != null && p.done
+				&& (all || p.key <= nextKey && nextKey != Long.MIN_VALUE || pending.size() >= window)) {
+			pending.poll();
+			ready.add(p.items);
+			nextKey = Math.max(nextKey, p.key + 1);
+		}
+	}
+
+	// puts the ready outputs to the target, by one thread at a time and outside of the lock
+	private void emit() {
+		for (;;) {
+			final List<T> items;
+			lock.lock();
+			try {
+				if (emitting || ready.isEmpty()) return;
+				emitting = true;
+				items = ready.poll();
+			} finally {
+				lock.unlock();
+			}
+			try {
+				if (!items.isEmpty()) target.putAll(items);
+			} finally {
+				lock.lock();
+				try {
+					emitting = false;
+					passedOn++;
+					windowFree.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Returns the number of elements that are taken but not yet passed on.
+	 */
+	int getPending() {
+		lock.lock();
+		try {
+			return (int) (taken - passedOn);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Collects the element for the input element of the calling thread, outside of a task it is passed on directly.
+	 */
+	@Override
+	public void put(T el) {
+		final Pending<T> p = current.get();
+		if (p == null)
+			target.put(el);
+		else
+			p.items.add(el);
+	}
+
+	@Override
+	public void putAll(Collection<? extends T> elements) {
+		final Pending<T> p = current.get();
+		if (p == null)
+			target.putAll(elements);
+		else
+			p.items.addAll(elements);
+	}
+
+	@Override
+	public T get() {
+		return target.get();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return target.isEmpty();
+	}
+
+	@Override
+	public int drainTo(Collection<? super T> buffer, int maxElements) {
+		return target.drainTo(buffer, maxElements);
+	}
+
+	@Override
+	public void registerProducer() {
+		target.registerProducer();
+	}
+
+	@Override
+	public void close() {
+		target.close();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return target.isClosed();
+	}
+
+}
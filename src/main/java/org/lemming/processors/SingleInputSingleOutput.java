@@ -1,31 +1,49 @@
 package org.lemming.processors;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import net.imglib2.algorithm.MultiThreaded;
 
+import org.lemming.data.MeteredStore;
+import org.lemming.data.Scheduler;
+import org.lemming.data.StageMetrics;
+import org.lemming.interfaces.Metered;
 import org.lemming.interfaces.Processor;
 import org.lemming.interfaces.Store;
 import org.lemming.outputs.NullStoreWarning;
 
 /**
+ * This class represents a module with a single input and a single output. The elements of the input are processed by
+ * several tasks in parallel until the input is closed and drained, then the output is closed. An element marked as last
+ * does not stop the processing, siblings still working on earlier elements finish their work.
+ * <p>
+ * The tasks run on a {@link Scheduler} shared with the other processors of the Pipeline, which may grant fewer tasks than
+ * requested with setNumThreads to stay within its CPU budget. With setPreserveOrder the output keeps the order of the input
+ * although the tasks finish their elements out of order. The throughput and processing times are reported by getMetrics.
+ * 
  * @author Ronny Sczech
  *
  * @param <T1> - data type
  * @param <T2> - data type
  */
-public abstract class SingleInputSingleOutput<T1,T2> implements Runnable, Processor<T1, T2>, MultiThreaded {
+public abstract class SingleInputSingleOutput<T1,T2> implements Runnable, Processor<T1, T2>, MultiThreaded, Metered {
 
 	protected Store<T1> input;
 	protected Store<T2> output;
 	private volatile boolean running;
 	private int numTasks;
-	private final ExecutorService service;
+	private volatile int grantedTasks = 1;
+	private int batchSize = 1;
+	private Scheduler scheduler;
+	private SingleInputSingleOutput<?, ?> chain;
+	private int reorderWindow;
+	private final List< Future< Void > > futures = new ArrayList< Future< Void > >();
+	private final StageMetrics metrics = new StageMetrics(getClass().getSimpleName());
 	
 	/**
 	 * 
@@ -33,48 +51,109 @@ public abstract class SingleInputSingleOutput<T1,T2> implements Runnable, Proces
 	public SingleInputSingleOutput(){
 		this.running = true;
 		this.numTasks = 1;
-		service = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()+1);
-		//slicesForThread = new Hashtable<Thread, int[]>(numThreads-1);
 	}
 
 	@Override
 	public void run() {
 		
-		if (input==null || output==null)
-			throw new NullStoreWarning(this.getClass().getName()); 
+		final Scheduler s = getScheduler();
+		// registered only while running, a processor that never runs does not hold a share of the budget
+		s.register(this);
+		final Store<T2> target = output;
+		try {
+			if (input==null || output==null)
+				throw new NullStoreWarning(this.getClass().getName()); 
+			
+			final int tasks = s.getParallelism(this, numTasks);
+			grantedTasks = tasks;
+			metrics.setInput(input);
+			metrics.start();
+			final Store<T2> metered = new MeteredStore<T2>(target, metrics);
+			final ReorderingStore<T2> reorder = reorderWindow > 0 ? new ReorderingStore<T2>(metered, reorderWindow) : null;
+			output = reorder != null ? reorder : metered;
 		
-		final ArrayList< Future< Void > > futures = new ArrayList< Future< Void > >();
-		
-		for ( int taskNum = 0; taskNum < numTasks; ++taskNum ){
+			for ( int taskNum = 0; taskNum < tasks; ++taskNum ){
 
-			final Callable< Void > r = new Callable< Void >(){
+				final Callable< Void > r = new Callable< Void >(){
 				
-				@Override
-				public Void call() {
-					while (running) {
-							if (Thread.currentThread().isInterrupted()) break;
-							T1 data = nextInput();
-							process(data);
+					@Override
+					public Void call() {
+						if (reorder != null) return callOrdered(reorder);
+						final List<T1> batch = new ArrayList<T1>(batchSize);
+						while (running) {
+								if (Thread.currentThread().isInterrupted()) break;
+								if (batchSize > 1 && input.drainTo(batch, batchSize) > 0) {
+									for (int i = 0, n = batch.size(); i < n; i++)
+										processMetered(batch.get(i));
+									batch.clear();
+									continue;
+								}
+								if (input.isClosed() && input.isEmpty()) break;
+								final long t = System.nanoTime();
+								T1 data = nextInput();
+								metrics.recordInputWait(System.nanoTime() - t);
+								if (data != null) processMetered(data);
+						}
+						return null;
 					}
-					return null;
-				}
 				
-			};
-			futures.add( service.submit( r ) );
-		}
+				};
+				synchronized (futures) {
+					if (running) futures.add( s.submit( r ) );
+				}
+			}
 		
-		for ( final Future< Void > f : futures )
-		{
-			try
+			for ( final Future< Void > f : futures )
 			{
-				f.get();
+				try
+				{
+					f.get();
+				}
+				catch ( final InterruptedException | ExecutionException | CancellationException e )
+				{
+					System.err.println(e.getMessage());
+				}
 			}
-			catch ( final InterruptedException | ExecutionException  e )
-			{
-				System.err.println(e.getMessage());
+			synchronized (futures) {
+				futures.clear();
 			}
+			if (reorder != null) reorder.flush();
+		} finally {
+			s.unregister(this);
 		}
-				
+		output = target;
+		metrics.stop();
+		
+		afterRun();
+		output.close();
+	}
+	
+	private Void callOrdered(ReorderingStore<T2> reorder) {
+		while (running) {
+			if (Thread.currentThread().isInterrupted()) break;
+			if (input.isClosed() && input.isEmpty()) break;
+			final T1 data;
+			final long t = System.nanoTime();
+			try {
+				data = reorder.take(input);
+			} catch (InterruptedException e) {
+				break;
+			}
+			metrics.recordInputWait(System.nanoTime() - t);
+			if (data == null) continue;
+			try {
+				processMetered(data);
+			} finally {
+				reorder.complete();
+			}
+		}
+		return null;
+	}
+	
+	private void processMetered(T1 data) {
+		final long t = System.nanoTime();
+		process(data);
+		metrics.recordElement(System.nanoTime() - t);
 	}
 	
 	/**
@@ -92,7 +171,10 @@ public abstract class SingleInputSingleOutput<T1,T2> implements Runnable, Proces
 	 */
 	public void stop(){
 		running = false;
-		service.shutdownNow();
+		synchronized (futures) {
+			for (Future<Void> f : futures)
+				f.cancel(true);
+		}
 	
 		/*for (int ithread = 0; ithread < threads.length; ithread++) {
 			threads[ithread].interrupt();
@@ -107,11 +189,80 @@ public abstract class SingleInputSingleOutput<T1,T2> implements Runnable, Proces
 	@Override
 	public void setOutput(Store<T2> s) {
 		output = s;
+		if (s != null) s.registerProducer();
+	}
+	
+	/**
+	 * Sets the number of input elements a task takes at once. The default is 1, which spreads heavy elements like frames
+	 * evenly over the tasks. Light-weight elements like localizations are better moved in larger batches.
+	 * 
+	 * @param batchSize - maximum number of elements taken from the input at once
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+	
+	/**
+	 * Keeps the output in the order of the input while the tasks run in parallel, frames in the order of their frame numbers.
+	 * The outputs of an element are held back until all earlier elements are processed, at most window elements are in
+	 * progress or held back at any time. The window should be larger than the number of tasks and than the distance a frame
+	 * may arrive out of order. Elements are taken one at a time, the batch size is ignored.
+	 * 
+	 * @param window - maximum number of elements in progress, 0 keeps the order of completion
+	 */
+	public void setPreserveOrder(int window) {
+		this.reorderWindow = Math.max(0, window);
+	}
+	
+	/**
+	 * @param scheduler - runs the tasks of this processor, shared with the other processors of a Pipeline
+	 */
+	public void setScheduler(Scheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+	
+	/**
+	 * @return Returns the scheduler running the tasks, the default scheduler if none was set.
+	 */
+	public Scheduler getScheduler() {
+		if (scheduler == null && chain != null) return chain.getScheduler();
+		if (scheduler == null) scheduler = Scheduler.getDefault();
+		return scheduler;
+	}
+	
+	/**
+	 * @return Returns the number of threads a task may use for a single element, e.g. for the tiles of a frame: the share
+	 * of the CPU budget of this processor divided by its running tasks, or the share of a task of the chain this processor
+	 * is a step of.
+	 */
+	protected int getThreadsPerTask() {
+		if (chain != null) return chain.getThreadsPerTask();
+		return getScheduler().getThreadsPerTask(this, grantedTasks);
+	}
+	
+	/**
+	 * Makes this processor a step of a chain running it within its own tasks, e.g. a FrameOperatorChain. The processor is
+	 * not run and registered itself, so it uses the scheduler and the thread share per task of the chain.
+	 * 
+	 * @param chain - the processor running this one
+	 */
+	void setChain(SingleInputSingleOutput<?, ?> chain) {
+		this.chain = chain;
+	}
+	
+	/**
+	 * Called after all tasks finished, before the output is closed.
+	 */
+	public void afterRun() {}
+	
+	@Override
+	public StageMetrics getMetrics() {
+		return metrics;
 	}
 	
 	@Override
 	public int getNumThreads() {
-		return (int) Math.floor(numTasks/50);
+		return numTasks;
 	}
 
 	@Override
@@ -121,7 +272,7 @@ public abstract class SingleInputSingleOutput<T1,T2> implements Runnable, Proces
 
 	@Override
 	public void setNumThreads(int numThreads) {
-		this.numTasks=numThreads*50;		
+		this.numTasks=Math.max(1, numThreads);
 	}
 
 }
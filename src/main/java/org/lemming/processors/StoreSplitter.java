@@ -3,6 +3,7 @@ package org.lemming.processors;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.lemming.data.ImgLib2Frame;
 import org.lemming.interfaces.Splitter;
 import org.lemming.interfaces.Store;
 import org.lemming.outputs.NullStoreWarning;
@@ -23,18 +24,29 @@ public class StoreSplitter<DataType> implements Splitter<DataType> {
 		
 		if (store==null) {new NullStoreWarning(this.getClass().getName()); return;}
 		        
-		while (!store.isEmpty()){
+		while (!(store.isClosed() && store.isEmpty())){
 			dtype = store.get();
+			if (dtype == null) {
+				if (Thread.currentThread().isInterrupted()) break;
+				continue;
+			}
+			// every consumer releases the element, pooled frames need one reference each
+			for (int size=splitter.size(), i=1; i<size; i++)
+				ImgLib2Frame.retain(dtype);
 			for (int size=splitter.size(), i=0; i<size; i++){
 				splitter.get(i).put(dtype);
 			}
 		}
-	
+		
+		for (int size=splitter.size(), i=0; i<size; i++){
+			splitter.get(i).close();
+		}
 	}
 	
 	@Override
 	public void addOutput(Store<DataType> s) {
 		splitter.add(s);
+		s.registerProducer();
 	}
 	
 	@Override
@@ -0,0 +1,137 @@
+package org.lemming.processors;
+
+import java.util.List;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+
+import org.lemming.data.BufferPool;
+import org.lemming.data.FittedLocalization;
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.interfaces.Frame;
+import org.lemming.interfaces.FrameDetector;
+import org.lemming.interfaces.Localization;
+import org.lemming.utils.GaussianBatchFitter;
+import org.lemming.utils.PixelArrays;
+
+/**
+ * Refines the candidate peaks of a frame to subpixel positions. The candidates come from a {@link FrameDetector}, e.g. a
+ * {@link NMSFinder} or a {@link MaxFilterPeakFinder}, which searches the same copy of the frame. A window of
+ * (2 halfSize+1)x(2 halfSize+1) pixels around every candidate is fitted with a Gaussian by a
+ * {@link GaussianBatchFitter}, all candidates of a frame in one batch. The frames are fitted by several tasks in
+ * parallel, each with the workspace of its thread.
+ * <p>
+ * Every successful fit gives a {@link FittedLocalization} with the position, the photon count, the background, the
+ * sigma and the Cramer-Rao lower bounds of the position. Failed fits are dropped. The intensity and the background are
+ * converted from pixel counts to photons with the gain, see {@link #setGain(double)}.
+ *
+ * @param <T> - data type
+ * @param <F> - frame type
+ */
+public class SubpixelFitter<T extends RealType<T>, F extends Frame<T>> extends SingleInputSingleOutput<F, Localization> {
+
+	private final FrameDetector candidates;
+	private final int halfSize;
+	private final GaussianBatchFitter fitter;
+	private BufferPool pool = BufferPool.getDefault();
+	private boolean hasMoreOutputs = true;
+
+	/**
+	 * @param candidates - finds the spots to fit
+	 * @param halfSize - distance from a candidate to the border of its window
+	 * @param fitter - fits the windows
+	 */
+	public SubpixelFitter(FrameDetector candidates, int halfSize, GaussianBatchFitter fitter) {
+		this.candidates = candidates;
+		this.halfSize = halfSize;
+		this.fitter = fitter;
+		setNumThreads();
+	}
+
+	/**
+	 * @param candidates - finds the spots to fit
+	 * @param halfSize - distance from a candidate to the border of its window
+	 * @param sigma - sigma of the spots, the start value if fixedSigma is false
+	 * @param fixedSigma - fits the faster symmetric model with the sigma given
+	 */
+	public SubpixelFitter(FrameDetector candidates, int halfSize, double sigma, boolean fixedSigma) {
+		this(candidates, halfSize, new GaussianBatchFitter(sigma, fixedSigma ? GaussianBatchFitter.FIXED_SIGMA
+				: GaussianBatchFitter.SYMMETRIC, 50, 1e-6));
+	}
+
+	@Override
+	public boolean hasMoreOutputs() {
+		return hasMoreOutputs;
+	}
+
+	@Override
+	public void process(F frame) {
+		if (frame == null) return;
+		try {
+			process1(frame);
+		} finally {
+			ImgLib2Frame.release(frame);
+		}
+	}
+
+	@Override
+	public void afterRun() {
+		hasMoreOutputs = false;
+	}
+
+	private void process1(F frame) {
+		final RandomAccessibleInterval<T> interval = frame.getPixels();
+		final int width = (int) interval.dimension(0);
+		final int height = (int) interval.dimension(1);
+		float[] pixels = PixelArrays.floats(interval);
+		final boolean copied = pixels == null;
+		if (copied)
+			pixels = PixelArrays.copyFloats(interval, pool.takeFloats(width * height));
+		try {
+			final List<Localization> found = candidates.detect(frame.getFrameNumber(), pixels, width, height);
+			final int count = found.size();
+			if (count == 0) return;
+			final int[] xs = new int[count], ys = new int[count];
+			for (int i = 0; i < count; i++) {
+				xs[i] = (int) Math.round(found.get(i).getX());
+				ys[i] = (int) Math.round(found.get(i).getY());
+			}
+			final int r = GaussianBatchFitter.RESULT_SIZE;
+			final double[] results = new double[count * r];
+			fitter.fit(pixels, width, height, xs, ys, count, halfSize, results);
+			final double gain = fitter.getGain();
+			for (int i = 0, o = 0; i < count; i++, o += r) {
+				if (Double.isNaN(results[o + 1])) continue;
+				output.put(new FittedLocalization(frame.getFrameNumber(), results[o + 1], results[o + 2], results[o + 3] / gain,
+						results[o] / gain, results[o + 5], results[o + 5] * results[o + 6],
+						results[o + GaussianBatchFitter.PRECISION_X], results[o + GaussianBatchFitter.PRECISION_Y]));
+			}
+		} finally {
+			if (copied) pool.release(pixels);
+		}
+	}
+
+	/**
+	 * @param pool - pool of the working copies of the frames
+	 */
+	public void setBufferPool(BufferPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets the gain of the fitter, the precisions are computed and the intensity and the background are given in photons
+	 * with it.
+	 *
+	 * @param gain - counts per photon of the pixel values
+	 */
+	public void setGain(double gain) {
+		fitter.setGain(gain);
+	}
+
+	/**
+	 * @return Returns the fitter, which reports the number of fits and the throughput.
+	 */
+	public GaussianBatchFitter getFitter() {
+		return fitter;
+	}
+}
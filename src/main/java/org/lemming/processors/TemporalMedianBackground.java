@@ -0,0 +1,155 @@
+package org.lemming.processors;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.lemming.data.BufferPool;
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.interfaces.Frame;
+import org.lemming.utils.PixelArrays;
+import org.lemming.utils.TemporalMedian;
+
+/**
+ * Subtracts a temporal background from every frame, the running median (or another percentile) of every pixel over the
+ * last window frames including the current one, maintained by a {@link TemporalMedian}. The first frames are corrected
+ * with the frames seen so far.
+ * <p>
+ * The background is estimated from 16 bit values, frames of UnsignedShortType give frames of UnsignedShortType clamped
+ * at 0, frames of FloatType give frames of FloatType. The frames must arrive in order and all have the size of the first
+ * one, so the processor runs a single task. See {@link TemporalMedian} for the memory needed.
+ *
+ * @param <T> - data type
+ * @param <F> - frame type
+ */
+public class TemporalMedianBackground<T extends RealType<T>, F extends Frame<T>> extends SingleInputSingleOutput<F, F> {
+
+	private final int window;
+	private final double percentile;
+	private TemporalMedian median;
+	private int width, height;
+	private BufferPool pool = BufferPool.getDefault();
+	private boolean hasMoreOutputs = true;
+
+	/**
+	 * @param window - number of frames the median is taken over
+	 */
+	public TemporalMedianBackground(int window) {
+		this(window, 0.5);
+	}
+
+	/**
+	 * @param window - number of frames the percentile is taken over
+	 * @param percentile - between 0 and 1, 0.5 for the median
+	 */
+	public TemporalMedianBackground(int window, double percentile) {
+		this.window = window;
+		this.percentile = percentile;
+	}
+
+	@Override
+	public boolean hasMoreOutputs() {
+		return hasMoreOutputs;
+	}
+
+	@Override
+	public void setNumThreads() {
+		// the running median needs the frames one after the other
+	}
+
+	@Override
+	public void setNumThreads(int numThreads) {
+		// the running median needs the frames one after the other
+	}
+
+	@Override
+	public void process(F frame) {
+		if (frame == null) return;
+		try {
+			process1(frame);
+		} finally {
+			ImgLib2Frame.release(frame);
+		}
+	}
+
+	@Override
+	public void afterRun() {
+		hasMoreOutputs = false;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void process1(F frame) {
+		final RandomAccessibleInterval<T> interval = frame.getPixels();
+		final int width = (int) interval.dimension(0);
+		final int height = (int) interval.dimension(1);
+		final int n = width * height;
+		if (median == null) {
+			median = new TemporalMedian(n, window, percentile);
+			this.width = width;
+			this.height = height;
+		} else if (width != this.width || height != this.height) {
+			throw new IllegalArgumentException("Frame " + frame.getFrameNumber() + " is " + width + "x" + height
+					+ ", the background is estimated for " + this.width + "x" + this.height);
+		}
+
+		final Object type = Views.iterable(interval).firstElement();
+		final short[] shorts = PixelArrays.unsignedShorts(interval);
+		float[] floats = PixelArrays.floats(interval);
+		final boolean copied = shorts == null && floats == null;
+		if (copied) {
+			floats = pool.takeFloats(n);
+			final Cursor<T> c = Views.flatIterable(interval).cursor();
+			for (int i = 0; i < n; i++)
+				floats[i] = c.next().getRealFloat();
+		}
+		try {
+			if (shorts != null)
+				median.add(shorts);
+			else
+				median.add(floats);
+			final int[] background = median.getValues();
+
+			final ImgLib2Frame<T> out;
+			if (type instanceof UnsignedShortType) {
+				final short[] outPixels = pool.takeShorts(n);
+				for (int i = 0; i < n; i++) {
+					final int v = (shorts != null ? shorts[i] & 0xffff : Math.round(floats[i])) - background[i];
+					outPixels[i] = (short) Math.max(0, Math.min(65535, v));
+				}
+				out = new ImgLib2Frame<T>(frame.getFrameNumber(), width, height,
+						(RandomAccessibleInterval<T>) ArrayImgs.unsignedShorts(outPixels, width, height), outPixels, pool);
+			} else if (type instanceof FloatType) {
+				final float[] outPixels = pool.takeFloats(n);
+				for (int i = 0; i < n; i++)
+					outPixels[i] = floats[i] - background[i];
+				out = new ImgLib2Frame<T>(frame.getFrameNumber(), width, height,
+						(RandomAccessibleInterval<T>) ArrayImgs.floats(outPixels, width, height), outPixels, pool);
+			} else {
+				throw new IllegalArgumentException("Unsupported pixel type " + type.getClass().getSimpleName());
+			}
+			out.setLast(frame.isLast());
+			output.put((F) out);
+		} finally {
+			if (copied) pool.release(floats);
+		}
+	}
+
+	/**
+	 * @param pool - pool of the pixel arrays of the output frames
+	 */
+	public void setBufferPool(BufferPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @return Returns the running percentile, null before the first frame.
+	 */
+	public TemporalMedian getMedian() {
+		return median;
+	}
+
+}
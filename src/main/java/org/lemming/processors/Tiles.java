@@ -0,0 +1,173 @@
+package org.lemming.processors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.lemming.data.Scheduler;
+
+/**
+ * Splits a frame into tiles processed in parallel. Every tile has a core, the pixels it is responsible for, and a halo of
+ * the detector radius around it clipped at the frame border, so that a detector sees the whole neighborhood of every core
+ * pixel. The cores do not overlap: a maximum found in the halo of a tile belongs to the core of another one and is
+ * dropped, which removes the duplicates of the overlap zones.
+ * <p>
+ * The tiles are worked off by the calling thread and helper tasks on a {@link Scheduler}. The caller never waits for a
+ * helper to start, so a busy pool only costs parallelism.
+ */
+public class Tiles {
+
+	/**
+	 * A rectangle of the frame, the upper bounds are exclusive.
+	 */
+	public static class Tile {
+		/** core */
+		public final int x0, y0, x1, y1;
+		/** core with halo */
+		public final int haloX0, haloY0, haloX1, haloY1;
+
+		Tile(int x0, int y0, int x1, int y1, int halo, int width, int height) {
+			this.x0 = x0;
+			this.y0 = y0;
+			this.x1 = x1;
+			this.y1 = y1;
+			haloX0 = Math.max(0, x0 - halo);
+			haloY0 = Math.max(0, y0 - halo);
+			haloX1 = Math.min(width, x1 + halo);
+			haloY1 = Math.min(height, y1 + halo);
+		}
+
+		/**
+		 * @return Returns the width of the tile with halo.
+		 */
+		public int getHaloWidth() {
+			return haloX1 - haloX0;
+		}
+
+		/**
+		 * @return Returns the height of the tile with halo.
+		 */
+		public int getHaloHeight() {
+			return haloY1 - haloY0;
+		}
+
+		/**
+		 * @param x - frame column
+		 * @param y - frame row
+		 * @return true if the pixel belongs to the core of this tile
+		 */
+		public boolean inCore(int x, int y) {
+			return x >= x0 && x < x1 && y >= y0 && y < y1;
+		}
+	}
+
+	/**
+	 * Work done per tile.
+	 *
+	 * @param <R> - result type
+	 */
+	public interface Task<R> {
+		/**
+		 * @param tile - the tile
+		 * @return the result of the tile
+		 * @throws Exception if the tile cannot be processed
+		 */
+		public R process(Tile tile) throws Exception;
+	}
+
+	private final List<Tile> tiles = new ArrayList<Tile>();
+
+	/**
+	 * @param width - frame width
+	 * @param height - frame height
+	 * @param tileSize - edge length of a tile core
+	 * @param halo - number of pixels a tile is extended by on every side
+	 */
+	public Tiles(int width, int height, int tileSize, int halo) {
+		this(width, height, tileSize, tileSize, halo);
+	}
+
+	/**
+	 * @param width - frame width
+	 * @param height - frame height
+	 * @param tileWidth - width of a tile core, the frame width for row bands
+	 * @param tileHeight - height of a tile core
+	 * @param halo - number of pixels a tile is extended by on every side
+	 */
+	public Tiles(int width, int height, int tileWidth, int tileHeight, int halo) {
+		if (tileWidth < 1 || tileHeight < 1)
+			throw new IllegalArgumentException("Tile size must be positive: " + tileWidth + "x" + tileHeight);
+		for (int y = 0; y < height; y += tileHeight)
+			for (int x = 0; x < width; x += tileWidth)
+				tiles.add(new Tile(x, y, Math.min(width, x + tileWidth), Math.min(height, y + tileHeight), Math.max(0, halo), width, height));
+	}
+
+	/**
+	 * @return Returns the tiles in row-major order.
+	 */
+	public List<Tile> getTiles() {
+		return tiles;
+	}
+
+	/**
+	 * Processes all tiles and waits for them. The method never returns while a helper is still working on a tile, also
+	 * not when the caller is interrupted, so the caller may release the arrays the tasks work on right after it.
+	 *
+	 * @param scheduler - runs the helper tasks
+	 * @param maxThreads - maximum number of threads working on the tiles, including the caller, e.g. the share of the
+	 * calling stage given by {@link Scheduler#getThreadsPerTask(Object, int)}
+	 * @param task - work per tile
+	 * @param <R> - result type
+	 * @return the results in the order of the tiles
+	 * @throws InterruptedException if the caller was interrupted while helpers were still working, thrown once they
+	 * finished
+	 */
+	public <R> List<R> run(Scheduler scheduler, int maxThreads, final Task<R> task) throws InterruptedException {
+		final int n = tiles.size();
+		final Object[] results = new Object[n];
+		final AtomicInteger next = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(n);
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		final Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				int i;
+				while ((i = next.getAndIncrement()) < n) {
+					try {
+						if (failure.get() == null)
+							results[i] = task.process(tiles.get(i));
+					} catch (Exception e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						done.countDown();
+					}
+				}
+			}
+		};
+		for (int h = 1; h < Math.min(n, maxThreads); h++)
+			scheduler.submit(Executors.callable(worker));
+		worker.run();
+		boolean interrupted = false;
+		for (;;) {
+			try {
+				done.await();
+				break;
+			} catch (InterruptedException e) {
+				// no new tiles, but the running ones still work on the arrays of the caller
+				interrupted = true;
+				next.set(n);
+			}
+		}
+		if (interrupted)
+			throw new InterruptedException();
+		if (failure.get() != null)
+			throw new RuntimeException("Processing a tile failed: " + failure.get().getMessage(), failure.get());
+		@SuppressWarnings("unchecked")
+		final List<R> list = (List<R>) Arrays.asList(results);
+		return list;
+	}
+}
@@ -8,7 +8,7 @@ import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
 
-import org.lemming.data.XYFLocalization;
+import org.lemming.data.ImgLib2Frame;
 import org.lemming.data.XYFwLocalization;
 import org.lemming.interfaces.Frame;
 
@@ -31,17 +31,9 @@ public class WindowPeakFinder<T extends RealType<T>, F extends Frame<T>> extends
 	public void process(F frame) {
 		if (frame==null) return;
 		process3(frame);
-		if (frame.isLast()){
-			System.out.println("Last frame finished:"+frame.getFrameNumber());
-			XYFLocalization lastloc = new XYFLocalization(frame.getFrameNumber(), 0, 0);
-			lastloc.setLast(true);
-			output.put(lastloc);
-			hasMoreOutputs = false;
-			stop();
-			return;
-		}
 		if (frame.getFrameNumber() % 500 == 0)
 			System.out.println("Frames finished:"+frame.getFrameNumber());
+		ImgLib2Frame.release(frame);
 	}
 
 	private void process3(F frame) {
@@ -0,0 +1,239 @@
+package org.lemming.utils;
+
+import java.util.Arrays;
+
+/**
+ * Difference of Gaussians of a 2D frame and its local maxima, computed in two passes over the frame. The row pass smooths
+ * every row with both Gaussians from one mirrored line buffer. The column pass smooths the two results row by row,
+ * subtracts them and checks the pixels of the previous row for local maxima, so that no separate subtraction or search
+ * pass is needed.
+ * <p>
+ * The sigmas and kernels are computed once, like DifferenceOfGaussian.computeSigmas and Gauss3 of ImgLib2 do, for the
+ * radius and calibration given. The scratch images are kept and reused while the frame size does not change. A filter
+ * is used by one thread at a time, threads working in parallel need one each.
+ * <p>
+ * The frame is extended by mirroring without repeating the border pixel. A pixel is a maximum if it is at least the
+ * threshold and none of its 8 neighbors is greater. The pixel (x,y) is at index y*width+x.
+ */
+public class DogFilter {
+
+	private final double[][] sigmas;
+	// smaller and larger Gaussian along the rows (x) and the columns (y)
+	private final double[] kernel1x, kernel2x, kernel1y, kernel2y;
+	private final int halo;
+
+	private int width, height;
+	private float[] smooth1, smooth2, dog;
+	private float[] line;
+	private double[] acc1, acc2;
+	private int[] peaks = new int[64];
+	private int numPeaks;
+
+	/**
+	 * @param radius - estimated feature radius
+	 * @param calibration - pixel size in x and y
+	 */
+	public DogFilter(double radius, double[] calibration) {
+		final double sigma1 = radius / Math.sqrt(2) * 0.9;
+		final double sigma2 = radius / Math.sqrt(2) * 1.1;
+		sigmas = computeSigmas(0.5, 2, calibration, sigma1, sigma2);
+		kernel1x = halfKernel(sigmas[0][0]);
+		kernel2x = halfKernel(sigmas[1][0]);
+		kernel1y = halfKernel(sigmas[0][1]);
+		kernel2y = halfKernel(sigmas[1][1]);
+		halo = Math.max(kernel1x.length, kernel2x.length) - 1;
+	}
+
+	/**
+	 * The sigmas of the two Gaussians per dimension for an image already blurred by imageSigma.
+	 *
+	 * @param imageSigma - blur of the image
+	 * @param minf - minimum sigma in multiples of imageSigma
+	 * @param pixelSize - calibration
+	 * @param sigma1 - smaller sigma
+	 * @param sigma2 - larger sigma
+	 * @return the sigmas of the smaller and the larger Gaussian
+	 */
+	public static double[][] computeSigmas(double imageSigma, double minf, double[] pixelSize, double sigma1, double sigma2) {
+		final int n = pixelSize.length;
+		final double k = sigma2 / sigma1;
+		final double[] sigmas1 = new double[n];
+		final double[] sigmas2 = new double[n];
+		for (int d = 0; d < n; d++) {
+			final double s1 = Math.max(minf * imageSigma, sigma1 / pixelSize[d]);
+			final double s2 = k * s1;
+			sigmas1[d] = Math.sqrt(s1 * s1 - imageSigma * imageSigma);
+			sigmas2[d] = Math.sqrt(s2 * s2 - imageSigma * imageSigma);
+		}
+		return new double[][] { sigmas1, sigmas2 };
+	}
+
+	/**
+	 * @param sigma - sigma of the Gaussian
+	 * @return the normalized kernel from the center outwards
+	 */
+	public static double[] halfKernel(double sigma) {
+		final int size = Math.max(2, (int) (3 * sigma + 0.5) + 1);
+		final double twoSqSigma = 2 * sigma * sigma;
+		final double[] kernel = new double[size];
+		kernel[0] = 1;
+		for (int x = 1; x < size; x++)
+			kernel[x] = Math.exp(-(x * x) / twoSqSigma);
+		double sum = 0.5;
+		for (int x = 1; x < size; x++)
+			sum += kernel[x];
+		sum *= 2;
+		for (int x = 0; x < size; x++)
+			kernel[x] /= sum;
+		return kernel;
+	}
+
+	/**
+	 * @param i - index, may be outside the line
+	 * @param n - length of the line
+	 * @return the index mirrored into the line without repeating the border
+	 */
+	static int mirror(int i, int n) {
+		if (n == 1) return 0;
+		final int period = 2 * n - 2;
+		int m = i % period;
+		if (m < 0) m += period;
+		return m < n ? m : period - m;
+	}
+
+	/**
+	 * @return Returns the sigmas of the smaller and the larger Gaussian.
+	 */
+	public double[][] getSigmas() {
+		return sigmas;
+	}
+
+	private void allocate(int w, int h) {
+		if (w == width && h == height) return;
+		width = w;
+		height = h;
+		smooth1 = new float[w * h];
+		smooth2 = new float[w * h];
+		dog = new float[w * h];
+		line = new float[w + 2 * halo];
+		acc1 = new double[w];
+		acc2 = new double[w];
+	}
+
+	/**
+	 * @param pixels - the frame
+	 * @param width - frame width
+	 * @param height - frame height
+	 * @param threshold - minimum value of a maximum in the difference of Gaussians
+	 * @return the number of maxima
+	 */
+	public int detect(float[] pixels, int width, int height, float threshold) {
+		allocate(width, height);
+		for (int y = 0; y < height; y++) {
+			final int row = y * width;
+			for (int i = -halo; i < width + halo; i++)
+				line[i + halo] = pixels[row + mirror(i, width)];
+			smoothRow(row);
+		}
+		return columns(threshold);
+	}
+
+	/**
+	 * @param pixels - the frame of unsigned 16 bit values
+	 * @param width - frame width
+	 * @param height - frame height
+	 * @param threshold - minimum value of a maximum in the difference of Gaussians
+	 * @return the number of maxima
+	 */
+	public int detect(short[] pixels, int width, int height, float threshold) {
+		allocate(width, height);
+		for (int y = 0; y < height; y++) {
+			final int row = y * width;
+			for (int i = -halo; i < width + halo; i++)
+				line[i + halo] = pixels[row + mirror(i, width)] & 0xffff;
+			smoothRow(row);
+		}
+		return columns(threshold);
+	}
+
+	// both Gaussians along the row held in the line buffer
+	private void smoothRow(int row) {
+		final double[] k1 = kernel1x, k2 = kernel2x;
+		for (int x = 0; x < width; x++) {
+			final int c = x + halo;
+			double s1 = k1[0] * line[c];
+			double s2 = k2[0] * line[c];
+			for (int j = 1; j < k1.length; j++)
+				s1 += k1[j] * ((double) line[c - j] + line[c + j]);
+			for (int j = 1; j < k2.length; j++)
+				s2 += k2[j] * ((double) line[c - j] + line[c + j]);
+			smooth1[row + x] = (float) s1;
+			smooth2[row + x] = (float) s2;
+		}
+	}
+
+	// both Gaussians along the columns, one output row at a time, then the difference and the maxima of the row before
+	private int columns(float threshold) {
+		numPeaks = 0;
+		for (int y = 0; y < height; y++) {
+			accumulate(smooth1, kernel1y, acc1, y);
+			accumulate(smooth2, kernel2y, acc2, y);
+			final int row = y * width;
+			for (int x = 0; x < width; x++)
+				dog[row + x] = (float) acc1[x] - (float) acc2[x];
+			if (y > 0) findMaxima(y - 1, threshold);
+		}
+		if (height > 0) findMaxima(height - 1, threshold);
+		return numPeaks;
+	}
+
+	private void accumulate(float[] src, double[] kernel, double[] acc, int y) {
+		final int row = y * width;
+		for (int x = 0; x < width; x++)
+			acc[x] = kernel[0] * src[row + x];
+		for (int j = 1; j < kernel.length; j++) {
+			final int up = mirror(y - j, height) * width;
+			final int down = mirror(y + j, height) * width;
+			final double k = kernel[j];
+			for (int x = 0; x < width; x++)
+				acc[x] += k * ((double) src[up + x] + src[down + x]);
+		}
+	}
+
+	private void findMaxima(int y, float threshold) {
+		final int above = mirror(y - 1, height) * width, row = y * width, below = mirror(y + 1, height) * width;
+		for (int x = 0; x < width; x++) {
+			final float c = dog[row + x];
+			if (c < threshold) continue;
+			final int l = mirror(x - 1, width), r = mirror(x + 1, width);
+			if (dog[above + l] <= c && dog[above + x] <= c && dog[above + r] <= c
+					&& dog[row + l] <= c && dog[row + r] <= c
+					&& dog[below + l] <= c && dog[below + x] <= c && dog[below + r] <= c) {
+				if (numPeaks == peaks.length)
+					peaks = Arrays.copyOf(peaks, 2 * numPeaks);
+				peaks[numPeaks++] = row + x;
+			}
+		}
+	}
+
+	/**
+	 * @return Returns the difference of Gaussians of the last frame, valid until the next call of detect.
+	 */
+	public float[] getDog() {
+		return dog;
+	}
+
+	/**
+	 * @return Returns the pixel indices of the maxima of the last frame, the first {@link #getNumPeaks()} are valid.
+	 */
+	public int[] getPeaks() {
+		return peaks;
+	}
+
+	/**
+	 * @return Returns the number of maxima of the last frame.
+	 */
+	public int getNumPeaks() {
+		return numPeaks;
+	}
+}
@@ -0,0 +1,514 @@
+package org.lemming.utils;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.lemming.data.XYFwLocalization;
+
+/**
+ * Levenberg-Marquardt fits of the 7 parameter {@link Gaussian2DFunction} to many spots per call, e.g. the windows of the
+ * localizations of a frame. Unlike {@link LevMarBev}, which is built per fit, the fitter keeps a workspace per thread and
+ * reuses it for every spot, so that a fit allocates nothing. The 28 sums of the symmetric 7x7 normal equations and the 7
+ * gradient sums are accumulated in local variables in one pass over the pixels, which also evaluates the chi square,
+ * and the damped system is solved by a Cholesky decomposition of fixed size.
+ * <p>
+ * The parameters are those of Gaussian2DFunction: background, x, y, intensity, angle, sigma x and aspect ratio. A
+ * parameter is fitted if its pFloat entry is 1 and keeps its start value otherwise, see {@link #SYMMETRIC},
+ * {@link #FIXED_SIGMA} and {@link #ELLIPTICAL}. The start values are the minimum of the window as background, the
+ * centroid above it as position, its sum as intensity and the sigma given. A fit fails if it does not converge, if the
+ * position leaves the window or if the intensity or a width is not positive; its results are NaN.
+ * <p>
+ * If the angle, the sigma and the aspect ratio are fixed, a symmetric model with the 4 parameters background, x, y and
+ * intensity is fitted, which needs 10 instead of 28 sums per pixel.
+ * <p>
+ * The precision of a fit is the Cramer-Rao lower bound for Poisson noise, the square root of the diagonal of the inverse
+ * Fisher information at the fitted parameters. The pixel values are counts of gain counts per photon, see setGain.
+ * <p>
+ * A fitter may be used by several threads at the same time. It counts the fits and the time spent fitting to report the
+ * throughput.
+ */
+public class GaussianBatchFitter {
+
+	/** number of parameters of the model */
+	public static final int NUM_PARAMS = 7;
+	/** results per spot: the 7 parameters, the reduced chi square, the number of iterations and the precisions */
+	public static final int RESULT_SIZE = 12;
+	/** index of the reduced chi square in the results of a spot */
+	public static final int CHI_SQUARE = 7;
+	/** index of the number of iterations in the results of a spot */
+	public static final int ITERATIONS = 8;
+	/** index of the Cramer-Rao lower bound of the standard deviation of x in the results of a spot */
+	public static final int PRECISION_X = 9;
+	/** index of the Cramer-Rao lower bound of the standard deviation of y in the results of a spot */
+	public static final int PRECISION_Y = 10;
+	/** index of the Cramer-Rao lower bound of the standard deviation of the intensity in the results of a spot */
+	public static final int PRECISION_INTENSITY = 11;
+
+	/** symmetric Gaussian with fitted sigma */
+	public static final byte[] SYMMETRIC = { 1, 1, 1, 1, 0, 1, 0 };
+	/** symmetric Gaussian with the sigma given */
+	public static final byte[] FIXED_SIGMA = { 1, 1, 1, 1, 0, 0, 0 };
+	/** elliptical Gaussian with fitted angle, sigma and aspect ratio */
+	public static final byte[] ELLIPTICAL = { 1, 1, 1, 1, 1, 1, 1 };
+
+	private static final double TWO_PI = 2 * Math.PI;
+
+	private final double sigma;
+	private final boolean[] floating = new boolean[NUM_PARAMS];
+	private final int numFloating;
+	private final boolean fixedShape;
+	private double gain = 1;
+	private final int maxIter;
+	private final double precision;
+	private final AtomicLong fits = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong nanos = new AtomicLong();
+
+	private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+		@Override
+		protected Workspace initialValue() {
+			return new Workspace();
+		}
+	};
+
+	/**
+	 * @param sigma - start value of the sigma, the sigma of all spots for FIXED_SIGMA
+	 * @param pFloat - 1 for the parameters to fit, 0 for the fixed ones
+	 * @param maxIter - maximum number of iterations per spot
+	 * @param precision - relative change of the chi square at which a fit has converged
+	 */
+	public GaussianBatchFitter(double sigma, byte[] pFloat, int maxIter, double precision) {
+		if (pFloat.length != NUM_PARAMS)
+			throw new IllegalArgumentException("pFloat must have " + NUM_PARAMS + " entries: " + pFloat.length);
+		if (sigma <= 0)
+			throw new IllegalArgumentException("Sigma must be positive: " + sigma);
+		this.sigma = sigma;
+		int n = 0;
+		for (int i = 0; i < NUM_PARAMS; i++)
+			if (floating[i] = pFloat[i] != 0) n++;
+		numFloating = n;
+		fixedShape = !floating[4] && !floating[5] && !floating[6];
+		this.maxIter = Math.max(1, maxIter);
+		this.precision = precision;
+	}
+
+	/**
+	 * @param sigma - start value of the sigma
+	 */
+	public GaussianBatchFitter(double sigma) {
+		this(sigma, SYMMETRIC, 50, 1e-6);
+	}
+
+	/**
+	 * Fits the square windows of the spots, centered on their positions.
+	 *
+	 * @param spots - localizations with a window of side length n and n*n pixels
+	 * @param results - RESULT_SIZE values per spot, the positions in frame coordinates
+	 * @return the number of successful fits
+	 */
+	public int fit(List<? extends XYFwLocalization> spots, double[] results) {
+		final long start = System.nanoTime();
+		final Workspace ws = workspaces.get();
+		int ok = 0;
+		for (int s = 0; s < spots.size(); s++) {
+			final XYFwLocalization spot = spots.get(s);
+			final float[] window = spot.getWindow();
+			final int side = (int) Math.round(Math.sqrt(window.length));
+			if (side * side != window.length)
+				throw new IllegalArgumentException("Window is not square: " + window.length + " pixels");
+			ws.ensure(window.length);
+			for (int i = 0; i < window.length; i++)
+				ws.values[i] = window[i];
+			final int x0 = (int) Math.round(spot.getX()) - side / 2;
+			final int y0 = (int) Math.round(spot.getY()) - side / 2;
+			if (fit(ws, side, side, x0, y0, results, s * RESULT_SIZE)) ok++;
+		}
+		count(spots.size(), ok, start);
+		return ok;
+	}
+
+	/**
+	 * Fits the windows of (2 halfSize+1)x(2 halfSize+1) pixels around the given pixels of a frame, clipped at its border.
+	 *
+	 * @param frame - the pixels, (x,y) at index y*width+x
+	 * @param width - frame width
+	 * @param height - frame height
+	 * @param xs - columns of the spots
+	 * @param ys - rows of the spots
+	 * @param count - number of spots
+	 * @param halfSize - distance from a spot to the border of its window
+	 * @param results - RESULT_SIZE values per spot, the positions in frame coordinates
+	 * @return the number of successful fits
+	 */
+	public int fit(float[] frame, int width, int height, int[] xs, int[] ys, int count, int halfSize, double[] results) {
+		final long start = System.nanoTime();
+		final Workspace ws = workspaces.get();
+		int ok = 0;
+		for (int s = 0; s < count; s++) {
+			final int x0 = Math.max(0, xs[s] - halfSize), x1 = Math.min(width, xs[s] + halfSize + 1);
+			final int y0 = Math.max(0, ys[s] - halfSize), y1 = Math.min(height, ys[s] + halfSize + 1);
+			final int w = x1 - x0, h = y1 - y0;
+			ws.ensure(w * h);
+			for (int y = y0, i = 0; y < y1; y++)
+				for (int x = x0, p = y * width + x0; x < x1; x++, p++, i++)
+					ws.values[i] = frame[p];
+			if (fit(ws, w, h, x0, y0, results, s * RESULT_SIZE)) ok++;
+		}
+		count(count, ok, start);
+		return ok;
+	}
+
+	private void count(int n, int ok, long start) {
+		nanos.addAndGet(System.nanoTime() - start);
+		fits.addAndGet(n);
+		failures.addAndGet(n - ok);
+	}
+
+	// fits the w x h pixels of the workspace, whose upper left pixel is (x0,y0) of the frame
+	private boolean fit(Workspace ws, int w, int h, int x0, int y0, double[] results, int offset) {
+		final int n = w * h;
+		if (n <= numFloating) return fail(results, offset, 0);
+		start(ws.values, w, h, ws.p);
+
+		double chi2 = normalEquations(ws, w, h, ws.p, ws.alpha, ws.beta, false);
+		double lambda = 1e-3;
+		int iter = 0;
+		boolean converged = false;
+		Iterations:
+		while (iter < maxIter && !converged) {
+			iter++;
+			while (true) {
+				if (lambda > 1e10) { // no step decreases the chi square any more
+					converged = true;
+					break Iterations;
+				}
+				if (!step(ws, lambda)) {
+					lambda *= 10;
+					continue;
+				}
+				final double trialChi2 = normalEquations(ws, w, h, ws.trial, ws.alpha2, ws.beta2, false);
+				if (trialChi2 <= chi2) {
+					converged = chi2 - trialChi2 <= precision * chi2;
+					chi2 = trialChi2;
+					ws.accept();
+					lambda = Math.max(1e-7, lambda * 0.1);
+					break;
+				}
+				lambda *= 10;
+			}
+		}
+		final double[] p = ws.p;
+		if (!converged || !(p[1] >= 0 && p[1] <= w - 1 && p[2] >= 0 && p[2] <= h - 1)) return fail(results, offset, iter);
+		System.arraycopy(p, 0, results, offset, NUM_PARAMS);
+		results[offset + 1] += x0;
+		results[offset + 2] += y0;
+		results[offset + CHI_SQUARE] = chi2 / (n - numFloating);
+		results[offset + ITERATIONS] = iter;
+		precision(ws, w, h, results, offset);
+		return true;
+	}
+
+	private static boolean fail(double[] results, int offset, int iter) {
+		for (int i = 0; i < RESULT_SIZE; i++)
+			results[offset + i] = Double.NaN;
+		results[offset + ITERATIONS] = iter;
+		return false;
+	}
+
+	// background at the minimum, position at the centroid above it, intensity the sum above it
+	private void start(double[] v, int w, int h, double[] p) {
+		double min = Double.MAX_VALUE;
+		for (int i = 0; i < w * h; i++)
+			min = Math.min(min, v[i]);
+		double sum = 0, sx = 0, sy = 0;
+		for (int y = 0, i = 0; y < h; y++)
+			for (int x = 0; x < w; x++, i++) {
+				final double d = v[i] - min;
+				sum += d;
+				sx += d * x;
+				sy += d * y;
+			}
+		p[0] = min;
+		p[1] = sum > 0 ? sx / sum : (w - 1) * 0.5;
+		p[2] = sum > 0 ? sy / sum : (h - 1) * 0.5;
+		p[3] = Math.max(sum, 1);
+		p[4] = 0;
+		p[5] = sigma;
+		p[6] = 1;
+	}
+
+	/**
+	 * The normal equations alpha = J'J (upper triangle, row-major 7x7) and beta = J'(y - f) of the parameters q, with the
+	 * rows and columns of the fixed parameters replaced by those of the identity. With poisson every pixel is weighted
+	 * by the inverse of the model, which gives the Fisher information for Poisson noise in alpha.
+	 *
+	 * @return the chi square of q
+	 */
+	private double normalEquations(Workspace ws, int w, int h, double[] q, double[] alpha, double[] beta, boolean poisson) {
+		final double chi2 = fixedShape ? symmetricEquations(ws, w, h, q, alpha, beta, poisson)
+				: ellipticalEquations(ws, w, h, q, alpha, beta, poisson);
+		for (int j = 0; j < NUM_PARAMS; j++) {
+			if (floating[j]) continue;
+			for (int k = 0; k < NUM_PARAMS; k++)
+				alpha[Math.min(j, k) * NUM_PARAMS + Math.max(j, k)] = 0;
+			alpha[j * NUM_PARAMS + j] = 1;
+			beta[j] = 0;
+		}
+		return chi2;
+	}
+
+	// background, x, y and intensity of a round spot of the sigma of q
+	private static double symmetricEquations(Workspace ws, int w, int h, double[] q, double[] alpha, double[] beta, boolean poisson) {
+		final double[] v = ws.values;
+		final double bg = q[0], xc = q[1], yc = q[2], intensity = q[3];
+		final double u = 1 / (q[5] * q[5]);
+		final double norm = u / TWO_PI;
+		final double amp = intensity * norm;
+		double a00 = 0, a01 = 0, a02 = 0, a03 = 0;
+		double a11 = 0, a12 = 0, a13 = 0;
+		double a22 = 0, a23 = 0;
+		double a33 = 0;
+		double b0 = 0, b1 = 0, b2 = 0, b3 = 0;
+		double chi2 = 0;
+		for (int y = 0, i = 0; y < h; y++) {
+			final double dy = y - yc;
+			for (int x = 0; x < w; x++, i++) {
+				final double dx = x - xc;
+				final double e = Math.exp(-0.5 * u * (dx * dx + dy * dy));
+				final double g = amp * e;
+				final double r = v[i] - bg - g;
+				chi2 += r * r;
+				final double sw = poisson ? 1 / Math.sqrt(Math.max(bg + g, 1e-6)) : 1;
+				final double d0 = sw;
+				final double d1 = sw * g * u * dx;
+				final double d2 = sw * g * u * dy;
+				final double d3 = sw * norm * e;
+				a00 += d0 * d0; a01 += d0 * d1; a02 += d0 * d2; a03 += d0 * d3;
+				a11 += d1 * d1; a12 += d1 * d2; a13 += d1 * d3;
+				a22 += d2 * d2; a23 += d2 * d3;
+				a33 += d3 * d3;
+				b0 += r * d0; b1 += r * d1; b2 += r * d2; b3 += r * d3;
+			}
+		}
+		alpha[0] = a00; alpha[1] = a01; alpha[2] = a02; alpha[3] = a03;
+		alpha[8] = a11; alpha[9] = a12; alpha[10] = a13;
+		alpha[16] = a22; alpha[17] = a23;
+		alpha[24] = a33;
+		beta[0] = b0; beta[1] = b1; beta[2] = b2; beta[3] = b3;
+		return chi2;
+	}
+
+	// all 7 parameters
+	private static double ellipticalEquations(Workspace ws, int w, int h, double[] q, double[] alpha, double[] beta, boolean poisson) {
+		final double[] v = ws.values;
+		final double bg = q[0], xc = q[1], yc = q[2], intensity = q[3];
+		final double c = Math.cos(q[4]), s = Math.sin(q[4]);
+		final double sx = q[5], aspect = q[6];
+		final double u = 1 / (sx * sx), vv = u / (aspect * aspect);
+		final double amp = intensity / (TWO_PI * sx * sx * aspect);
+		final double norm = 1 / (TWO_PI * sx * sx * aspect);
+		final double uv = u - vv;
+		double a00 = 0, a01 = 0, a02 = 0, a03 = 0, a04 = 0, a05 = 0, a06 = 0;
+		double a11 = 0, a12 = 0, a13 = 0, a14 = 0, a15 = 0, a16 = 0;
+		double a22 = 0, a23 = 0, a24 = 0, a25 = 0, a26 = 0;
+		double a33 = 0, a34 = 0, a35 = 0, a36 = 0;
+		double a44 = 0, a45 = 0, a46 = 0;
+		double a55 = 0, a56 = 0;
+		double a66 = 0;
+		double b0 = 0, b1 = 0, b2 = 0, b3 = 0, b4 = 0, b5 = 0, b6 = 0;
+		double chi2 = 0;
+		for (int y = 0, i = 0; y < h; y++) {
+			final double dy = y - yc;
+			for (int x = 0; x < w; x++, i++) {
+				final double dx = x - xc;
+				final double f1 = dx * c - dy * s;
+				final double f2 = dx * s + dy * c;
+				final double q1 = f1 * f1 * u, q2 = f2 * f2 * vv;
+				final double e = Math.exp(-0.5 * (q1 + q2));
+				final double g = amp * e;
+				final double r = v[i] - bg - g;
+				chi2 += r * r;
+				// partial derivatives of the model, weighted for the Fisher information
+				final double sw = poisson ? 1 / Math.sqrt(Math.max(bg + g, 1e-6)) : 1;
+				final double gw = sw * g;
+				final double d0 = sw;
+				final double d1 = gw * (f1 * u * c + f2 * vv * s);
+				final double d2 = gw * (f2 * vv * c - f1 * u * s);
+				final double d3 = sw * norm * e;
+				final double d4 = gw * f1 * f2 * uv;
+				final double d5 = gw * (q1 + q2 - 2) / sx;
+				final double d6 = gw * (q2 - 1) / aspect;
+				a00 += d0 * d0; a01 += d0 * d1; a02 += d0 * d2; a03 += d0 * d3; a04 += d0 * d4; a05 += d0 * d5; a06 += d0 * d6;
+				a11 += d1 * d1; a12 += d1 * d2; a13 += d1 * d3; a14 += d1 * d4; a15 += d1 * d5; a16 += d1 * d6;
+				a22 += d2 * d2; a23 += d2 * d3; a24 += d2 * d4; a25 += d2 * d5; a26 += d2 * d6;
+				a33 += d3 * d3; a34 += d3 * d4; a35 += d3 * d5; a36 += d3 * d6;
+				a44 += d4 * d4; a45 += d4 * d5; a46 += d4 * d6;
+				a55 += d5 * d5; a56 += d5 * d6;
+				a66 += d6 * d6;
+				b0 += r * d0; b1 += r * d1; b2 += r * d2; b3 += r * d3; b4 += r * d4; b5 += r * d5; b6 += r * d6;
+			}
+		}
+		alpha[0] = a00; alpha[1] = a01; alpha[2] = a02; alpha[3] = a03; alpha[4] = a04; alpha[5] = a05; alpha[6] = a06;
+		alpha[8] = a11; alpha[9] = a12; alpha[10] = a13; alpha[11] = a14; alpha[12] = a15; alpha[13] = a16;
+		alpha[16] = a22; alpha[17] = a23; alpha[18] = a24; alpha[19] = a25; alpha[20] = a26;
+		alpha[24] = a33; alpha[25] = a34; alpha[26] = a35; alpha[27] = a36;
+		alpha[32] = a44; alpha[33] = a45; alpha[34] = a46;
+		alpha[40] = a55; alpha[41] = a56;
+		alpha[48] = a66;
+		beta[0] = b0; beta[1] = b1; beta[2] = b2; beta[3] = b3; beta[4] = b4; beta[5] = b5; beta[6] = b6;
+		return chi2;
+	}
+
+	/**
+	 * Solves (alpha + lambda diag(alpha)) d = beta by a Cholesky decomposition and sets trial = p + d.
+	 *
+	 * @return false if the damped matrix is not positive definite or the trial parameters are invalid
+	 */
+	private static boolean step(Workspace ws, double lambda) {
+		final double[] l = ws.chol, d = ws.delta;
+		final int n = NUM_PARAMS;
+		if (!cholesky(ws.alpha, l, lambda)) return false;
+		for (int j = 0; j < n; j++) {
+			double sum = ws.beta[j];
+			for (int m = 0; m < j; m++)
+				sum -= l[j * n + m] * d[m];
+			d[j] = sum / l[j * n + j];
+		}
+		for (int j = n - 1; j >= 0; j--) {
+			double sum = d[j];
+			for (int m = j + 1; m < n; m++)
+				sum -= l[m * n + j] * d[m];
+			d[j] = sum / l[j * n + j];
+		}
+		for (int j = 0; j < n; j++)
+			ws.trial[j] = ws.p[j] + d[j];
+		return ws.trial[3] > 0 && ws.trial[5] > 0 && ws.trial[6] > 0 && !Double.isNaN(ws.trial[1]) && !Double.isNaN(ws.trial[2]);
+	}
+
+	// lower triangle l of the Cholesky decomposition of the damped upper triangle a, false if not positive definite
+	private static boolean cholesky(double[] a, double[] l, double lambda) {
+		final int n = NUM_PARAMS;
+		for (int j = 0; j < n; j++) {
+			for (int k = 0; k <= j; k++) {
+				double sum = a[k * n + j];
+				// a parameter without influence, like the angle of a round spot, is not changed by this step
+				if (k == j) sum = sum == 0 ? 1 : sum * (1 + lambda);
+				for (int m = 0; m < k; m++)
+					sum -= l[j * n + m] * l[k * n + m];
+				if (k == j) {
+					if (!(sum > 0)) return false;
+					l[j * n + j] = Math.sqrt(sum);
+				} else {
+					l[j * n + k] = sum / l[k * n + k];
+				}
+			}
+		}
+		return true;
+	}
+
+	// the Cramer-Rao lower bounds of the fitted parameters p of the workspace
+	private void precision(Workspace ws, int w, int h, double[] results, int offset) {
+		normalEquations(ws, w, h, ws.p, ws.alpha2, ws.beta2, true);
+		if (!cholesky(ws.alpha2, ws.chol, 0)) return; // the precisions stay NaN
+		results[offset + PRECISION_X] = Math.sqrt(gain * inverseDiagonal(ws.chol, 1, ws.delta));
+		results[offset + PRECISION_Y] = Math.sqrt(gain * inverseDiagonal(ws.chol, 2, ws.delta));
+		results[offset + PRECISION_INTENSITY] = Math.sqrt(gain * inverseDiagonal(ws.chol, 3, ws.delta));
+	}
+
+	// the diagonal element j of the inverse of l l', the squared norm of the solution of l v = e_j
+	private static double inverseDiagonal(double[] l, int j, double[] v) {
+		final int n = NUM_PARAMS;
+		double norm = 0;
+		for (int k = j; k < n; k++) {
+			double sum = k == j ? 1 : 0;
+			for (int m = j; m < k; m++)
+				sum -= l[k * n + m] * v[m];
+			v[k] = sum / l[k * n + k];
+			norm += v[k] * v[k];
+		}
+		return norm;
+	}
+
+	/**
+	 * @param gain - counts per photon of the pixel values, for the precisions
+	 */
+	public void setGain(double gain) {
+		if (gain <= 0)
+			throw new IllegalArgumentException("Gain must be positive: " + gain);
+		this.gain = gain;
+	}
+
+	/**
+	 * @return Returns the counts per photon of the pixel values.
+	 */
+	public double getGain() {
+		return gain;
+	}
+
+	/**
+	 * @return Returns true if the fixed-sigma symmetric model with 4 parameters is fitted.
+	 */
+	public boolean isFixedShape() {
+		return fixedShape;
+	}
+
+	/**
+	 * @return Returns the number of spots fitted so far, failed ones included.
+	 */
+	public long getFits() {
+		return fits.get();
+	}
+
+	/**
+	 * @return Returns the number of failed fits so far.
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * @return Returns the spots fitted per second of fitting time of a thread.
+	 */
+	public double getFitsPerSecond() {
+		final long t = nanos.get();
+		return t == 0 ? 0 : fits.get() * 1e9 / t;
+	}
+
+	/**
+	 * Sets the counters of fits, failures and fitting time to 0.
+	 */
+	public void resetStatistics() {
+		fits.set(0);
+		failures.set(0);
+		nanos.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d fits, %d failed, %.0f fits/s per thread", getFits(), getFailures(), getFitsPerSecond());
+	}
+
+	// the arrays of a thread, the values grow with the largest window
+	private static class Workspace {
+		double[] values = new double[0];
+		double[] p = new double[NUM_PARAMS];
+		double[] trial = new double[NUM_PARAMS];
+		double[] alpha = new double[NUM_PARAMS * NUM_PARAMS];
+		double[] beta = new double[NUM_PARAMS];
+		double[] alpha2 = new double[NUM_PARAMS * NUM_PARAMS];
+		double[] beta2 = new double[NUM_PARAMS];
+		final double[] chol = new double[NUM_PARAMS * NUM_PARAMS];
+		final double[] delta = new double[NUM_PARAMS];
+
+		void ensure(int n) {
+			if (values.length < n) values = new double[n];
+		}
+
+		// the trial parameters and their normal equations become the current ones
+		void accept() {
+			double[] t = p; p = trial; trial = t;
+			t = alpha; alpha = alpha2; alpha2 = t;
+			t = beta; beta = beta2; beta2 = t;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package org.lemming.utils;
+
+/**
+ * Grey-value dilation of a 2D image with a (2 radius+1)x(2 radius+1) square, computed separably along the rows and then
+ * the columns with the van Herk/Gil-Werman algorithm. Every line is cut into blocks of the window length, a running
+ * maximum from the left and one from the right of every block give the maximum of any window with two lookups, so the
+ * cost per pixel does not depend on the radius.
+ * <p>
+ * Pixels outside the image do not count, windows at the border are clipped. The pixel (x,y) is at index y*width+x.
+ */
+public class MaxFilter {
+
+	private MaxFilter() {
+	}
+
+	/**
+	 * @param in - image
+	 * @param out - receives the maximum of the window around every pixel, may be the same array as in
+	 * @param tmp - image-sized scratch array
+	 * @param width - image width
+	 * @param height - image height
+	 * @param radius - half the window length, 0 copies the image
+	 */
+	public static void filter(float[] in, float[] out, float[] tmp, int width, int height, int radius) {
+		if (radius < 0)
+			throw new IllegalArgumentException("Negative radius " + radius);
+		final int length = Math.max(width, height) + 2 * radius;
+		final float[] g = new float[length];
+		final float[] h = new float[length];
+		for (int y = 0; y < height; y++)
+			line(in, tmp, y * width, 1, width, radius, g, h);
+		for (int x = 0; x < width; x++)
+			line(tmp, out, x, width, height, radius, g, h);
+	}
+
+	/**
+	 * Running maximum of one row or column. The line is padded with radius values of -infinity on both sides, g holds the
+	 * maximum from the start of the block to t and h from t to the end of the block, a window starting at t ends in the
+	 * next block and its maximum is max(h[t], g[t+2 radius]).
+	 */
+	private static void line(float[] src, float[] dst, int offset, int stride, int n, int radius, float[] g, float[] h) {
+		final int k = 2 * radius + 1;
+		final int padded = n + 2 * radius;
+		for (int t = 0; t < padded; t++) {
+			final float v = value(src, offset, stride, n, t - radius);
+			g[t] = (t % k == 0 || g[t - 1] < v) ? v : g[t - 1];
+		}
+		for (int t = padded - 1; t >= 0; t--) {
+			final float v = value(src, offset, stride, n, t - radius);
+			h[t] = (t % k == k - 1 || t == padded - 1 || h[t + 1] < v) ? v : h[t + 1];
+		}
+		for (int x = 0; x < n; x++) {
+			final float a = h[x], b = g[x + 2 * radius];
+			dst[offset + x * stride] = a < b ? b : a;
+		}
+	}
+
+	private static float value(float[] src, int offset, int stride, int n, int i) {
+		return i < 0 || i >= n ? Float.NEGATIVE_INFINITY : src[offset + i * stride];
+	}
+}
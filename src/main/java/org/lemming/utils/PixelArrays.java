@@ -0,0 +1,77 @@
+package org.lemming.utils;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Direct access to the pixel array behind a 2D frame. Detectors use it to work on a float[] with index arithmetic, the
+ * pixel (x,y) being at index {@code y*width+x}. Pixels of another type or not backed by a Java array (views,
+ * memory-mapped or cell images) are copied to a float[] first. This includes the short[] of UnsignedShortType frames,
+ * converted in one pass per frame, so that every detector has a single kernel.
+ */
+public class PixelArrays {
+
+	private PixelArrays() {
+	}
+
+	/**
+	 * @param pixels - pixels of a frame
+	 * @return the short[] behind an ArrayImg of UnsignedShortType, values are read with {@code & 0xffff}, or null
+	 */
+	public static short[] unsignedShorts(RandomAccessibleInterval<?> pixels) {
+		final Object a = storage(pixels, UnsignedShortType.class);
+		return a instanceof short[] ? (short[]) a : null;
+	}
+
+	/**
+	 * @param pixels - pixels of a frame
+	 * @return the float[] behind an ArrayImg of FloatType, or null
+	 */
+	public static float[] floats(RandomAccessibleInterval<?> pixels) {
+		final Object a = storage(pixels, FloatType.class);
+		return a instanceof float[] ? (float[]) a : null;
+	}
+
+	/**
+	 * Copies the pixels of a frame to a float[], the array of a FloatType or UnsignedShortType ArrayImg directly and
+	 * other pixels in flat iteration order.
+	 *
+	 * @param pixels - pixels of a frame
+	 * @param dest - array of at least width*height elements, e.g. taken from a BufferPool
+	 * @param <T> - pixel type
+	 * @return dest
+	 */
+	public static <T extends RealType<T>> float[] copyFloats(RandomAccessibleInterval<T> pixels, float[] dest) {
+		final int n = (int) (pixels.dimension(0) * pixels.dimension(1));
+		final float[] floats = floats(pixels);
+		final short[] shorts = floats == null ? unsignedShorts(pixels) : null;
+		if (floats != null) {
+			System.arraycopy(floats, 0, dest, 0, n);
+		} else if (shorts != null) {
+			for (int i = 0; i < n; i++)
+				dest[i] = shorts[i] & 0xffff;
+		} else {
+			final Cursor<T> c = Views.flatIterable(pixels).cursor();
+			for (int i = 0; i < n; i++)
+				dest[i] = c.next().getRealFloat();
+		}
+		return dest;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static Object storage(RandomAccessibleInterval<?> pixels, Class<?> type) {
+		if (!(pixels instanceof ArrayImg) || pixels.numDimensions() != 2)
+			return null;
+		final ArrayImg img = (ArrayImg) pixels;
+		if (!type.isInstance(img.firstElement()))
+			return null;
+		final Object access = img.update(null);
+		return access instanceof ArrayDataAccess ? ((ArrayDataAccess) access).getCurrentStorageArray() : null;
+	}
+}
@@ -0,0 +1,209 @@
+package org.lemming.utils;
+
+import java.util.Arrays;
+
+/**
+ * Running percentile of every pixel over the last frames of a movie, e.g. the temporal median as background estimate.
+ * Values are 16 bit integers, float frames are rounded.
+ * <p>
+ * Every pixel keeps a ring buffer of its last window values, a histogram of a band of {@value #BAND} values around its
+ * current percentile and the number of values less than the percentile. A new frame updates two histogram bins
+ * and moves the percentile to the neighboring occupied bin, which is O(1) for a background drifting slowly compared with
+ * the band. Only if the percentile leaves the band the band is rebuilt from the ring buffer.
+ * <p>
+ * The memory is 2 window + {@value #BAND} + 12 bytes per pixel, the bins count in 8 bit for a window of up to 255 frames
+ * and in 16 bit (another {@value #BAND} bytes) for larger windows. For 2048x2048 pixels and a window of 100 frames this
+ * is about 1.1 GB, mostly the ring buffer, so large frames need a shorter window or a cropped region.
+ */
+public class TemporalMedian {
+
+	/** number of values covered by the histogram of a pixel */
+	public static final int BAND = 64;
+
+	private final int numPixels;
+	private final int window;
+	private final double percentile;
+	private final short[] ring;
+	private final byte[] hist; // counts up to 255, used for windows of up to 255 frames
+	private final char[] wideHist; // otherwise
+	private final int[] base;
+	private final int[] value;
+	private final int[] less;
+	private final int[] scratch;
+	private int head;
+	private int count;
+	private long rebuilds;
+
+	/**
+	 * @param numPixels - number of pixels of a frame
+	 * @param window - number of frames the percentile is taken over
+	 * @param percentile - between 0 and 1, 0.5 for the median
+	 */
+	public TemporalMedian(int numPixels, int window, double percentile) {
+		if (window < 1 || window > Character.MAX_VALUE)
+			throw new IllegalArgumentException("Window must be between 1 and " + (int) Character.MAX_VALUE + ": " + window);
+		if (percentile < 0 || percentile > 1)
+			throw new IllegalArgumentException("Percentile must be between 0 and 1: " + percentile);
+		this.numPixels = numPixels;
+		this.window = window;
+		this.percentile = percentile;
+		ring = new short[numPixels * window];
+		if (window <= 255) {
+			hist = new byte[numPixels * BAND];
+			wideHist = null;
+		} else {
+			hist = null;
+			wideHist = new char[numPixels * BAND];
+		}
+		base = new int[numPixels];
+		value = new int[numPixels];
+		less = new int[numPixels];
+		scratch = new int[window];
+	}
+
+	/**
+	 * @param pixels - next frame of unsigned 16 bit values
+	 * @throws IllegalArgumentException if the frame has not numPixels pixels
+	 */
+	public void add(short[] pixels) {
+		checkSize(pixels.length);
+		final boolean full = startFrame();
+		for (int p = 0; p < numPixels; p++)
+			update(p, pixels[p] & 0xffff, full);
+		head = (head + 1) % window;
+	}
+
+	/**
+	 * @param pixels - next frame, values are rounded and clamped to 0..65535
+	 * @throws IllegalArgumentException if the frame has not numPixels pixels
+	 */
+	public void add(float[] pixels) {
+		checkSize(pixels.length);
+		final boolean full = startFrame();
+		for (int p = 0; p < numPixels; p++)
+			update(p, Math.max(0, Math.min(65535, Math.round(pixels[p]))), full);
+		head = (head + 1) % window;
+	}
+
+	private void checkSize(int length) {
+		if (length != numPixels)
+			throw new IllegalArgumentException("Frame has " + length + " pixels instead of " + numPixels);
+	}
+
+	private boolean startFrame() {
+		final boolean full = count == window;
+		if (!full) count++;
+		return full;
+	}
+
+	private void update(int p, int v, boolean full) {
+		final int slot = p * window + head;
+		if (count == 1) {
+			ring[slot] = (short) v;
+			rebuild(p);
+			return;
+		}
+		if (full) remove(p, ring[slot] & 0xffff);
+		ring[slot] = (short) v;
+		insert(p, v);
+
+		// move the percentile to the value of rank k
+		final int k = rank();
+		final int h = p * BAND;
+		int m = value[p];
+		int l = less[p];
+		while (l > k) {
+			if (--m < base[p]) {
+				rebuild(p);
+				return;
+			}
+			l -= bin(h + m - base[p]);
+		}
+		while (l + bin(h + m - base[p]) <= k) {
+			l += bin(h + m - base[p]);
+			if (++m >= base[p] + BAND) {
+				rebuild(p);
+				return;
+			}
+		}
+		value[p] = m;
+		less[p] = l;
+	}
+
+	private void insert(int p, int v) {
+		if (v < value[p]) less[p]++;
+		final int b = v - base[p];
+		if (b >= 0 && b < BAND)
+			addToBin(p * BAND + b, 1);
+	}
+
+	private void remove(int p, int v) {
+		if (v < value[p]) less[p]--;
+		final int b = v - base[p];
+		if (b >= 0 && b < BAND)
+			addToBin(p * BAND + b, -1);
+	}
+
+	private int bin(int i) {
+		return hist != null ? hist[i] & 0xff : wideHist[i];
+	}
+
+	private void addToBin(int i, int d) {
+		if (hist != null)
+			hist[i] += d;
+		else
+			wideHist[i] += d;
+	}
+
+	private int rank() {
+		return (int) (percentile * (count - 1));
+	}
+
+	// sorts the window of a pixel and centers its band on the percentile
+	private void rebuild(int p) {
+		rebuilds++;
+		final int offset = p * window;
+		// the slots 0..count-1 hold the window, whatever the position of head
+		for (int i = 0; i < count; i++)
+			scratch[i] = ring[offset + i] & 0xffff;
+		Arrays.sort(scratch, 0, count);
+		final int k = rank();
+		final int m = scratch[k];
+		int l = k;
+		while (l > 0 && scratch[l - 1] == m) l--;
+		value[p] = m;
+		less[p] = l;
+		base[p] = Math.max(0, Math.min(65536 - BAND, m - BAND / 2));
+		final int h = p * BAND;
+		if (hist != null)
+			Arrays.fill(hist, h, h + BAND, (byte) 0);
+		else
+			Arrays.fill(wideHist, h, h + BAND, (char) 0);
+		for (int i = 0; i < count; i++) {
+			final int d = scratch[i] - base[p];
+			if (d >= 0 && d < BAND)
+				addToBin(h + d, 1);
+		}
+	}
+
+	/**
+	 * @return Returns the percentile of every pixel over the frames added so far, at most window frames.
+	 */
+	public int[] getValues() {
+		return value;
+	}
+
+	/**
+	 * @return Returns the number of frames the values are taken over.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return Returns the number of times the band of a pixel was rebuilt.
+	 */
+	public long getRebuilds() {
+		return rebuilds;
+	}
+}
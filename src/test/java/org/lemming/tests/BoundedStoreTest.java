@@ -0,0 +1,174 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lemming.data.BoundedStore;
+
+/**
+ * Test class for the BoundedStore.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class BoundedStoreTest {
+
+	BoundedStore<Integer> q;
+
+	@Before
+	public void setUp() throws Exception {
+		q = new BoundedStore<>(2);
+	}
+
+	@Test
+	public void testFIFO() {
+		q.put(1);
+		q.put(2);
+
+		assertEquals((Integer) 1, q.get());
+		assertEquals((Integer) 2, q.get());
+		assertTrue(q.isEmpty());
+	}
+
+	@Test
+	public void testWrapAround() {
+		for (int i = 0; i < 10; i++){
+			q.put(i);
+			assertEquals((Integer) i, q.get());
+		}
+		assertEquals(0, q.getLength());
+	}
+
+	@Test
+	public void testInterruptedGet() {
+		Thread.currentThread().interrupt();
+		try {
+			assertNull(q.get());
+			assertTrue(Thread.currentThread().isInterrupted());
+		} finally {
+			Thread.interrupted();
+		}
+	}
+
+	@Test
+	public void testCapacity() throws InterruptedException {
+		q.put(1);
+		q.put(2);
+
+		assertFalse(q.offer(3, 100, TimeUnit.MILLISECONDS));
+		assertEquals(2, q.getLength());
+		assertTrue(q.getPutBlockedNanos() > 0);
+	}
+
+	@Test
+	public void testByteCapacity() throws InterruptedException {
+		BoundedStore<Integer> b = new BoundedStore<>(10, 5, new BoundedStore.Sizer<Integer>() {
+			@Override
+			public long sizeOf(Integer element) {
+				return element;
+			}
+		});
+
+		assertTrue(b.offer(4, 0, TimeUnit.MILLISECONDS));
+		assertFalse(b.offer(2, 10, TimeUnit.MILLISECONDS));
+		assertEquals(4, b.getBytes());
+		b.get();
+		assertTrue(b.offer(7, 0, TimeUnit.MILLISECONDS)); // oversized elements pass an empty store
+	}
+
+	@Test
+	public void testSizedOnce() {
+		final AtomicInteger calls = new AtomicInteger();
+		BoundedStore<Integer> b = new BoundedStore<>(4, 100, new BoundedStore.Sizer<Integer>() {
+			@Override
+			public long sizeOf(Integer element) {
+				calls.incrementAndGet();
+				return element;
+			}
+		});
+		for (int i = 1; i <= 3; i++)
+			b.put(i);
+		assertEquals(6, b.getBytes());
+		b.get();
+		b.get();
+		assertEquals(3, b.getBytes());
+		assertEquals(3, calls.get());
+	}
+
+	@Test
+	public void testInterruptedPut() throws InterruptedException {
+		q.put(1);
+		q.put(2);
+
+		final AtomicBoolean interrupted = new AtomicBoolean();
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				q.put(3);
+				interrupted.set(Thread.currentThread().isInterrupted());
+			}
+		};
+		producer.start();
+		Thread.sleep(100);
+		producer.interrupt();
+		Thread.sleep(100);
+		assertTrue(producer.isAlive()); // still waiting for space
+
+		assertEquals((Integer) 1, q.get());
+		producer.join(1000);
+		assertFalse(producer.isAlive());
+		assertTrue(interrupted.get());
+		assertEquals((Integer) 2, q.get());
+		assertEquals((Integer) 3, q.get()); // not discarded
+	}
+
+	@Test
+	public void testBlockingBehaviour() throws InterruptedException {
+		q.put(1);
+		q.put(2);
+
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				q.put(3);
+			}
+		};
+		producer.start();
+
+		Thread.sleep(200);
+		assertTrue(producer.isAlive());
+
+		assertEquals((Integer) 1, q.get());
+		producer.join(1000);
+		assertFalse(producer.isAlive());
+		assertEquals(2, q.getLength());
+	}
+
+	@Test
+	public void testTimedPoll() throws InterruptedException {
+		assertNull(q.poll(50, TimeUnit.MILLISECONDS));
+		assertTrue(q.getGetBlockedNanos() > 0);
+	}
+
+	@Test
+	public void testClose() throws InterruptedException {
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				while (q.get() != null) {}
+			}
+		};
+		reader.start();
+		
+		q.put(1);
+		q.close();
+		reader.join(1000);
+		
+		assertFalse(reader.isAlive());
+		assertNull(q.poll(0, TimeUnit.MILLISECONDS));
+	}
+}
@@ -0,0 +1,67 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lemming.data.BufferPool;
+import org.lemming.data.ImgLib2Frame;
+
+/**
+ * Test class for reusing pixel arrays between frames.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class BufferPoolTest {
+
+	BufferPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		pool = new BufferPool(2);
+	}
+
+	@Test
+	public void testReuse() {
+		short[] a = pool.takeShorts(100);
+		pool.release(a);
+		assertSame(a, pool.takeShorts(100));
+		assertNotSame(a, pool.takeShorts(100));
+		assertEquals(100, pool.takeFloats(100).length);
+		assertEquals(3, pool.getAllocated());
+		assertEquals(1, pool.getReused());
+	}
+
+	@Test
+	public void testRetained() {
+		float[] a = new float[10], b = new float[10], c = new float[10];
+		pool.release(a);
+		pool.release(b);
+		pool.release(c);
+		pool.takeFloats(10);
+		pool.takeFloats(10);
+		pool.takeFloats(10);
+		assertEquals(2, pool.getReused());
+		assertEquals(1, pool.getAllocated());
+	}
+
+	ImgLib2Frame<UnsignedShortType> frame(short[] pixels) {
+		return new ImgLib2Frame<UnsignedShortType>(0, 10, 10, ArrayImgs.unsignedShorts(pixels, 10, 10), pixels, pool);
+	}
+
+	@Test
+	public void testFrameRelease() {
+		short[] pixels = pool.takeShorts(100);
+		ImgLib2Frame<UnsignedShortType> f = frame(pixels);
+		f.retain();
+		f.release();
+		assertNotSame(pixels, pool.takeShorts(100));
+		f.release();
+		f.release();
+		assertSame(pixels, pool.takeShorts(100));
+		assertNotSame(pixels, pool.takeShorts(100));
+	}
+}
@@ -0,0 +1,32 @@
+package org.lemming.tests;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.lemming.outputs.SingleInput;
+
+/**
+ * A well counting the elements it receives, several wells can share one counter.
+ *
+ * @param <T> - data type
+ */
+public class CountingWell<T> extends SingleInput<T> {
+
+	final AtomicLong count;
+
+	public CountingWell() {
+		this(new AtomicLong());
+	}
+
+	public CountingWell(AtomicLong count) {
+		this.count = count;
+	}
+
+	@Override
+	public void process(T element) {
+		count.incrementAndGet();
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+}
@@ -0,0 +1,119 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lemming.data.BufferPool;
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.data.QueueStore;
+import org.lemming.data.ShortBufferAccess;
+import org.lemming.inputs.DAXLoader;
+
+/**
+ * Test class for reading and mapping dax files.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class DAXLoaderTest {
+
+	static final int W = 16, H = 8, FRAMES = 10;
+
+	File dax, inf;
+
+	@Before
+	public void setUp() throws Exception {
+		dax = File.createTempFile("lemming", ".dax");
+		inf = new File(dax.getPath().replaceAll("dax$", "inf"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		dax.delete();
+		inf.delete();
+	}
+
+	void write(boolean bigEndian) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(2 * W * H * FRAMES).order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < W * H * FRAMES; i++)
+			b.putShort((short) (i * 7));
+		FileOutputStream out = new FileOutputStream(dax);
+		out.write(b.array());
+		out.close();
+		FileWriter w = new FileWriter(inf);
+		w.write("DAX_data_type = " + (bigEndian ? "I16_big_endian" : "I16_little_endian") + "\n");
+		w.write("frame dimensions = " + W + " x " + H + "\n");
+		w.write("number of frames = " + FRAMES + "\n");
+		w.close();
+	}
+
+	void compare(DAXLoader loader) throws IOException {
+		for (int f = 0; f < FRAMES; f++) {
+			short[] read = loader.readFrame(f);
+			@SuppressWarnings("unchecked")
+			ShortBufferAccess mapped = ((ArrayImg<UnsignedShortType, ShortBufferAccess>) loader.mapFrame(f)).update(null);
+			for (int i = 0; i < W * H; i++) {
+				assertEquals((short) ((f * W * H + i) * 7), read[i]);
+				assertEquals(read[i], mapped.getValue(i));
+			}
+		}
+		loader.close();
+	}
+
+	@Test
+	public void testMappedLittleEndian() throws IOException {
+		write(false);
+		DAXLoader loader = new DAXLoader(dax.getPath());
+		compare(loader);
+	}
+
+	@Test
+	public void testMappedBigEndianWindows() throws IOException {
+		write(true);
+		DAXLoader loader = new DAXLoader(dax.getPath());
+		loader.setMappedWindow(3 * 2 * W * H + 5);
+		compare(loader);
+	}
+
+	@Test
+	public void testMappedRun() throws IOException {
+		write(false);
+		DAXLoader loader = new DAXLoader(dax.getPath());
+		loader.setMemoryMapped(true);
+		QueueStore<ImgLib2Frame<UnsignedShortType>> frames = new QueueStore<>();
+		loader.setOutput(frames);
+		loader.run();
+
+		assertEquals(FRAMES, frames.getLength());
+		assertTrue(frames.isClosed());
+		assertEquals(0, frames.get().getFrameNumber());
+	}
+
+	@Test
+	public void testPooledFrames() throws IOException {
+		write(false);
+		DAXLoader loader = new DAXLoader(dax.getPath());
+		BufferPool pool = new BufferPool(4);
+		loader.setBufferPool(pool);
+		for (int f = 0; f < FRAMES; f++) {
+			ImgLib2Frame<UnsignedShortType> frame = loader.readFrame(f, f);
+			assertEquals(f, frame.getFrameNumber());
+			ImgLib2Frame.release(frame);
+		}
+		loader.close();
+
+		assertEquals(1, pool.getAllocated());
+		assertEquals(FRAMES - 1, pool.getReused());
+	}
+}
@@ -0,0 +1,105 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.lemming.utils.DogFilter;
+
+/**
+ * Test class for the fused difference of Gaussians, compared with a plain 2D convolution.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class DogFilterTest {
+
+	static int mirror(int i, int n) {
+		while (i < 0 || i >= n)
+			i = i < 0 ? -i : 2 * n - 2 - i;
+		return i;
+	}
+
+	static double gauss(float[] p, int w, int h, int x, int y, double[] kx, double[] ky) {
+		double sum = 0;
+		for (int j = 1 - ky.length; j < ky.length; j++)
+			for (int i = 1 - kx.length; i < kx.length; i++)
+				sum += kx[Math.abs(i)] * ky[Math.abs(j)] * p[mirror(y + j, h) * w + mirror(x + i, w)];
+		return sum;
+	}
+
+	static float[] image(int w, int h, long seed) {
+		Random r = new Random(seed);
+		float[] p = new float[w * h];
+		for (int i = 0; i < p.length; i++)
+			p[i] = 100 + r.nextInt(20);
+		for (int s = 0; s < 5; s++) {
+			int cx = r.nextInt(w), cy = r.nextInt(h);
+			for (int y = 0; y < h; y++)
+				for (int x = 0; x < w; x++)
+					p[y * w + x] += 1000 * Math.exp(-((x - cx) * (x - cx) + (y - cy) * (y - cy)) / 4.0);
+		}
+		return p;
+	}
+
+	void compare(DogFilter filter, float[] p, int w, int h, float threshold) {
+		double[][] s = filter.getSigmas();
+		double[] k1x = DogFilter.halfKernel(s[0][0]), k2x = DogFilter.halfKernel(s[1][0]);
+		double[] k1y = DogFilter.halfKernel(s[0][1]), k2y = DogFilter.halfKernel(s[1][1]);
+		int n = filter.detect(p, w, h, threshold);
+		float[] dog = filter.getDog();
+		float[] expected = new float[w * h];
+		for (int y = 0; y < h; y++)
+			for (int x = 0; x < w; x++) {
+				expected[y * w + x] = (float) (gauss(p, w, h, x, y, k1x, k1y) - gauss(p, w, h, x, y, k2x, k2y));
+				assertEquals(expected[y * w + x], dog[y * w + x], 1e-2);
+			}
+		int found = 0;
+		for (int y = 0; y < h; y++)
+			for (int x = 0; x < w; x++) {
+				float c = dog[y * w + x];
+				boolean max = c >= threshold;
+				for (int j = -1; j <= 1; j++)
+					for (int i = -1; i <= 1; i++)
+						max &= dog[mirror(y + j, h) * w + mirror(x + i, w)] <= c;
+				if (max) assertEquals(y * w + x, filter.getPeaks()[found++]);
+			}
+		assertEquals(found, n);
+	}
+
+	@Test
+	public void testDog() {
+		DogFilter filter = new DogFilter(3, new double[] { 1, 1 });
+		compare(filter, image(40, 30, 1), 40, 30, 10);
+		float[] dog = filter.getDog();
+		compare(filter, image(40, 30, 2), 40, 30, 10);
+		assertSame(dog, filter.getDog());
+		compare(filter, image(7, 5, 3), 7, 5, 0);
+		compare(new DogFilter(2, new double[] { 1, 0.5 }), image(33, 21, 4), 33, 21, 5);
+	}
+
+	@Test
+	public void testShorts() {
+		float[] p = image(40, 30, 5);
+		short[] s = new short[p.length];
+		for (int i = 0; i < p.length; i++) {
+			p[i] = Math.round(p[i]) + 40000;
+			s[i] = (short) p[i];
+		}
+		DogFilter a = new DogFilter(3, new double[] { 1, 1 }), b = new DogFilter(3, new double[] { 1, 1 });
+		assertEquals(a.detect(p, 40, 30, 10), b.detect(s, 40, 30, 10));
+		assertArrayEquals(a.getDog(), b.getDog(), 0);
+		assertTrue(a.getNumPeaks() > 0);
+	}
+
+	@Test
+	public void testSpot() {
+		float[] p = new float[50 * 50];
+		for (int y = 0; y < 50; y++)
+			for (int x = 0; x < 50; x++)
+				p[y * 50 + x] = (float) (500 * Math.exp(-((x - 20) * (x - 20) + (y - 31) * (y - 31)) / 8.0));
+		DogFilter filter = new DogFilter(3, new double[] { 1, 1 });
+		assertEquals(1, filter.detect(p, 50, 50, 1));
+		assertEquals(31 * 50 + 20, filter.getPeaks()[0]);
+	}
+}
@@ -0,0 +1,33 @@
+package org.lemming.tests;
+
+/**
+ * Times the FrameOperatorChain against the background subtraction and the detection as two processors connected by a
+ * Store, on the movie of the FrameOperatorChainTest. Not part of the unit tests, run with
+ * {@code java org.lemming.tests.FrameOperatorChainBenchmark [frames] [rounds]} on the test classpath.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class FrameOperatorChainBenchmark {
+
+	public static void main(String[] args) {
+		final int frames = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		float[][] movie = FrameOperatorChainTest.movie(frames, 3);
+		for (int warmup = 0; warmup < 3; warmup++) {
+			FrameOperatorChainTest.twoStage(movie);
+			FrameOperatorChainTest.chained(movie);
+		}
+		long twoStage = Long.MAX_VALUE, chained = Long.MAX_VALUE;
+		for (int i = 0; i < rounds; i++) {
+			long t0 = System.nanoTime();
+			FrameOperatorChainTest.twoStage(movie);
+			long t1 = System.nanoTime();
+			FrameOperatorChainTest.chained(movie);
+			long t2 = System.nanoTime();
+			twoStage = Math.min(twoStage, t1 - t0);
+			chained = Math.min(chained, t2 - t1);
+		}
+		System.out.println(String.format("%d frames, best of %d: two stages %.1f ms, chain %.1f ms, speedup %.2f", frames,
+				rounds, twoStage / 1e6, chained / 1e6, (double) twoStage / chained));
+	}
+}
@@ -0,0 +1,153 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Test;
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.data.QueueStore;
+import org.lemming.data.Scheduler;
+import org.lemming.interfaces.Localization;
+import org.lemming.processors.BackgroundSubstractor;
+import org.lemming.processors.FrameOperatorChain;
+import org.lemming.processors.MaxFilterPeakFinder;
+import org.lemming.processors.NMSFinder;
+
+/**
+ * Test class for the fused background subtraction and detection, compared with the pipeline of separate processors.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class FrameOperatorChainTest {
+
+	static final int SIZE = 128;
+
+	// spots on a tilted background with noise
+	static float[][] movie(int frames, long seed) {
+		Random r = new Random(seed);
+		float[][] movie = new float[frames][SIZE * SIZE];
+		for (int t = 0; t < frames; t++) {
+			float[] p = movie[t];
+			for (int y = 0; y < SIZE; y++)
+				for (int x = 0; x < SIZE; x++)
+					p[y * SIZE + x] = 300 + 2 * x + y + 5 * (float) r.nextGaussian();
+			for (int s = 0; s < 20; s++) {
+				double cx = 5 + r.nextDouble() * (SIZE - 10), cy = 5 + r.nextDouble() * (SIZE - 10);
+				for (int y = (int) cy - 4; y <= (int) cy + 4; y++)
+					for (int x = (int) cx - 4; x <= (int) cx + 4; x++)
+						p[y * SIZE + x] += 500 * Math.exp(-((x - cx) * (x - cx) + (y - cy) * (y - cy)) / 2.4);
+			}
+		}
+		return movie;
+	}
+
+	static ImgLib2Frame<FloatType> frame(long t, float[] p) {
+		return new ImgLib2Frame<FloatType>(t, SIZE, SIZE, ArrayImgs.floats(p.clone(), SIZE, SIZE));
+	}
+
+	static List<String> names(List<Localization> l) {
+		List<String> s = new ArrayList<String>();
+		for (Localization loc : l)
+			s.add(loc.getX() + "," + loc.getY());
+		return s;
+	}
+
+	static List<Localization> drain(QueueStore<Localization> store) {
+		store.close();
+		List<Localization> l = new ArrayList<Localization>();
+		while (!store.isEmpty())
+			l.add(store.get());
+		return l;
+	}
+
+	// background subtraction and detection as two processors connected by a Store
+	static List<Localization> twoStage(float[][] movie) {
+		BackgroundSubstractor<FloatType, ImgLib2Frame<FloatType>> bs = new BackgroundSubstractor<FloatType, ImgLib2Frame<FloatType>>(10, false, false);
+		bs.setBands(1);
+		QueueStore<ImgLib2Frame<FloatType>> frames = new QueueStore<ImgLib2Frame<FloatType>>();
+		bs.setOutput(frames);
+		MaxFilterPeakFinder<FloatType, ImgLib2Frame<FloatType>> finder = new MaxFilterPeakFinder<FloatType, ImgLib2Frame<FloatType>>(100, 3);
+		QueueStore<Localization> out = new QueueStore<Localization>();
+		finder.setOutput(out);
+		for (int t = 0; t < movie.length; t++) {
+			bs.process(frame(t, movie[t]));
+			finder.process(frames.get());
+		}
+		return drain(out);
+	}
+
+	static List<Localization> chained(float[][] movie) {
+		BackgroundSubstractor<FloatType, ImgLib2Frame<FloatType>> bs = new BackgroundSubstractor<FloatType, ImgLib2Frame<FloatType>>(10, false, false);
+		bs.setBands(1);
+		FrameOperatorChain<FloatType, ImgLib2Frame<FloatType>> chain = new FrameOperatorChain<FloatType, ImgLib2Frame<FloatType>>(
+				new MaxFilterPeakFinder<FloatType, ImgLib2Frame<FloatType>>(100, 3), bs);
+		QueueStore<Localization> out = new QueueStore<Localization>();
+		chain.setOutput(out);
+		for (int t = 0; t < movie.length; t++)
+			chain.process(frame(t, movie[t]));
+		return drain(out);
+	}
+
+	@Test
+	public void testSameAsTwoStages() {
+		float[][] movie = movie(5, 1);
+		List<Localization> expected = twoStage(movie);
+		assertTrue(expected.size() >= 5 * 15);
+		assertEquals(names(expected), names(chained(movie)));
+	}
+
+	@Test
+	public void testSmoothing() {
+		float[][] movie = movie(3, 2);
+		NMSFinder<FloatType, ImgLib2Frame<FloatType>> nms = new NMSFinder<FloatType, ImgLib2Frame<FloatType>>(100, 4);
+		FrameOperatorChain<FloatType, ImgLib2Frame<FloatType>> chain = new FrameOperatorChain<FloatType, ImgLib2Frame<FloatType>>(
+				nms, new BackgroundSubstractor<FloatType, ImgLib2Frame<FloatType>>(10, false, false), FrameOperatorChain.SMOOTH_3X3);
+		QueueStore<Localization> out = new QueueStore<Localization>();
+		chain.setOutput(out);
+		List<String> expected = new ArrayList<String>();
+		for (int t = 0; t < movie.length; t++) {
+			float[] p = movie[t].clone();
+			for (int i = 0; i < chain.getOperators().size(); i++)
+				chain.getOperators().get(i).apply(p, SIZE, SIZE);
+			expected.addAll(names(nms.detect(t, p, SIZE, SIZE)));
+			chain.process(frame(t, movie[t]));
+		}
+		assertEquals(expected, names(drain(out)));
+	}
+
+	@Test
+	public void testThreadsPerTask() {
+		// a detector run by the chain gets the share of a chain task, not a share of its own
+		final Set<Integer> threads = Collections.synchronizedSet(new HashSet<Integer>());
+		MaxFilterPeakFinder<FloatType, ImgLib2Frame<FloatType>> finder = new MaxFilterPeakFinder<FloatType, ImgLib2Frame<FloatType>>(100, 3) {
+			@Override
+			public List<Localization> detect(long frameNo, float[] pixels, int width, int height) {
+				threads.add(getThreadsPerTask());
+				return super.detect(frameNo, pixels, width, height);
+			}
+		};
+		FrameOperatorChain<FloatType, ImgLib2Frame<FloatType>> chain = new FrameOperatorChain<FloatType, ImgLib2Frame<FloatType>>(finder);
+		float[][] movie = movie(20, 4);
+		QueueStore<ImgLib2Frame<FloatType>> in = new QueueStore<ImgLib2Frame<FloatType>>();
+		for (int t = 0; t < movie.length; t++)
+			in.put(frame(t, movie[t]));
+		in.close();
+		chain.setInput(in);
+		chain.setOutput(new QueueStore<Localization>());
+		chain.setScheduler(new Scheduler(8));
+		chain.setNumThreads(8);
+		chain.run();
+
+		assertEquals(Collections.singleton(1), threads);
+		assertSame(chain.getScheduler(), finder.getScheduler());
+	}
+}
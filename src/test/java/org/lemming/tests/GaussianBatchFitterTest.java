@@ -0,0 +1,243 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.lemming.data.XYFwLocalization;
+import org.lemming.utils.Gaussian2DFunction;
+import org.lemming.utils.GaussianBatchFitter;
+
+/**
+ * Test class for the batched Levenberg-Marquardt fits of 2D Gaussians.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class GaussianBatchFitterTest {
+
+	static final int R = GaussianBatchFitter.RESULT_SIZE;
+
+	// the spots of Gaussian2DFunction at the given parameters on a frame, with Gaussian noise of the given sigma
+	static float[] frame(int width, int height, double[][] spots, double noise, long seed) {
+		double[][] x = new double[2][width * height];
+		for (int y = 0, i = 0; y < height; y++)
+			for (int xx = 0; xx < width; xx++, i++) {
+				x[0][i] = xx;
+				x[1][i] = y;
+			}
+		double[] sum = new double[width * height];
+		double[] y = new double[width * height];
+		Gaussian2DFunction f = new Gaussian2DFunction();
+		for (double[] p : spots) {
+			f.fcn(x, p, y);
+			for (int i = 0; i < sum.length; i++)
+				sum[i] += y[i];
+		}
+		Random r = new Random(seed);
+		float[] frame = new float[sum.length];
+		for (int i = 0; i < sum.length; i++)
+			frame[i] = (float) (sum[i] + noise * r.nextGaussian());
+		return frame;
+	}
+
+	static double[][] grid(int n, int spacing, double background, double intensity, double angle, double sigma, double aspect, long seed) {
+		Random r = new Random(seed);
+		double[][] spots = new double[n * n][];
+		for (int i = 0; i < n * n; i++) {
+			double x = spacing / 2 + (i % n) * spacing + r.nextDouble() - 0.5;
+			double y = spacing / 2 + (i / n) * spacing + r.nextDouble() - 0.5;
+			// the background is added once per spot by Gaussian2DFunction
+			spots[i] = new double[] { background / (n * n), x, y, intensity, angle, sigma, aspect };
+		}
+		return spots;
+	}
+
+	static int[][] centers(double[][] spots) {
+		int[][] c = new int[2][spots.length];
+		for (int i = 0; i < spots.length; i++) {
+			c[0][i] = (int) Math.round(spots[i][1]);
+			c[1][i] = (int) Math.round(spots[i][2]);
+		}
+		return c;
+	}
+
+	@Test
+	public void testSymmetric() {
+		double[][] spots = grid(6, 16, 100, 2000, 0, 1.3, 1, 1);
+		float[] frame = frame(96, 96, spots, 0, 1);
+		int[][] c = centers(spots);
+		GaussianBatchFitter fitter = new GaussianBatchFitter(1.0);
+		double[] results = new double[spots.length * R];
+		assertEquals(spots.length, fitter.fit(frame, 96, 96, c[0], c[1], spots.length, 5, results));
+		for (int i = 0; i < spots.length; i++) {
+			assertEquals(100, results[i * R], 1e-2);
+			assertEquals(spots[i][1], results[i * R + 1], 1e-4);
+			assertEquals(spots[i][2], results[i * R + 2], 1e-4);
+			assertEquals(2000, results[i * R + 3], 1e-1);
+			assertEquals(1.3, results[i * R + 5], 1e-4);
+			assertTrue(results[i * R + GaussianBatchFitter.CHI_SQUARE] < 1e-4);
+		}
+	}
+
+	@Test
+	public void testElliptical() {
+		double[][] spots = grid(4, 20, 50, 3000, 0.4, 1.2, 1.6, 2);
+		float[] frame = frame(80, 80, spots, 0, 2);
+		int[][] c = centers(spots);
+		GaussianBatchFitter fitter = new GaussianBatchFitter(1.5, GaussianBatchFitter.ELLIPTICAL, 100, 1e-9);
+		double[] results = new double[spots.length * R];
+		assertEquals(spots.length, fitter.fit(frame, 80, 80, c[0], c[1], spots.length, 7, results));
+		for (int i = 0; i < spots.length; i++) {
+			assertEquals(spots[i][1], results[i * R + 1], 1e-3);
+			assertEquals(spots[i][2], results[i * R + 2], 1e-3);
+			assertEquals(3000, results[i * R + 3], 1);
+			// the angle is defined up to a multiple of pi
+			double angle = results[i * R + 4] - Math.PI * Math.round((results[i * R + 4] - 0.4) / Math.PI);
+			assertEquals(0.4, angle, 1e-3);
+			assertEquals(1.2, results[i * R + 5], 1e-3);
+			assertEquals(1.6, results[i * R + 6], 1e-3);
+		}
+	}
+
+	@Test
+	public void testNoise() {
+		double[][] spots = grid(10, 12, 100, 1500, 0, 1.4, 1, 3);
+		float[] frame = frame(120, 120, spots, 10, 3);
+		int[][] c = centers(spots);
+		double[] results = new double[spots.length * R];
+		GaussianBatchFitter fitter = new GaussianBatchFitter(1.4, GaussianBatchFitter.FIXED_SIGMA, 50, 1e-6);
+		assertEquals(spots.length, fitter.fit(frame, 120, 120, c[0], c[1], spots.length, 4, results));
+		double err = 0, chi2 = 0;
+		for (int i = 0; i < spots.length; i++) {
+			assertEquals(1.4, results[i * R + 5], 0);
+			err += Math.pow(results[i * R + 1] - spots[i][1], 2) + Math.pow(results[i * R + 2] - spots[i][2], 2);
+			chi2 += results[i * R + GaussianBatchFitter.CHI_SQUARE];
+		}
+		assertTrue(Math.sqrt(err / spots.length) < 0.1);
+		assertEquals(100, chi2 / spots.length, 10); // the noise variance
+	}
+
+	static float[] poisson(float[] mean, long seed) {
+		Random r = new Random(seed);
+		float[] counts = new float[mean.length];
+		for (int i = 0; i < mean.length; i++) {
+			if (mean[i] > 100) { // normal approximation, exp(-mean) would underflow
+				counts[i] = Math.max(0, Math.round(mean[i] + Math.sqrt(mean[i]) * (float) r.nextGaussian()));
+				continue;
+			}
+			double l = Math.exp(-mean[i]), p = r.nextDouble();
+			int k = 0;
+			while (p > l) {
+				p *= r.nextDouble();
+				k++;
+			}
+			counts[i] = k;
+		}
+		return counts;
+	}
+
+	@Test
+	public void testPrecision() {
+		// the spread of the positions of many noisy fits should reach the Cramer-Rao lower bound
+		double[][] spots = grid(20, 12, 5, 500, 0, 1.3, 1, 6); // 5 photons background per pixel
+		float[] mean = frame(240, 240, spots, 0, 6);
+		int[][] c = centers(spots);
+		for (byte[] model : new byte[][] { GaussianBatchFitter.FIXED_SIGMA, GaussianBatchFitter.SYMMETRIC }) {
+			GaussianBatchFitter fitter = new GaussianBatchFitter(1.3, model, 50, 1e-6);
+			double[] results = new double[spots.length * R];
+			double err = 0, crlb = 0;
+			int n = 0;
+			for (int t = 0; t < 5; t++) {
+				fitter.fit(poisson(mean, 10 + t), 240, 240, c[0], c[1], spots.length, 4, results);
+				for (int i = 0; i < spots.length; i++) {
+					if (Double.isNaN(results[i * R + 1])) continue;
+					err += Math.pow(results[i * R + 1] - spots[i][1], 2);
+					crlb += Math.pow(results[i * R + GaussianBatchFitter.PRECISION_X], 2);
+					assertTrue("py " + results[i * R + GaussianBatchFitter.PRECISION_Y], results[i * R + GaussianBatchFitter.PRECISION_Y] > 0);
+					assertTrue(results[i * R + GaussianBatchFitter.PRECISION_INTENSITY] > 0);
+					n++;
+				}
+			}
+			assertTrue("fits " + n, n > 0.95 * 5 * spots.length);
+			double ratio = Math.sqrt(err / crlb);
+			// least squares is a little less efficient than the bound
+			assertTrue(ratio > 0.85 && ratio < 1.35);
+		}
+		// the gain scales the precision with its square root
+		GaussianBatchFitter fitter = new GaussianBatchFitter(1.3, GaussianBatchFitter.FIXED_SIGMA, 50, 1e-8);
+		double[] one = new double[spots.length * R], four = new double[spots.length * R];
+		fitter.fit(mean, 240, 240, c[0], c[1], spots.length, 4, one);
+		fitter.setGain(4);
+		fitter.fit(mean, 240, 240, c[0], c[1], spots.length, 4, four);
+		assertEquals(2 * one[GaussianBatchFitter.PRECISION_X], four[GaussianBatchFitter.PRECISION_X], 1e-9);
+	}
+
+	@Test
+	public void testWindows() {
+		double[][] spots = grid(5, 14, 80, 1000, 0, 1.5, 1, 4);
+		float[] frame = frame(70, 70, spots, 5, 4);
+		int[][] c = centers(spots);
+		List<XYFwLocalization> windows = new ArrayList<XYFwLocalization>();
+		float[] window = new float[81];
+		for (int i = 0; i < spots.length; i++) {
+			for (int y = 0; y < 9; y++)
+				for (int x = 0; x < 9; x++)
+					window[y * 9 + x] = frame[(c[1][i] - 4 + y) * 70 + c[0][i] - 4 + x];
+			windows.add(new XYFwLocalization(window, 1, c[0][i], c[1][i]));
+		}
+		GaussianBatchFitter fitter = new GaussianBatchFitter(1.5);
+		double[] fromWindows = new double[spots.length * R];
+		double[] fromFrame = new double[spots.length * R];
+		assertEquals(spots.length, fitter.fit(windows, fromWindows));
+		assertEquals(spots.length, fitter.fit(frame, 70, 70, c[0], c[1], spots.length, 4, fromFrame));
+		for (int i = 0; i < fromFrame.length; i++)
+			assertEquals(fromFrame[i], fromWindows[i], 0);
+		assertEquals(2 * spots.length, fitter.getFits());
+	}
+
+	@Test
+	public void testFailure() {
+		GaussianBatchFitter fitter = new GaussianBatchFitter(1.0);
+		double[] results = new double[R];
+		// a window at the corner clipped to 2x2 pixels has fewer pixels than parameters
+		assertEquals(0, fitter.fit(new float[100], 10, 10, new int[] { 0 }, new int[] { 0 }, 1, 1, results));
+		assertTrue(Double.isNaN(results[1]));
+		assertEquals(1, fitter.getFailures());
+	}
+
+	@Test
+	public void testConcurrentFits() throws Exception {
+		// one fitter shared by several threads gives the results of a single thread
+		final double[][] spots = grid(40, 12, 100, 1500, 0, 1.4, 1, 5);
+		final float[] frame = frame(480, 480, spots, 10, 5);
+		final int[][] c = centers(spots);
+		final GaussianBatchFitter fitter = new GaussianBatchFitter(1.4);
+		final double[] expected = new double[spots.length * R];
+		assertEquals(spots.length, fitter.fit(frame, 480, 480, c[0], c[1], spots.length, 4, expected));
+
+		final int threads = 4;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+		for (int t = 0; t < threads; t++)
+			futures.add(pool.submit(new Callable<double[]>() {
+				@Override
+				public double[] call() {
+					double[] own = new double[spots.length * R];
+					for (int i = 0; i < 5; i++)
+						fitter.fit(frame, 480, 480, c[0], c[1], spots.length, 4, own);
+					return own;
+				}
+			}));
+		for (Future<double[]> f : futures)
+			assertArrayEquals(expected, f.get(), 0);
+		pool.shutdown();
+		assertEquals((1 + threads * 5) * spots.length, fitter.getFits());
+	}
+}
@@ -0,0 +1,103 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lemming.data.MPMCStore;
+
+/**
+ * Test class for the multi-producer/multi-consumer Store.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class MPMCStoreTest {
+
+	MPMCStore<Integer> q;
+
+	@Before
+	public void setUp() throws Exception {
+		q = new MPMCStore<>(16);
+	}
+
+	@Test
+	public void testFIFO() {
+		q.put(1);
+		q.put(2);
+
+		assertEquals((Integer) 1, q.get());
+		assertEquals((Integer) 2, q.get());
+		assertNull(q.poll());
+	}
+
+	@Test
+	public void testFull() {
+		for (int i = 0; i < 16; i++)
+			assertTrue(q.offer(i));
+		assertFalse(q.offer(16));
+		assertEquals((Integer) 0, q.poll());
+		assertTrue(q.offer(16));
+	}
+
+	@Test
+	public void testManyProducersManyConsumers() throws InterruptedException {
+		final int producers = 4, consumers = 4, n = 20000;
+		final AtomicLong sum = new AtomicLong();
+		Thread[] threads = new Thread[producers + consumers];
+		for (int p = 0; p < producers; p++) {
+			threads[p] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 1; i <= n; i++)
+						q.put(i);
+				}
+			};
+		}
+		for (int c = 0; c < consumers; c++) {
+			threads[producers + c] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < n; i++)
+						sum.addAndGet(q.get());
+				}
+			};
+		}
+		for (Thread t : threads) t.start();
+		for (Thread t : threads) t.join();
+
+		assertEquals((long) producers * n * (n + 1) / 2, sum.get());
+		assertTrue(q.isEmpty());
+	}
+
+	@Test
+	public void testInterruptedPut() throws InterruptedException {
+		for (int i = 0; i < 16; i++)
+			q.put(i);
+
+		final AtomicBoolean interrupted = new AtomicBoolean();
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				q.putAll(Arrays.asList(100, 101));
+				interrupted.set(Thread.currentThread().isInterrupted());
+			}
+		};
+		producer.start();
+		Thread.sleep(100);
+		producer.interrupt();
+		Thread.sleep(100);
+		assertTrue(producer.isAlive()); // still waiting for space
+
+		for (int i = 0; i < 16; i++)
+			assertEquals((Integer) i, q.get());
+		producer.join(1000);
+		assertFalse(producer.isAlive());
+		assertTrue(interrupted.get());
+		assertEquals((Integer) 100, q.get()); // neither element is discarded
+		assertEquals((Integer) 101, q.get());
+	}
+}
@@ -0,0 +1,167 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.data.QueueStore;
+import org.lemming.data.Scheduler;
+import org.lemming.interfaces.Localization;
+import org.lemming.processors.MaxFilterPeakFinder;
+import org.lemming.processors.PeakFinder;
+import org.lemming.processors.SingleInputSingleOutput;
+import org.lemming.processors.Tiles;
+import org.lemming.utils.MaxFilter;
+
+/**
+ * Test class for the separable max filter, the peak finder based on it and its tiling.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class MaxFilterTest {
+
+	static float[] random(int n, long seed) {
+		Random r = new Random(seed);
+		float[] p = new float[n];
+		for (int i = 0; i < n; i++)
+			p[i] = r.nextFloat() * 1000;
+		return p;
+	}
+
+	static float bruteForce(float[] p, int w, int h, int x, int y, int radius) {
+		float max = Float.NEGATIVE_INFINITY;
+		for (int yy = Math.max(0, y - radius); yy <= Math.min(h - 1, y + radius); yy++)
+			for (int xx = Math.max(0, x - radius); xx <= Math.min(w - 1, x + radius); xx++)
+				max = Math.max(max, p[yy * w + xx]);
+		return max;
+	}
+
+	@Test
+	public void testFilter() {
+		int[][] sizes = { { 1, 1 }, { 7, 5 }, { 20, 13 }, { 64, 64 } };
+		for (int[] s : sizes) {
+			int w = s[0], h = s[1];
+			float[] p = random(w * h, w);
+			for (int radius = 0; radius <= 9; radius++) {
+				float[] out = new float[w * h];
+				MaxFilter.filter(p, out, new float[w * h], w, h, radius);
+				for (int y = 0; y < h; y++)
+					for (int x = 0; x < w; x++)
+						assertEquals(w + "x" + h + " r=" + radius, bruteForce(p, w, h, x, y, radius), out[y * w + x], 0);
+			}
+		}
+	}
+
+	static List<String> detect(SingleInputSingleOutput<ImgLib2Frame<FloatType>, Localization> detector,
+			RandomAccessibleInterval<FloatType> img, int border) {
+		QueueStore<Localization> out = new QueueStore<Localization>();
+		detector.setOutput(out);
+		detector.process(new ImgLib2Frame<FloatType>(0, (int) img.dimension(0), (int) img.dimension(1), img));
+		out.close();
+		List<String> found = new ArrayList<String>();
+		Localization l;
+		while ((l = out.get()) != null)
+			if (l.getX() >= border && l.getY() >= border && l.getX() < img.dimension(0) - border && l.getY() < img.dimension(1) - border)
+				found.add(l.getX() + "," + l.getY());
+		return found;
+	}
+
+	@Test
+	public void testPeakFinder() {
+		float[] p = random(256 * 256, 3);
+		RandomAccessibleInterval<FloatType> img = ArrayImgs.floats(p, 256, 256);
+		for (int size = 1; size <= 7; size += 3) {
+			List<String> expected = detect(new PeakFinder<FloatType, ImgLib2Frame<FloatType>>(500, size), img, size);
+			List<String> found = detect(new MaxFilterPeakFinder<FloatType, ImgLib2Frame<FloatType>>(500, size), img, size);
+			assertFalse(expected.isEmpty());
+			assertEquals(expected, found);
+			assertEquals(found, detect(new MaxFilterPeakFinder<FloatType, ImgLib2Frame<FloatType>>(500, size), Views.interval(img, img), size));
+		}
+	}
+
+	@Test
+	public void testTiles() {
+		Tiles tiles = new Tiles(100, 70, 32, 3);
+		assertEquals(4 * 3, tiles.getTiles().size());
+		int[] owners = new int[100 * 70];
+		for (Tiles.Tile t : tiles.getTiles()) {
+			assertEquals(Math.max(0, t.x0 - 3), t.haloX0);
+			assertEquals(Math.min(70, t.y1 + 3), t.haloY1);
+			for (int y = 0; y < 70; y++)
+				for (int x = 0; x < 100; x++)
+					if (t.inCore(x, y)) owners[y * 100 + x]++;
+		}
+		for (int o : owners)
+			assertEquals(1, o);
+	}
+
+	@Test
+	public void testTiledPeakFinder() {
+		float[] p = random(300 * 200, 4);
+		// a plateau across a tile border is reported once per pixel
+		for (int x = 62; x < 66; x++)
+			p[100 * 300 + x] = 2000;
+		RandomAccessibleInterval<FloatType> img = ArrayImgs.floats(p, 300, 200);
+		List<String> whole = detect(new MaxFilterPeakFinder<FloatType, ImgLib2Frame<FloatType>>(500, 3), img, 0);
+		for (int tileSize : new int[] { 1, 16, 64, 250 }) {
+			MaxFilterPeakFinder<FloatType, ImgLib2Frame<FloatType>> tiled = new MaxFilterPeakFinder<FloatType, ImgLib2Frame<FloatType>>(500, 3);
+			tiled.setScheduler(new Scheduler(4));
+			tiled.setTileSize(tileSize);
+			List<String> found = detect(tiled, img, 0);
+			assertEquals(whole.size(), found.size());
+			assertEquals(new HashSet<String>(whole), new HashSet<String>(found));
+		}
+		assertTrue(whole.contains("64.0,100.0"));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testTileFailure() throws InterruptedException {
+		new Tiles(10, 10, 2, 0).run(new Scheduler(2), 2, new Tiles.Task<Void>() {
+			@Override
+			public Void process(Tiles.Tile tile) throws Exception {
+				if (tile.x0 == 4 && tile.y0 == 6) throw new Exception("failed");
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testTileInterrupt() {
+		final Thread caller = Thread.currentThread();
+		final CountDownLatch helperStarted = new CountDownLatch(1);
+		final AtomicBoolean helperDone = new AtomicBoolean();
+		try {
+			new Tiles(10, 10, 10, 5, 0).run(new Scheduler(2), 2, new Tiles.Task<Void>() {
+				@Override
+				public Void process(Tiles.Tile tile) throws Exception {
+					if (Thread.currentThread() == caller) {
+						helperStarted.await(5, TimeUnit.SECONDS);
+						caller.interrupt();
+					} else {
+						helperStarted.countDown();
+						Thread.sleep(200);
+						helperDone.set(true);
+					}
+					return null;
+				}
+			});
+			fail("interrupt not passed on");
+		} catch (InterruptedException e) {
+			// the caller returns only after the helper finished its tile
+			assertTrue(helperDone.get());
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.junit.Test;
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.data.QueueStore;
+import org.lemming.data.Scheduler;
+import org.lemming.inputs.ParallelFrameSource;
+import org.lemming.interfaces.FrameReader;
+
+/**
+ * Test class for reading several files and ranges with parallel reader threads.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class ParallelFrameSourceTest {
+
+	/** a file of n frames, the first pixel of a frame holds its index in the file */
+	static class FakeReader implements FrameReader<UnsignedShortType> {
+		final int n;
+		boolean closed;
+
+		FakeReader(int n) {
+			this.n = n;
+		}
+
+		@Override
+		public long getNumberOfFrames() {
+			return n;
+		}
+
+		@Override
+		public ImgLib2Frame<UnsignedShortType> readFrame(long index, long frameNo) throws IOException {
+			if (index >= n) throw new IOException("no frame " + index);
+			short[] pixels = new short[4];
+			pixels[0] = (short) index;
+			return new ImgLib2Frame<UnsignedShortType>(frameNo, 2, 2, ArrayImgs.unsignedShorts(pixels, 2, 2));
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	static short firstPixel(ImgLib2Frame<UnsignedShortType> f) {
+		return ((short[]) ((ArrayDataAccess) ((ArrayImg) f.getPixels()).update(null)).getCurrentStorageArray())[0];
+	}
+
+	@Test
+	public void testFilesAndRanges() throws IOException {
+		FakeReader a = new FakeReader(5), b = new FakeReader(7);
+		FakeReader c1 = new FakeReader(10), c2 = new FakeReader(10), c3 = new FakeReader(10);
+
+		ParallelFrameSource<UnsignedShortType> source = new ParallelFrameSource<UnsignedShortType>(3);
+		source.addFile(a);
+		source.addFile(b);
+		source.addFile(Arrays.asList(c1, c2, c3));
+		assertEquals(22, source.getNumberOfFrames());
+
+		QueueStore<ImgLib2Frame<UnsignedShortType>> frames = new QueueStore<>();
+		source.setOutput(frames);
+		source.run();
+
+		assertTrue(frames.isClosed());
+		assertEquals(22, frames.getLength());
+		Set<Long> numbers = new HashSet<Long>();
+		ImgLib2Frame<UnsignedShortType> f;
+		while ((f = frames.get()) != null) {
+			long no = f.getFrameNumber();
+			assertTrue(numbers.add(no));
+			long local = no < 5 ? no : no < 12 ? no - 5 : no - 12;
+			assertEquals(local, firstPixel(f));
+			assertFalse(f.isLast()); // the closed store ends the movie, frames arrive in read order
+		}
+		assertEquals(22, numbers.size());
+		assertTrue(a.closed && b.closed && c1.closed && c2.closed && c3.closed);
+		assertEquals(22, source.getMetrics().getElementsOut());
+	}
+
+	@Test
+	public void testPreserveOrder() throws Exception {
+		ParallelFrameSource<UnsignedShortType> source = new ParallelFrameSource<UnsignedShortType>(4);
+		List<FakeReader> readers = new ArrayList<FakeReader>();
+		for (int i = 0; i < 4; i++)
+			readers.add(new FakeReader(2000) {
+				final Random r = new Random(n + readers.size());
+
+				@Override
+				public ImgLib2Frame<UnsignedShortType> readFrame(long index, long frameNo) throws IOException {
+					if (r.nextInt(50) == 0) {
+						try {
+							Thread.sleep(1); // a slow read lets the other readers get ahead
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+					return super.readFrame(index, frameNo);
+				}
+			});
+		source.addFile(readers);
+		source.addFile(new FakeReader(10));
+		assertEquals(4 * ParallelFrameSource.DEFAULT_CHUNK_SIZE, source.getMaxLateness());
+
+		QueueStore<ImgLib2Frame<UnsignedShortType>> frames = new QueueStore<>();
+		QueueStore<Long> numbers = new QueueStore<>();
+		source.setOutput(frames);
+		SingleInputSingleOutputTest.FrameNumbers p = new SingleInputSingleOutputTest.FrameNumbers();
+		p.setInput(frames);
+		p.setOutput(numbers);
+		p.setScheduler(new Scheduler(4));
+		p.setNumThreads(4);
+		p.setPreserveOrder((int) source.getMaxLateness());
+		Thread reading = new Thread(source);
+		reading.start();
+		p.run();
+		reading.join();
+
+		assertEquals(2010, numbers.getLength());
+		for (long i = 0; i < 2010; i++)
+			assertEquals((Long) i, numbers.get());
+	}
+
+	@Test
+	public void testFailure() throws IOException {
+		ParallelFrameSource<UnsignedShortType> source = new ParallelFrameSource<UnsignedShortType>(2);
+		source.addFile(new FakeReader(3) {
+			@Override
+			public long getNumberOfFrames() {
+				return 4;
+			}
+		});
+		QueueStore<ImgLib2Frame<UnsignedShortType>> frames = new QueueStore<>();
+		source.setOutput(frames);
+		try {
+			source.run();
+			fail("read error not passed on");
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertTrue(frames.isClosed());
+		assertEquals(3, frames.getLength());
+	}
+}
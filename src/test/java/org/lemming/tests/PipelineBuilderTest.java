@@ -0,0 +1,144 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.junit.Test;
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.data.MPMCStore;
+import org.lemming.data.Pipeline;
+import org.lemming.data.PipelineBuilder;
+import org.lemming.inputs.ParallelFrameSource;
+import org.lemming.inputs.RandomLocalizer;
+import org.lemming.interfaces.Localization;
+import org.lemming.interfaces.Store;
+import org.lemming.outputs.SingleInput;
+import org.lemming.processors.ROISelectProcessor;
+
+/**
+ * Test class for building a Pipeline from a graph of modules.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class PipelineBuilderTest {
+
+	@Test
+	public void testFanOut() {
+		RandomLocalizer rl = new RandomLocalizer(10000, 256, 256);
+		ROISelectProcessor roi = new ROISelectProcessor(0, 256, 0, 256);
+		roi.setNumThreads(2);
+		CountingWell<Localization> w1 = new CountingWell<Localization>();
+		CountingWell<Localization> w2 = new CountingWell<Localization>();
+
+		new PipelineBuilder()
+			.connect(rl, roi)
+			.connect(roi, w1)
+			.connect(roi, w2)
+			.build()
+			.run();
+
+		assertEquals(10000, w1.getCount());
+		assertEquals(10000, w2.getCount());
+	}
+
+	@Test
+	public void testFanIn() {
+		RandomLocalizer rl1 = new RandomLocalizer(1000, 256, 256);
+		RandomLocalizer rl2 = new RandomLocalizer(2000, 256, 256);
+		CountingWell<Localization> w = new CountingWell<Localization>();
+
+		new PipelineBuilder()
+			.connect(rl1, w)
+			.connect(rl2, w)
+			.build()
+			.run();
+
+		assertEquals(3000, w.getCount());
+	}
+
+	@Test
+	public void testParallelSource() throws IOException {
+		ParallelFrameSource<UnsignedShortType> source = new ParallelFrameSource<UnsignedShortType>(4);
+		for (int i = 0; i < 4; i++)
+			source.addFile(new ParallelFrameSourceTest.FakeReader(2000));
+		final Set<Long> numbers = Collections.synchronizedSet(new HashSet<Long>());
+		final Object[] wired = new Object[1];
+		SingleInput<ImgLib2Frame<UnsignedShortType>> w = new SingleInput<ImgLib2Frame<UnsignedShortType>>() {
+			@Override
+			public void setInput(Store<ImgLib2Frame<UnsignedShortType>> s) {
+				super.setInput(s);
+				wired[0] = s;
+			}
+
+			@Override
+			public void process(ImgLib2Frame<UnsignedShortType> element) {
+				assertTrue(numbers.add(element.getFrameNumber()));
+			}
+		};
+
+		new PipelineBuilder()
+			.connect(source, w)
+			.build()
+			.run();
+
+		// four reader threads put into the store of the well
+		assertEquals(4, source.getNumThreads());
+		assertTrue(wired[0] instanceof MPMCStore);
+		assertEquals(8000, numbers.size());
+	}
+
+	@Test
+	public void testThreadsAfterBuild() {
+		RandomLocalizer rl = new RandomLocalizer(100, 256, 256);
+		ROISelectProcessor roi = new ROISelectProcessor(0, 256, 0, 256);
+		roi.setNumThreads(1);
+		CountingWell<Localization> w = new CountingWell<Localization>();
+		Pipeline pipe = new PipelineBuilder().connect(rl, roi).connect(roi, w).build();
+
+		roi.setNumThreads(4);
+		try {
+			pipe.run();
+			fail("ran with 4 threads on an SPSCStore");
+		} catch (IllegalStateException e) {
+			assertEquals(0, w.getCount());
+		}
+
+		roi.setNumThreads(1);
+		pipe.run();
+		assertEquals(100, w.getCount());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCycle() {
+		RandomLocalizer rl = new RandomLocalizer(10, 256, 256);
+		ROISelectProcessor a = new ROISelectProcessor(0, 256, 0, 256);
+		ROISelectProcessor b = new ROISelectProcessor(0, 256, 0, 256);
+		CountingWell<Localization> w = new CountingWell<Localization>();
+
+		new PipelineBuilder()
+			.connect(rl, a)
+			.connect(a, b)
+			.connect(b, a)
+			.connect(b, w)
+			.validate();
+	}
+
+	@Test
+	public void testUnconnectedOutput() {
+		RandomLocalizer rl = new RandomLocalizer(10, 256, 256);
+		ROISelectProcessor roi = new ROISelectProcessor(0, 256, 0, 256);
+
+		try {
+			new PipelineBuilder().connect(rl, roi).build();
+			fail("A processor without output must be rejected");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getMessage().contains("no output"));
+		}
+	}
+}
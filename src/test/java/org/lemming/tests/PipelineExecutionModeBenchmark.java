@@ -0,0 +1,116 @@
+package org.lemming.tests;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.data.Pipeline;
+import org.lemming.data.Pipeline.ExecutionMode;
+import org.lemming.data.QueueStore;
+import org.lemming.data.Scheduler;
+import org.lemming.dummy.DummyFrameProducer;
+import org.lemming.dummy.DummyLocalizer;
+import org.lemming.inputs.RandomLocalizer;
+import org.lemming.interfaces.Localization;
+import org.lemming.interfaces.Store;
+import org.lemming.processors.ROISelectProcessor;
+import org.lemming.processors.StoreSplitter;
+
+/**
+ * Times the platform and the virtual thread execution modes of the Pipeline on the RandomLocalizer pipeline split into one
+ * ROISelectProcessor per tile, and on the DummyFrameProducer/DummyLocalizer pipeline. Not part of the unit tests, run
+ * with {@code java org.lemming.tests.PipelineExecutionModeBenchmark [rounds]} on the test classpath.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class PipelineExecutionModeBenchmark {
+
+	static final int N = 50000;
+	static final int TILES = 8; // per dimension, 64 stages
+
+	static long runTiles(ExecutionMode mode) {
+		Pipeline pipe = new Pipeline();
+		pipe.setExecutionMode(mode);
+		AtomicLong count = new AtomicLong();
+
+		Store<Localization> localizations = new QueueStore<Localization>();
+		RandomLocalizer rl = new RandomLocalizer(N, 256, 256);
+		rl.setOutput(localizations);
+		pipe.add(rl);
+
+		StoreSplitter<Localization> splitter = new StoreSplitter<Localization>();
+		splitter.setInput(localizations);
+		pipe.add(splitter);
+
+		int size = 256 / TILES;
+		for (int i = 0; i < TILES; i++) {
+			for (int j = 0; j < TILES; j++) {
+				Store<Localization> tileIn = new QueueStore<Localization>();
+				Store<Localization> tileOut = new QueueStore<Localization>();
+				splitter.addOutput(tileIn);
+
+				ROISelectProcessor roi = new ROISelectProcessor(i * size, size, j * size, size);
+				roi.setInput(tileIn);
+				roi.setOutput(tileOut);
+				pipe.add(roi, 2);
+
+				CountingWell<Localization> counter = new CountingWell<Localization>(count);
+				counter.setInput(tileOut);
+				pipe.add(counter);
+			}
+		}
+
+		long start = System.nanoTime();
+		pipe.run();
+		long elapsed = System.nanoTime() - start;
+		if (count.get() != N)
+			throw new IllegalStateException(mode + ": " + count.get() + " of " + N + " localizations");
+		return elapsed;
+	}
+
+	static long runFrames(ExecutionMode mode) {
+		Pipeline pipe = new Pipeline();
+		pipe.setExecutionMode(mode);
+		AtomicLong count = new AtomicLong();
+
+		QueueStore<ImgLib2Frame<UnsignedShortType>> frames = new QueueStore<ImgLib2Frame<UnsignedShortType>>();
+		QueueStore<Localization> localizations = new QueueStore<Localization>();
+
+		DummyFrameProducer producer = new DummyFrameProducer();
+		producer.setOutput(frames);
+		pipe.add(producer);
+
+		DummyLocalizer<UnsignedShortType, ImgLib2Frame<UnsignedShortType>> localizer = new DummyLocalizer<>();
+		localizer.setInput(frames);
+		localizer.setOutput(localizations);
+		pipe.add(localizer);
+
+		CountingWell<Localization> counter = new CountingWell<Localization>(count);
+		counter.setInput(localizations);
+		pipe.add(counter);
+
+		long start = System.nanoTime();
+		pipe.run();
+		return System.nanoTime() - start;
+	}
+
+	public static void main(String[] args) {
+		final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		if (Scheduler.virtualThreadFactory() == null)
+			System.out.println("No virtual threads on this Java version, both modes run on platform threads");
+		for (ExecutionMode mode : ExecutionMode.values()) { // warm up
+			runTiles(mode);
+			runFrames(mode);
+		}
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			long tiles = Long.MAX_VALUE, frames = Long.MAX_VALUE;
+			for (int r = 0; r < rounds; r++) {
+				tiles = Math.min(tiles, runTiles(mode));
+				frames = Math.min(frames, runFrames(mode));
+			}
+			System.out.println(String.format("%-8s tiles: %6.1f ms, frames: %6.1f ms (best of %d)", mode, tiles / 1e6,
+					frames / 1e6, rounds));
+		}
+	}
+}
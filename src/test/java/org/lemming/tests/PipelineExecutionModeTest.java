@@ -0,0 +1,126 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.junit.Test;
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.data.Pipeline;
+import org.lemming.data.Pipeline.ExecutionMode;
+import org.lemming.data.QueueStore;
+import org.lemming.data.Scheduler;
+import org.lemming.data.XYLocalization;
+import org.lemming.dummy.DummyFrameProducer;
+import org.lemming.dummy.DummyLocalizer;
+import org.lemming.interfaces.Localization;
+import org.lemming.interfaces.Store;
+import org.lemming.processors.ROISelectProcessor;
+import org.lemming.processors.StoreSplitter;
+
+/**
+ * Checks that the platform and the virtual thread execution modes of the Pipeline give the same results. The
+ * localizations are split into one ROISelectProcessor per tile to get many fine-grained stages.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class PipelineExecutionModeTest {
+
+	static final int N = 50000;
+	static final int TILES = 8; // per dimension, 64 stages
+
+	// the number of localizations in each tile
+	long[] runTiles(ExecutionMode mode) {
+		Pipeline pipe = new Pipeline();
+		pipe.setExecutionMode(mode);
+
+		Store<Localization> localizations = new QueueStore<Localization>();
+		Random r = new Random(1);
+		for (int i = 0; i < N; i++)
+			localizations.put(new XYLocalization(256 * r.nextDouble(), 256 * r.nextDouble()));
+		localizations.close();
+
+		StoreSplitter<Localization> splitter = new StoreSplitter<Localization>();
+		splitter.setInput(localizations);
+		pipe.add(splitter);
+
+		int size = 256 / TILES;
+		AtomicLong[] counts = new AtomicLong[TILES * TILES];
+		for (int i = 0; i < TILES; i++) {
+			for (int j = 0; j < TILES; j++) {
+				Store<Localization> tileIn = new QueueStore<Localization>();
+				Store<Localization> tileOut = new QueueStore<Localization>();
+				splitter.addOutput(tileIn);
+
+				ROISelectProcessor roi = new ROISelectProcessor(i * size, size, j * size, size);
+				roi.setInput(tileIn);
+				roi.setOutput(tileOut);
+				pipe.add(roi, 2);
+
+				counts[i * TILES + j] = new AtomicLong();
+				CountingWell<Localization> counter = new CountingWell<Localization>(counts[i * TILES + j]);
+				counter.setInput(tileOut);
+				pipe.add(counter);
+			}
+		}
+		pipe.run();
+		if (Scheduler.virtualThreadFactory() != null)
+			assertEquals(mode, pipe.getExecutionMode());
+
+		long[] result = new long[counts.length];
+		for (int i = 0; i < counts.length; i++)
+			result[i] = counts[i].get();
+		return result;
+	}
+
+	long runFrames(ExecutionMode mode) {
+		Pipeline pipe = new Pipeline();
+		pipe.setExecutionMode(mode);
+		AtomicLong count = new AtomicLong();
+
+		QueueStore<ImgLib2Frame<UnsignedShortType>> frames = new QueueStore<ImgLib2Frame<UnsignedShortType>>();
+		QueueStore<Localization> localizations = new QueueStore<Localization>();
+
+		DummyFrameProducer producer = new DummyFrameProducer();
+		producer.setOutput(frames);
+		pipe.add(producer);
+
+		DummyLocalizer<UnsignedShortType, ImgLib2Frame<UnsignedShortType>> localizer = new DummyLocalizer<>();
+		localizer.setInput(frames);
+		localizer.setOutput(localizations);
+		pipe.add(localizer);
+
+		CountingWell<Localization> counter = new CountingWell<Localization>(count);
+		counter.setInput(localizations);
+		pipe.add(counter);
+
+		pipe.run();
+		return count.get();
+	}
+
+	@Test
+	public void testTiles() {
+		long[] platform = runTiles(ExecutionMode.PLATFORM);
+		long sum = 0;
+		for (long c : platform)
+			sum += c;
+		assertEquals(N, sum);
+		assertArrayEquals(platform, runTiles(ExecutionMode.VIRTUAL));
+	}
+
+	@Test
+	public void testFrames() {
+		assertEquals(200, runFrames(ExecutionMode.PLATFORM));
+		assertEquals(200, runFrames(ExecutionMode.VIRTUAL));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testModeAfterModules() {
+		Pipeline pipe = new Pipeline();
+		pipe.add(new CountingWell<Localization>());
+		pipe.setExecutionMode(ExecutionMode.VIRTUAL);
+	}
+}
@@ -0,0 +1,82 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.lemming.data.LatencyHistogram;
+import org.lemming.data.Pipeline;
+import org.lemming.data.PipelineBuilder;
+import org.lemming.data.PipelineMetrics;
+import org.lemming.data.StageMetrics;
+import org.lemming.inputs.RandomLocalizer;
+import org.lemming.interfaces.Localization;
+import org.lemming.processors.ROISelectProcessor;
+
+/**
+ * Test class for the metrics of the modules of a Pipeline.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class PipelineMetricsTest {
+
+	@Test
+	public void testHistogramPercentiles() {
+		LatencyHistogram h = new LatencyHistogram();
+		for (int i = 1; i <= 100000; i++)
+			h.record(i * 1000L);
+
+		assertEquals(100000, h.getCount());
+		assertEquals(50000500, h.getMean(), 1);
+		assertEquals(100000000, h.getMax());
+		assertEquals(50000000, h.getValueAtPercentile(50), 50000000 * 0.04);
+		assertEquals(99000000, h.getValueAtPercentile(99), 99000000 * 0.04);
+		assertEquals(100000000, h.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testHistogramSmallValues() {
+		LatencyHistogram h = new LatencyHistogram();
+		for (int i = 0; i < 32; i++)
+			h.record(i);
+
+		assertEquals(15, h.getValueAtPercentile(50));
+		assertEquals(31, h.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testStageCounts() throws Exception {
+		RandomLocalizer rl = new RandomLocalizer(5000, 256, 256);
+		ROISelectProcessor roi = new ROISelectProcessor(0, 128, 0, 256);
+		CountingWell<Localization> w = new CountingWell<Localization>();
+
+		Pipeline pipe = new PipelineBuilder().connect(rl, roi).connect(roi, w).build();
+		PipelineMetrics metrics = pipe.getMetrics();
+		assertEquals(3, metrics.getStages().size());
+		pipe.run();
+
+		StageMetrics source = rl.getMetrics();
+		StageMetrics filter = roi.getMetrics();
+		StageMetrics well = w.getMetrics();
+		assertEquals(5000, source.getElementsOut());
+		assertEquals(5000, filter.getElementsIn());
+		assertEquals(w.getCount(), filter.getElementsOut());
+		assertEquals(w.getCount(), well.getElementsIn());
+		assertEquals(5000, filter.getLatency().getCount());
+		assertFalse(filter.isRunning());
+		assertTrue(filter.getInputRate() > 0);
+		assertEquals(3, metrics.snapshot().split("\n").length);
+
+		metrics.registerMBeans("org.lemming.test");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("org.lemming.test:type=Stage,name=" + ObjectName.quote("1-ROISelectProcessor"));
+		assertEquals(5000L, server.getAttribute(name, "ElementsIn"));
+		metrics.unregisterMBeans();
+		assertFalse(server.isRegistered(name));
+	}
+
+}
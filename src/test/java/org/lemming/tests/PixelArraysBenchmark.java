@@ -0,0 +1,73 @@
+package org.lemming.tests;
+
+import java.util.List;
+
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.interfaces.Localization;
+import org.lemming.processors.NMSFinder;
+import org.lemming.processors.PeakFinder;
+import org.lemming.processors.SingleInputSingleOutput;
+
+/**
+ * Times the NMSFinder and the PeakFinder on the movie of the PixelArraysTest, on frames of FloatType searched on their
+ * float[], on frames of UnsignedShortType converted from their short[] and on views copied through a cursor. Not part of
+ * the unit tests, run with {@code java org.lemming.tests.PixelArraysBenchmark [rounds]} on the test classpath.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class PixelArraysBenchmark {
+
+	interface Detector<T extends RealType<T>> {
+		SingleInputSingleOutput<ImgLib2Frame<T>, Localization> create();
+	}
+
+	static <T extends RealType<T>> double time(Detector<T> detector, List<ImgLib2Frame<T>> frames, int rounds) {
+		for (int i = 0; i < 3; i++) // warm up
+			PixelArraysTest.detect(detector.create(), frames);
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < rounds; i++) {
+			long t = System.nanoTime();
+			PixelArraysTest.detect(detector.create(), frames);
+			best = Math.min(best, System.nanoTime() - t);
+		}
+		return best / 1e6 / frames.size();
+	}
+
+	static void report(String name, Detector<UnsignedShortType> shorts, Detector<FloatType> floats, int rounds) {
+		float[] movie = PixelArraysTest.movie(1);
+		System.out.println(String.format("%-10s float[] %.3f ms, short[] %.3f ms, view %.3f ms per frame", name,
+				time(floats, PixelArraysTest.floatFrames(movie, false), rounds),
+				time(shorts, PixelArraysTest.shortFrames(movie, false), rounds),
+				time(shorts, PixelArraysTest.shortFrames(movie, true), rounds)));
+	}
+
+	public static void main(String[] args) {
+		final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		report("NMSFinder", new Detector<UnsignedShortType>() {
+			@Override
+			public SingleInputSingleOutput<ImgLib2Frame<UnsignedShortType>, Localization> create() {
+				return new NMSFinder<UnsignedShortType, ImgLib2Frame<UnsignedShortType>>(33000, 4);
+			}
+		}, new Detector<FloatType>() {
+			@Override
+			public SingleInputSingleOutput<ImgLib2Frame<FloatType>, Localization> create() {
+				return new NMSFinder<FloatType, ImgLib2Frame<FloatType>>(33000, 4);
+			}
+		}, rounds);
+		report("PeakFinder", new Detector<UnsignedShortType>() {
+			@Override
+			public SingleInputSingleOutput<ImgLib2Frame<UnsignedShortType>, Localization> create() {
+				return new PeakFinder<UnsignedShortType, ImgLib2Frame<UnsignedShortType>>(33000, 3);
+			}
+		}, new Detector<FloatType>() {
+			@Override
+			public SingleInputSingleOutput<ImgLib2Frame<FloatType>, Localization> create() {
+				return new PeakFinder<FloatType, ImgLib2Frame<FloatType>>(33000, 3);
+			}
+		}, rounds);
+	}
+}
@@ -0,0 +1,166 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.data.QueueStore;
+import org.lemming.interfaces.Localization;
+import org.lemming.processors.NMSFinder;
+import org.lemming.processors.PeakFinder;
+import org.lemming.processors.SingleInputSingleOutput;
+import org.lemming.utils.PixelArrays;
+
+/**
+ * Test class comparing the detectors on frames backed by a pixel array with the same frames behind a view. A view is not
+ * an ArrayImg, its pixels are copied through a cursor. Timings are taken by the PixelArraysBenchmark.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class PixelArraysTest {
+
+	static final int W = 256, H = 256, FRAMES = 20;
+
+	/** noise with bright spots, values above 32767 check the unsigned conversion */
+	static float[] movie(long seed) {
+		Random r = new Random(seed);
+		float[] p = new float[W * H * FRAMES];
+		for (int i = 0; i < p.length; i++)
+			p[i] = 30000 + r.nextInt(1000);
+		for (int f = 0; f < FRAMES; f++)
+			for (int s = 0; s < 40; s++) {
+				int x = 3 + r.nextInt(W - 6), y = 3 + r.nextInt(H - 6);
+				for (int dy = -2; dy <= 2; dy++)
+					for (int dx = -2; dx <= 2; dx++)
+						p[f * W * H + (y + dy) * W + x + dx] += (float) (5000 * Math.exp(-(dx * dx + dy * dy) / 2.0));
+			}
+		return p;
+	}
+
+	static List<ImgLib2Frame<UnsignedShortType>> shortFrames(float[] movie, boolean view) {
+		List<ImgLib2Frame<UnsignedShortType>> frames = new ArrayList<ImgLib2Frame<UnsignedShortType>>();
+		for (int f = 0; f < FRAMES; f++) {
+			short[] p = new short[W * H];
+			for (int i = 0; i < p.length; i++)
+				p[i] = (short) movie[f * W * H + i];
+			RandomAccessibleInterval<UnsignedShortType> img = ArrayImgs.unsignedShorts(p, W, H);
+			frames.add(new ImgLib2Frame<UnsignedShortType>(f, W, H, view ? Views.interval(img, img) : img));
+		}
+		return frames;
+	}
+
+	static List<ImgLib2Frame<FloatType>> floatFrames(float[] movie, boolean view) {
+		List<ImgLib2Frame<FloatType>> frames = new ArrayList<ImgLib2Frame<FloatType>>();
+		for (int f = 0; f < FRAMES; f++) {
+			float[] p = new float[W * H];
+			System.arraycopy(movie, f * W * H, p, 0, p.length);
+			RandomAccessibleInterval<FloatType> img = ArrayImgs.floats(p, W, H);
+			frames.add(new ImgLib2Frame<FloatType>(f, W, H, view ? Views.interval(img, img) : img));
+		}
+		return frames;
+	}
+
+	static <T extends RealType<T>> List<String> detect(SingleInputSingleOutput<ImgLib2Frame<T>, Localization> detector,
+			List<ImgLib2Frame<T>> frames) {
+		QueueStore<Localization> out = new QueueStore<Localization>();
+		detector.setOutput(out);
+		for (ImgLib2Frame<T> f : frames)
+			detector.process(f);
+		out.close();
+		List<String> found = new ArrayList<String>();
+		Localization l;
+		while ((l = out.get()) != null)
+			found.add(l.getX() + "," + l.getY());
+		return found;
+	}
+
+	@Test
+	public void testArrays() {
+		short[] s = new short[6];
+		float[] f = new float[6];
+		RandomAccessibleInterval<UnsignedShortType> shorts = ArrayImgs.unsignedShorts(s, 3, 2);
+		assertSame(s, PixelArrays.unsignedShorts(shorts));
+		assertNull(PixelArrays.floats(shorts));
+		assertNull(PixelArrays.unsignedShorts(Views.interval(shorts, shorts)));
+		assertSame(f, PixelArrays.floats(ArrayImgs.floats(f, 3, 2)));
+
+		for (int i = 0; i < s.length; i++)
+			s[i] = (short) (65535 - i);
+		float[] copy = PixelArrays.copyFloats(shorts, new float[6]);
+		assertArrayEquals(copy, PixelArrays.copyFloats(Views.interval(shorts, shorts), new float[6]), 0);
+		assertEquals(65535, copy[0], 0);
+		assertEquals(65530, copy[5], 0);
+	}
+
+	@Test
+	public void testNMSFinder() {
+		float[] movie = movie(1);
+		List<String> generic = detect(new NMSFinder<UnsignedShortType, ImgLib2Frame<UnsignedShortType>>(33000, 4),
+				shortFrames(movie, true));
+		List<String> shorts = detect(new NMSFinder<UnsignedShortType, ImgLib2Frame<UnsignedShortType>>(33000, 4),
+				shortFrames(movie, false));
+		assertFalse(generic.isEmpty());
+		assertEquals(generic, shorts);
+		generic = detect(new NMSFinder<FloatType, ImgLib2Frame<FloatType>>(33000, 4),
+				floatFrames(movie, true));
+		List<String> floats = detect(new NMSFinder<FloatType, ImgLib2Frame<FloatType>>(33000, 4),
+				floatFrames(movie, false));
+		assertEquals(generic, floats);
+	}
+
+	@Test
+	public void testPeakFinder() {
+		float[] movie = movie(2);
+		List<String> generic = detect(new PeakFinder<UnsignedShortType, ImgLib2Frame<UnsignedShortType>>(33000, 3),
+				shortFrames(movie, true));
+		List<String> shorts = detect(new PeakFinder<UnsignedShortType, ImgLib2Frame<UnsignedShortType>>(33000, 3),
+				shortFrames(movie, false));
+		assertFalse(generic.isEmpty());
+		assertEquals(generic, shorts);
+		generic = detect(new PeakFinder<FloatType, ImgLib2Frame<FloatType>>(33000, 3),
+				floatFrames(movie, true));
+		List<String> floats = detect(new PeakFinder<FloatType, ImgLib2Frame<FloatType>>(33000, 3),
+				floatFrames(movie, false));
+		assertEquals(generic, floats);
+	}
+
+	List<String> detectBorder(short[] p) {
+		float[] f = new float[p.length];
+		for (int i = 0; i < p.length; i++)
+			f[i] = p[i];
+		RandomAccessibleInterval<UnsignedShortType> shorts = ArrayImgs.unsignedShorts(p, 10, 10);
+		RandomAccessibleInterval<FloatType> floats = ArrayImgs.floats(f, 10, 10);
+		List<String> generic = detect(new NMSFinder<UnsignedShortType, ImgLib2Frame<UnsignedShortType>>(50, 2),
+				Arrays.asList(new ImgLib2Frame<UnsignedShortType>(0, 10, 10, Views.interval(shorts, shorts))));
+		assertEquals(generic, detect(new NMSFinder<UnsignedShortType, ImgLib2Frame<UnsignedShortType>>(50, 2),
+				Arrays.asList(new ImgLib2Frame<UnsignedShortType>(0, 10, 10, shorts))));
+		assertEquals(generic, detect(new NMSFinder<FloatType, ImgLib2Frame<FloatType>>(50, 2),
+				Arrays.asList(new ImgLib2Frame<FloatType>(0, 10, 10, floats))));
+		return generic;
+	}
+
+	@Test
+	public void testNMSFinderBorder() {
+		short[] p = new short[100];
+		p[2 * 10 + 2] = 100;
+		assertEquals(Arrays.asList("2.0,2.0"), detectBorder(p));
+		// a brighter pixel in column 0 or row 0 suppresses the peak
+		p[2 * 10] = 200;
+		assertTrue(detectBorder(p).isEmpty());
+		p[2 * 10] = 0;
+		p[2] = 200;
+		assertTrue(detectBorder(p).isEmpty());
+	}
+}
@@ -0,0 +1,62 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.lemming.data.QueueStore;
+import org.lemming.inputs.PrefetchingSource;
+import org.lemming.inputs.RandomLocalizer;
+import org.lemming.inputs.SingleOutput;
+import org.lemming.interfaces.Localization;
+
+/**
+ * Test class for reading ahead of a source on a separate thread.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class PrefetchingSourceTest {
+
+	static class FailingSource extends SingleOutput<Integer> {
+		int n;
+
+		@Override
+		public boolean hasMoreOutputs() {
+			return true;
+		}
+
+		@Override
+		protected Integer newOutput() {
+			if (++n > 10) throw new IllegalStateException("disk gone");
+			return n;
+		}
+	}
+
+	@Test
+	public void testAllOutputs() {
+		RandomLocalizer rl = new RandomLocalizer(1000, 256, 256);
+		PrefetchingSource<Localization> prefetch = new PrefetchingSource<Localization>(rl, 16);
+		QueueStore<Localization> out = new QueueStore<>();
+		prefetch.setOutput(out);
+		prefetch.run();
+
+		assertEquals(1000, out.getLength());
+		assertTrue(out.isClosed());
+		assertEquals(1000, prefetch.getReadMetrics().getElementsIn());
+		assertEquals(1000, prefetch.getMetrics().getElementsOut());
+	}
+
+	@Test
+	public void testFailure() {
+		PrefetchingSource<Integer> prefetch = new PrefetchingSource<Integer>(new FailingSource(), 4);
+		QueueStore<Integer> out = new QueueStore<>();
+		prefetch.setOutput(out);
+		try {
+			prefetch.run();
+			fail("failure of the reader not passed on");
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		assertEquals(10, out.getLength());
+		assertTrue(out.isClosed());
+	}
+}
@@ -2,6 +2,10 @@ package org.lemming.tests;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.lemming.data.QueueStore;
@@ -43,6 +47,26 @@ public class QueueStoreTest {
 		assertEquals(q.get(), (Integer) 1);
 	}
 
+	@Test
+	public void testPutAll() {
+		q.putAll(Arrays.asList(1, 2, 3));
+		
+		assertEquals(q.getLength(), 3);
+		assertEquals(q.get(), (Integer) 1);
+	}
+
+	@Test
+	public void testDrainTo() {
+		q.putAll(Arrays.asList(1, 2, 3));
+		List<Integer> buffer = new ArrayList<>();
+		
+		assertEquals(q.drainTo(buffer, 2), 2);
+		assertEquals(buffer, Arrays.asList(1, 2));
+		assertEquals(q.drainTo(buffer, 2), 1);
+		assertEquals(q.drainTo(buffer, 2), 0);
+		assertEquals(buffer.size(), 3);
+	}
+
 	@Test
 	public void testBlockingBehaviour() {
 		try{
@@ -69,6 +93,96 @@ public class QueueStoreTest {
 		}
 	}
 	
+	@Test
+	public void testCloseReleasesReader() throws InterruptedException {
+		final Integer[] result = { 0 };
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				result[0] = getQueue().get();
+			}
+		};
+		reader.start();
+		
+		q.close();
+		reader.join(1000);
+		
+		assertFalse(reader.isAlive());
+		assertNull(result[0]);
+		assertTrue(q.isClosed());
+	}
+
+	@Test
+	public void testCloseDrainsRemaining() {
+		q.put(1);
+		q.close();
+		
+		assertEquals(q.get(), (Integer) 1);
+		assertNull(q.get());
+	}
+
+	@Test
+	public void testCloseWakesAllReaders() throws InterruptedException {
+		q.put(1);
+		final List<Integer> results = new ArrayList<>();
+		Thread[] readers = new Thread[4];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread() {
+				@Override
+				public void run() {
+					Integer el = getQueue().get();
+					synchronized (results) {
+						results.add(el);
+					}
+				}
+			};
+			readers[i].start();
+		}
+		Thread.sleep(100);
+		
+		q.close();
+		for (Thread reader : readers)
+			reader.join(1000);
+		
+		assertEquals(Arrays.asList(1, null, null, null), sorted(results));
+		// the end of the stream does not show up as an element
+		assertTrue(q.isEmpty());
+		assertEquals(q.getLength(), 0);
+		assertEquals(q.drainTo(new ArrayList<Integer>(), 10), 0);
+		assertNull(q.get());
+	}
+
+	private static List<Integer> sorted(List<Integer> l) {
+		List<Integer> s = new ArrayList<>();
+		for (Integer i : l)
+			if (i != null) s.add(i);
+		while (s.size() < l.size())
+			s.add(null);
+		return s;
+	}
+
+	@Test
+	public void testDrainAfterClose() {
+		q.putAll(Arrays.asList(1, 2));
+		q.close();
+		List<Integer> buffer = new ArrayList<>();
+		
+		assertEquals(q.drainTo(buffer, 10), 2);
+		assertEquals(buffer, Arrays.asList(1, 2));
+		assertNull(q.get());
+	}
+
+	@Test
+	public void testProducerCounting() {
+		q.registerProducer();
+		q.registerProducer();
+		
+		q.close();
+		assertFalse(q.isClosed());
+		q.close();
+		assertTrue(q.isClosed());
+	}
+	
 	private QueueStore<Integer> getQueue() {
 		return q;
 	}
@@ -1,6 +1,7 @@
 package org.lemming.tests;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Before;
@@ -71,6 +72,8 @@ public class ROISelectProcessorTest {
 		
 		Roi circle = new EllipseRoi(15, 15, 85, 85, 1);
 		
+		localizations.close();
+		
 		roi = new ROISelectProcessor(circle);
 		roi.setInput(localizations);
 		roi.setOutput(filteredLocalizations);
@@ -82,4 +85,19 @@ public class ROISelectProcessorTest {
 		assertEquals(filteredLocalizations.get().getX(), 50, .001);
 	}
 
+	@Test
+	public void testParallelTasksKeepAll() {
+		final int N = 10000;
+		for (int i = 0; i < N; i++)
+			localizations.put(new XYLocalization(50, 100));
+		localizations.close();
+		
+		roi.setNumThreads();
+		roi.run();
+		
+		assertEquals(filteredLocalizations.getLength(), N);
+		assertTrue(filteredLocalizations.isClosed());
+		assertFalse(roi.hasMoreOutputs());
+	}
+
 }
@@ -0,0 +1,127 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+
+import org.junit.Test;
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.data.QueueStore;
+import org.lemming.processors.BackgroundSubstractor;
+
+/**
+ * Test class for the rolling ball background subtraction rolled over row bands in parallel.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class RollingBallTest {
+
+	static final int WIDTH = 61, HEIGHT = 53;
+
+	static float[] landscape(long seed) {
+		Random r = new Random(seed);
+		float[] p = new float[WIDTH * HEIGHT];
+		for (int y = 0; y < HEIGHT; y++)
+			for (int x = 0; x < WIDTH; x++)
+				p[y * WIDTH + x] = 200 + 2 * x + y + 10 * (float) r.nextGaussian() + (r.nextInt(30) == 0 ? 400 : 0);
+		return p;
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	static Object subtract(Object pixels, double radius, int bands) {
+		BackgroundSubstractor bs = new BackgroundSubstractor(radius, false, false);
+		bs.setBands(bands);
+		QueueStore<ImgLib2Frame<?>> out = new QueueStore<ImgLib2Frame<?>>();
+		bs.setOutput(out);
+		ArrayImg<?, ?> img = pixels instanceof float[] ? ArrayImgs.floats((float[]) pixels, WIDTH, HEIGHT)
+				: ArrayImgs.unsignedShorts((short[]) pixels, WIDTH, HEIGHT);
+		bs.process(new ImgLib2Frame(1, WIDTH, HEIGHT, img));
+		out.close();
+		return ((ArrayDataAccess<?>) ((ArrayImg<?, ?>) out.get().getPixels()).update(null)).getCurrentStorageArray();
+	}
+
+	// the background by definition: the highest ball surface below the image over all ball positions
+	static float[] bruteForce(float[] p, int halfWidth, double r) {
+		int bw = 2 * halfWidth + 1;
+		float[] ball = new float[bw * bw];
+		for (int y = 0; y < bw; y++)
+			for (int x = 0; x < bw; x++) {
+				double t = r * r - (x - halfWidth) * (x - halfWidth) - (y - halfWidth) * (y - halfWidth);
+				ball[y * bw + x] = t > 0 ? (float) Math.sqrt(t) : 0f;
+			}
+		float[] bg = new float[p.length];
+		java.util.Arrays.fill(bg, -Float.MAX_VALUE);
+		for (int cy = -halfWidth; cy < HEIGHT + halfWidth; cy++)
+			for (int cx = -halfWidth; cx < WIDTH + halfWidth; cx++) {
+				float z = Float.MAX_VALUE;
+				for (int by = 0; by < bw; by++)
+					for (int bx = 0; bx < bw; bx++) {
+						int x = cx + bx - halfWidth, y = cy + by - halfWidth;
+						if (x >= 0 && x < WIDTH && y >= 0 && y < HEIGHT)
+							z = Math.min(z, p[y * WIDTH + x] - ball[by * bw + bx]);
+					}
+				for (int by = 0; by < bw; by++)
+					for (int bx = 0; bx < bw; bx++) {
+						int x = cx + bx - halfWidth, y = cy + by - halfWidth;
+						if (x >= 0 && x < WIDTH && y >= 0 && y < HEIGHT)
+							bg[y * WIDTH + x] = Math.max(bg[y * WIDTH + x], z + ball[by * bw + bx]);
+					}
+			}
+		return bg;
+	}
+
+	@Test
+	public void testBruteForce() {
+		float[] p = landscape(1);
+		float[] bg = bruteForce(p, 4, 5); // radius 5: patch of 9x9, no shrinking
+		float[] result = (float[]) subtract(p.clone(), 5, 1);
+		for (int i = 0; i < p.length; i++)
+			assertEquals("pixel " + i, p[i] - bg[i], result[i], 1e-3);
+	}
+
+	@Test
+	public void testBands() {
+		float[] p = landscape(2);
+		for (double radius : new double[] { 5, 20, 50 }) {
+			float[] one = (float[]) subtract(p.clone(), radius, 1);
+			for (int bands : new int[] { 2, 3, 7, 0 }) {
+				float[] banded = (float[]) subtract(p.clone(), radius, bands);
+				for (int i = 0; i < p.length; i++)
+					assertEquals("radius " + radius + " bands " + bands + " pixel " + i, one[i], banded[i], 0f);
+			}
+		}
+	}
+
+	@Test
+	public void testShorts() {
+		float[] p = landscape(3);
+		short[] s = new short[p.length];
+		for (int i = 0; i < p.length; i++)
+			s[i] = (short) Math.round(p[i]);
+		short[] one = (short[]) subtract(s.clone(), 5, 1);
+		short[] banded = (short[]) subtract(s.clone(), 5, 4);
+		for (int i = 0; i < s.length; i++)
+			assertEquals(one[i], banded[i]);
+		float[] f = new float[s.length];
+		for (int i = 0; i < s.length; i++)
+			f[i] = s[i];
+		float[] floats = (float[]) subtract(f, 5, 1);
+		for (int i = 0; i < s.length; i++)
+			assertEquals(Math.max(0, Math.round(floats[i])), one[i]);
+	}
+
+	@Test
+	public void testUnsignedShortType() {
+		// the type only decides the output, values above 32767 are read unsigned
+		short[] s = new short[WIDTH * HEIGHT];
+		java.util.Arrays.fill(s, (short) 50000);
+		s[WIDTH * 20 + 30] = (short) 60000;
+		short[] out = (short[]) subtract(s, 5, 3);
+		assertEquals(10000, out[WIDTH * 20 + 30] & 0xffff);
+		assertEquals(0, out[0]);
+	}
+}
@@ -0,0 +1,126 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lemming.data.SPSCStore;
+import org.lemming.data.WaitStrategy;
+
+/**
+ * Test class for the single-producer/single-consumer Store.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class SPSCStoreTest {
+
+	SPSCStore<Integer> q;
+
+	@Before
+	public void setUp() throws Exception {
+		q = new SPSCStore<>(3);
+	}
+
+	@Test
+	public void testCapacity() {
+		assertEquals(4, q.getCapacity());
+		for (int i = 0; i < 4; i++)
+			assertTrue(q.offer(i));
+		assertFalse(q.offer(4));
+		assertEquals(4, q.getLength());
+	}
+
+	@Test
+	public void testFIFO() {
+		q.put(1);
+		q.put(2);
+
+		assertEquals((Integer) 1, q.get());
+		assertEquals((Integer) 2, q.get());
+		assertNull(q.poll());
+		assertTrue(q.isEmpty());
+	}
+
+	@Test
+	public void testDrainTo() {
+		q.putAll(Arrays.asList(1, 2, 3));
+		List<Integer> buffer = new ArrayList<>();
+
+		assertEquals(2, q.drainTo(buffer, 2));
+		assertEquals(Arrays.asList(1, 2), buffer);
+		assertEquals(1, q.drainTo(buffer, 10));
+		assertEquals(0, q.drainTo(buffer, 10));
+		assertTrue(q.offer(4));
+	}
+
+	@Test
+	public void testProducerConsumer() throws InterruptedException {
+		final int n = 100000;
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < n; i++)
+					q.put(i);
+			}
+		};
+		producer.start();
+
+		for (int i = 0; i < n; i++)
+			assertEquals((Integer) i, q.get());
+		producer.join();
+		assertTrue(q.isEmpty());
+	}
+
+	@Test
+	public void testClose() throws InterruptedException {
+		final SPSCStore<Integer> s = new SPSCStore<>(4, WaitStrategy.blocking());
+		s.registerProducer();
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				while (s.get() != null) {}
+			}
+		};
+		reader.start();
+		
+		s.put(1);
+		s.close();
+		reader.join(1000);
+		
+		assertFalse(reader.isAlive());
+		assertTrue(s.isEmpty());
+	}
+
+	@Test
+	public void testInterruptedPut() throws InterruptedException {
+		for (int i = 0; i < 4; i++)
+			q.put(i);
+
+		final AtomicBoolean interrupted = new AtomicBoolean();
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				q.putAll(Arrays.asList(100, 101));
+				interrupted.set(Thread.currentThread().isInterrupted());
+			}
+		};
+		producer.start();
+		Thread.sleep(100);
+		producer.interrupt();
+		Thread.sleep(100);
+		assertTrue(producer.isAlive()); // still waiting for space
+
+		for (int i = 0; i < 4; i++)
+			assertEquals((Integer) i, q.get());
+		producer.join(1000);
+		assertFalse(producer.isAlive());
+		assertTrue(interrupted.get());
+		assertEquals((Integer) 100, q.get()); // neither element is discarded
+		assertEquals((Integer) 101, q.get());
+	}
+}
@@ -0,0 +1,105 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lemming.data.QueueStore;
+import org.lemming.data.Scheduler;
+import org.lemming.data.XYLocalization;
+import org.lemming.interfaces.Localization;
+import org.lemming.processors.ROISelectProcessor;
+
+/**
+ * Test class for the Scheduler shared by the processors.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class SchedulerTest {
+
+	Scheduler s;
+
+	@Before
+	public void setUp() throws Exception {
+		s = new Scheduler(8);
+	}
+
+	@Test
+	public void testFairShare() {
+		Object a = new Object(), b = new Object();
+		s.register(a);
+		s.register(b);
+
+		assertEquals(4, s.getParallelism(a, 100));
+		assertEquals(2, s.getParallelism(b, 2));
+	}
+
+	@Test
+	public void testLimit() {
+		Object a = new Object(), b = new Object();
+		s.register(a);
+		s.register(b);
+		s.setParallelism(a, 2);
+
+		assertEquals(2, s.getParallelism(a, 100));
+		assertEquals(6, s.getParallelism(b, 100));
+	}
+
+	@Test
+	public void testAtLeastOne() {
+		for (int i = 0; i < 20; i++)
+			s.register(new Object());
+		Object a = new Object();
+		s.register(a);
+
+		assertEquals(1, s.getParallelism(a, 100));
+	}
+
+	@Test
+	public void testThreadsPerTask() {
+		Object a = new Object(), b = new Object();
+		s.register(a);
+		s.register(b);
+
+		assertEquals(2, s.getThreadsPerTask(a, 2));
+		assertEquals(1, s.getThreadsPerTask(b, 16));
+	}
+
+	@Test
+	public void testRegisteredWhileRunning() {
+		Object a = new Object();
+		s.register(a);
+		QueueStore<Localization> in = new QueueStore<>();
+		QueueStore<Localization> out = new QueueStore<>();
+		in.close();
+		ROISelectProcessor roi = new ROISelectProcessor(0, 200, 0, 200);
+		roi.setInput(in);
+		roi.setOutput(out);
+		roi.setScheduler(s);
+
+		// a processor that was not started does not take a share
+		assertEquals(8, s.getParallelism(a, 100));
+		roi.run();
+		assertEquals(8, s.getParallelism(a, 100));
+	}
+
+	@Test
+	public void testProcessorOnScheduler() {
+		QueueStore<Localization> in = new QueueStore<>();
+		QueueStore<Localization> out = new QueueStore<>();
+		for (int i = 0; i < 1000; i++)
+			in.put(new XYLocalization(50, 100));
+		in.close();
+
+		ROISelectProcessor roi = new ROISelectProcessor(0, 200, 0, 200);
+		roi.setInput(in);
+		roi.setOutput(out);
+		roi.setScheduler(s);
+		roi.setNumThreads(16);
+		roi.run();
+
+		assertEquals(16, roi.getNumThreads());
+		assertEquals(1000, out.getLength());
+		assertTrue(out.isClosed());
+	}
+}
@@ -0,0 +1,157 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lemming.data.BoundedStore;
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.data.QueueStore;
+import org.lemming.data.Scheduler;
+import org.lemming.processors.SingleInputSingleOutput;
+
+/**
+ * Test class for the parallel tasks of a SingleInputSingleOutput processor.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class SingleInputSingleOutputTest {
+
+	static final int N = 500;
+
+	/** emits every element twice after a random delay, so the tasks finish out of order */
+	static class SlowEcho extends SingleInputSingleOutput<Integer, Integer> {
+
+		@Override
+		public void process(Integer element) {
+			try {
+				Thread.sleep(new Random().nextInt(3));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			output.put(element);
+			output.put(element);
+		}
+
+		@Override
+		public boolean hasMoreOutputs() {
+			return true;
+		}
+	}
+
+	/** emits the frame number of every frame after a random delay */
+	static class FrameNumbers extends SingleInputSingleOutput<ImgLib2Frame<UnsignedShortType>, Long> {
+
+		@Override
+		public void process(ImgLib2Frame<UnsignedShortType> element) {
+			try {
+				Thread.sleep(new Random().nextInt(3));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			output.put(element.getFrameNumber());
+		}
+
+		@Override
+		public boolean hasMoreOutputs() {
+			return true;
+		}
+	}
+
+	QueueStore<Integer> in, out;
+	SlowEcho echo;
+
+	@Before
+	public void setUp() throws Exception {
+		in = new QueueStore<>();
+		out = new QueueStore<>();
+		for (int i = 0; i < N; i++)
+			in.put(i);
+		in.close();
+
+		echo = new SlowEcho();
+		echo.setInput(in);
+		echo.setOutput(out);
+		echo.setScheduler(new Scheduler(4));
+		echo.setNumThreads(4);
+	}
+
+	@Test
+	public void testAllElements() {
+		echo.run();
+
+		assertEquals(2 * N, out.getLength());
+		assertTrue(out.isClosed());
+	}
+
+	@Test
+	public void testPreserveOrder() {
+		echo.setPreserveOrder(16);
+		echo.run();
+
+		assertEquals(2 * N, out.getLength());
+		for (int i = 0; i < N; i++) {
+			assertEquals((Integer) i, out.get());
+			assertEquals((Integer) i, out.get());
+		}
+		assertTrue(out.isClosed());
+	}
+
+	@Test
+	public void testFrameOrder() {
+		// frames 1..N shuffled in blocks of 8, as a source reading on several threads delivers them
+		List<Long> numbers = new ArrayList<>();
+		for (long i = 1; i <= N; i++)
+			numbers.add(i);
+		for (int i = 0; i < N; i += 8)
+			Collections.shuffle(numbers.subList(i, Math.min(N, i + 8)), new Random(i));
+		QueueStore<ImgLib2Frame<UnsignedShortType>> frames = new QueueStore<>();
+		for (long n : numbers)
+			frames.put(new ImgLib2Frame<UnsignedShortType>(n, 1, 1, ArrayImgs.unsignedShorts(1, 1)));
+		frames.close();
+
+		QueueStore<Long> result = new QueueStore<>();
+		FrameNumbers p = new FrameNumbers();
+		p.setInput(frames);
+		p.setOutput(result);
+		p.setScheduler(new Scheduler(4));
+		p.setNumThreads(4);
+		p.setPreserveOrder(16);
+		p.run();
+
+		assertEquals(N, result.getLength());
+		for (long i = 1; i <= N; i++)
+			assertEquals((Long) i, result.get());
+	}
+
+	@Test
+	public void testBoundedTarget() throws InterruptedException {
+		final BoundedStore<Integer> bounded = new BoundedStore<>(2);
+		echo.setOutput(bounded);
+		echo.setPreserveOrder(16);
+		final List<Integer> received = new ArrayList<>();
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				Integer el;
+				while ((el = bounded.get()) != null)
+					received.add(el);
+			}
+		};
+		reader.start();
+		echo.run();
+		reader.join(5000);
+
+		assertEquals(2 * N, received.size());
+		for (int i = 0; i < 2 * N; i++)
+			assertEquals((Integer) (i / 2), received.get(i));
+	}
+}
@@ -0,0 +1,74 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.junit.Test;
+import org.lemming.data.FittedLocalization;
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.data.QueueStore;
+import org.lemming.interfaces.Localization;
+import org.lemming.processors.NMSFinder;
+import org.lemming.processors.SubpixelFitter;
+
+/**
+ * Test class for the subpixel fits of the candidates of a detector.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class SubpixelFitterTest {
+
+	void check(boolean fixedSigma, double gain) {
+		double[][] spots = GaussianBatchFitterTest.grid(8, 16, 10, 2000, 0, 1.3, 1, 7);
+		float[] mean = GaussianBatchFitterTest.frame(128, 128, spots, 0, 7);
+		SubpixelFitter<UnsignedShortType, ImgLib2Frame<UnsignedShortType>> fitter = new SubpixelFitter<UnsignedShortType, ImgLib2Frame<UnsignedShortType>>(
+				new NMSFinder<UnsignedShortType, ImgLib2Frame<UnsignedShortType>>((float) (60 * gain), 4), 4, 1.3, fixedSigma);
+		fitter.setGain(gain);
+		QueueStore<Localization> out = new QueueStore<Localization>();
+		fitter.setOutput(out);
+		int frames = 3;
+		for (int t = 0; t < frames; t++) {
+			float[] counts = GaussianBatchFitterTest.poisson(mean, t);
+			short[] pixels = new short[counts.length];
+			for (int i = 0; i < counts.length; i++)
+				pixels[i] = (short) (gain * counts[i]);
+			fitter.process(new ImgLib2Frame<UnsignedShortType>(t, 128, 128, ArrayImgs.unsignedShorts(pixels, 128, 128)));
+		}
+		out.close();
+
+		int found = 0;
+		while (!out.isEmpty()) {
+			FittedLocalization l = (FittedLocalization) out.get();
+			double best = Double.MAX_VALUE;
+			for (double[] s : spots)
+				best = Math.min(best, Math.hypot(l.getX() - s[1], l.getY() - s[2]));
+			assertTrue("distance " + best, best < 0.3);
+			assertEquals(2000, l.getIntensity(), 300);
+			assertEquals(10, l.getBackground(), 3);
+			assertEquals(1.3, l.getSigmaX(), fixedSigma ? 0 : 0.15);
+			assertEquals(l.getSigmaX(), l.getSigmaY(), 0);
+			assertTrue(l.getPrecisionX() > 0.01 && l.getPrecisionX() < 0.1);
+			assertTrue(l.getPrecisionY() > 0.01 && l.getPrecisionY() < 0.1);
+			found++;
+		}
+		assertEquals(frames * spots.length, found);
+		assertEquals(found, fitter.getFitter().getFits() - fitter.getFitter().getFailures());
+	}
+
+	@Test
+	public void testFixedSigma() {
+		check(true, 1);
+	}
+
+	@Test
+	public void testSigma() {
+		check(false, 1);
+	}
+
+	@Test
+	public void testGain() {
+		check(true, 2.5);
+	}
+}
@@ -0,0 +1,209 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lemming.data.BufferPool;
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.data.QueueStore;
+import org.lemming.inputs.TIFFStreamLoader;
+
+/**
+ * Test class for streaming the planes of TIFF files.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class TIFFStreamLoaderTest {
+
+	static final int W = 4, H = 3;
+
+	File tif;
+
+	@Before
+	public void setUp() throws Exception {
+		tif = File.createTempFile("lemming", ".tif");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		tif.delete();
+	}
+
+	static int value(int plane, int pixel) {
+		return plane * 20 + pixel;
+	}
+
+	/** writes the pixels of all planes, then one directory per plane or only one for the first plane */
+	void write(boolean bigTiff, ByteOrder order, int bits, int planes, int rowsPerStrip, String description, boolean allDirectories)
+			throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(1 << 16).order(order);
+		b.put((byte) (order == ByteOrder.LITTLE_ENDIAN ? 'I' : 'M')).put((byte) (order == ByteOrder.LITTLE_ENDIAN ? 'I' : 'M'));
+		int nextPos;
+		if (bigTiff) {
+			b.putShort((short) 43).putShort((short) 8).putShort((short) 0);
+			nextPos = b.position();
+			b.putLong(0);
+		} else {
+			b.putShort((short) 42);
+			nextPos = b.position();
+			b.putInt(0);
+		}
+
+		int strips = (H + rowsPerStrip - 1) / rowsPerStrip;
+		long[][] offsets = new long[planes][strips];
+		long[][] counts = new long[planes][strips];
+		for (int p = 0; p < planes; p++)
+			for (int s = 0; s < strips; s++) {
+				offsets[p][s] = b.position();
+				for (int y = s * rowsPerStrip; y < Math.min(H, (s + 1) * rowsPerStrip); y++)
+					for (int x = 0; x < W; x++) {
+						int v = value(p, y * W + x);
+						if (bits == 8) b.put((byte) v);
+						else if (bits == 16) b.putShort((short) v);
+						else b.putFloat(v);
+					}
+				counts[p][s] = b.position() - offsets[p][s];
+			}
+
+		int inline = bigTiff ? 8 : 4;
+		int longType = bigTiff ? 16 : 4;
+		for (int p = 0; p < (allDirectories ? planes : 1); p++) {
+			long offArray = offsets[p][0], cntArray = counts[p][0];
+			if (strips * inline > inline) {
+				offArray = b.position();
+				for (long o : offsets[p]) putOffset(b, bigTiff, o);
+				cntArray = b.position();
+				for (long c : counts[p]) putOffset(b, bigTiff, c);
+			}
+			byte[] desc = description == null ? null : (description + "\0").getBytes("ISO-8859-1");
+			long descValue = 0;
+			if (desc != null && desc.length > inline) {
+				descValue = b.position();
+				b.put(desc);
+			}
+
+			int ifd = b.position();
+			if (bigTiff) b.putLong(nextPos, ifd); else b.putInt(nextPos, ifd);
+			int entries = 8 + (desc != null ? 1 : 0);
+			if (bigTiff) b.putLong(entries); else b.putShort((short) entries);
+			entry(b, bigTiff, 256, 3, 1, W);
+			entry(b, bigTiff, 257, 3, 1, H);
+			entry(b, bigTiff, 258, 3, 1, bits);
+			entry(b, bigTiff, 259, 3, 1, 1);
+			if (desc != null) entry(b, bigTiff, 270, 2, desc.length, descValue);
+			entry(b, bigTiff, 273, longType, strips, offArray);
+			entry(b, bigTiff, 277, 3, 1, 1);
+			entry(b, bigTiff, 279, longType, strips, cntArray);
+			entry(b, bigTiff, 339, 3, 1, bits == 32 ? 3 : 1);
+			nextPos = b.position();
+			putOffset(b, bigTiff, 0);
+		}
+
+		FileOutputStream out = new FileOutputStream(tif);
+		out.write(b.array(), 0, b.position());
+		out.close();
+	}
+
+	static void putOffset(ByteBuffer b, boolean bigTiff, long v) {
+		if (bigTiff) b.putLong(v); else b.putInt((int) v);
+	}
+
+	static void entry(ByteBuffer b, boolean bigTiff, int tag, int type, long count, long value) {
+		b.putShort((short) tag).putShort((short) type);
+		if (bigTiff) b.putLong(count); else b.putInt((int) count);
+		int start = b.position();
+		if (type == 3 && count == 1) b.putShort((short) value);
+		else putOffset(b, bigTiff, value);
+		b.position(start + (bigTiff ? 8 : 4));
+	}
+
+	@SuppressWarnings("rawtypes")
+	static Object storage(Img img) {
+		return ((ArrayDataAccess) ((ArrayImg) img).update(null)).getCurrentStorageArray();
+	}
+
+	@Test
+	public void testClassicLittleEndianStrips() throws IOException {
+		write(false, ByteOrder.LITTLE_ENDIAN, 16, 3, 2, null, true);
+		TIFFStreamLoader<UnsignedShortType> loader = new TIFFStreamLoader<UnsignedShortType>(tif.getPath());
+		QueueStore<ImgLib2Frame<UnsignedShortType>> frames = new QueueStore<>();
+		loader.setOutput(frames);
+		loader.run();
+
+		assertEquals(3, frames.getLength());
+		ImgLib2Frame<UnsignedShortType> f = frames.get();
+		assertEquals(1, f.getFrameNumber());
+		assertEquals(W, f.getWidth());
+		assertEquals(H, f.getHeight());
+		frames.get();
+		f = frames.get();
+		assertTrue(frames.isEmpty());
+		short[] s = (short[]) storage((Img<?>) f.getPixels());
+		for (int i = 0; i < W * H; i++)
+			assertEquals(value(2, i), s[i]);
+	}
+
+	@Test
+	public void testRandomAccess() throws IOException {
+		write(true, ByteOrder.BIG_ENDIAN, 16, 4, 1, "OME", true);
+		TIFFStreamLoader<UnsignedShortType> loader = new TIFFStreamLoader<UnsignedShortType>(tif.getPath());
+		assertTrue(loader.hasPlane(3));
+		assertFalse(loader.hasPlane(4));
+		short[] s = (short[]) storage(loader.readPlane(2));
+		for (int i = 0; i < W * H; i++)
+			assertEquals(value(2, i), s[i]);
+		loader.close();
+	}
+
+	@Test
+	public void testPooledFrames() throws IOException {
+		write(false, ByteOrder.LITTLE_ENDIAN, 16, 3, 1, null, true);
+		TIFFStreamLoader<UnsignedShortType> loader = new TIFFStreamLoader<UnsignedShortType>(tif.getPath());
+		BufferPool pool = new BufferPool(2);
+		loader.setBufferPool(pool);
+		ImgLib2Frame<UnsignedShortType> f = loader.readFrame(0, 1);
+		short[] first = (short[]) storage((Img<?>) f.getPixels());
+		f.release();
+		f = loader.readFrame(1, 2);
+		short[] s = (short[]) storage((Img<?>) f.getPixels());
+		assertSame(first, s);
+		assertEquals(1, pool.getAllocated());
+		assertEquals(1, pool.getReused());
+		for (int i = 0; i < W * H; i++)
+			assertEquals(value(1, i), s[i]);
+		loader.close();
+	}
+
+	@Test
+	public void testImageJContiguous() throws IOException {
+		write(false, ByteOrder.BIG_ENDIAN, 8, 5, 3, "ImageJ=1.49\nimages=5\nslices=5\n", false);
+		TIFFStreamLoader<UnsignedShortType> loader = new TIFFStreamLoader<UnsignedShortType>(tif.getPath());
+		assertTrue(loader.hasPlane(4));
+		assertFalse(loader.hasPlane(5));
+		byte[] b = (byte[]) storage(loader.readPlane(4));
+		for (int i = 0; i < W * H; i++)
+			assertEquals(value(4, i), b[i]);
+		loader.close();
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotTiff() throws IOException {
+		FileOutputStream out = new FileOutputStream(tif);
+		out.write(new byte[64]);
+		out.close();
+		new TIFFStreamLoader<UnsignedShortType>(tif.getPath()).open();
+	}
+}
@@ -0,0 +1,102 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.junit.Test;
+import org.lemming.data.ImgLib2Frame;
+import org.lemming.data.QueueStore;
+import org.lemming.processors.TemporalMedianBackground;
+import org.lemming.utils.TemporalMedian;
+
+/**
+ * Test class for the running temporal percentile and the background subtraction based on it.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class TemporalMedianTest {
+
+	static int expected(short[][] frames, int last, int window, int pixel, double percentile) {
+		int from = Math.max(0, last - window + 1);
+		int[] v = new int[last - from + 1];
+		for (int t = from; t <= last; t++)
+			v[t - from] = frames[t][pixel] & 0xffff;
+		Arrays.sort(v);
+		return v[(int) (percentile * (v.length - 1))];
+	}
+
+	void check(int window, double percentile, long seed) {
+		Random r = new Random(seed);
+		int n = 50, frames = 300;
+		short[][] movie = new short[frames][n];
+		for (int t = 0; t < frames; t++)
+			for (int p = 0; p < n; p++) {
+				int background = 1000 + p * 300 + t * (p % 3);	// some pixels drift out of the band
+				if (t > 150 && p % 5 == 0) background += 5000;	// a step
+				int v = background + (int) (r.nextGaussian() * 20) + (r.nextInt(10) == 0 ? 3000 : 0);
+				movie[t][p] = (short) Math.max(0, Math.min(65535, v));
+			}
+		TemporalMedian median = new TemporalMedian(n, window, percentile);
+		for (int t = 0; t < frames; t++) {
+			median.add(movie[t]);
+			assertEquals(Math.min(t + 1, window), median.getCount());
+			for (int p = 0; p < n; p++)
+				assertEquals("frame " + t + " pixel " + p, expected(movie, t, window, p, percentile), median.getValues()[p]);
+		}
+		// the band is rebuilt when the background jumps, not for the noise
+		if (window > 2)
+			assertTrue(median.getRebuilds() < n * frames / 10);
+	}
+
+	@Test
+	public void testMedian() {
+		check(1, 0.5, 1);
+		check(2, 0.5, 2);
+		check(21, 0.5, 3);
+		check(100, 0.5, 4);
+		check(280, 0.5, 8); // 16 bit bins
+	}
+
+	@Test
+	public void testPercentile() {
+		check(30, 0.1, 5);
+		check(30, 0, 6);
+		check(30, 1, 7);
+	}
+
+	@Test
+	public void testProcessor() {
+		TemporalMedianBackground<UnsignedShortType, ImgLib2Frame<UnsignedShortType>> bg = new TemporalMedianBackground<UnsignedShortType, ImgLib2Frame<UnsignedShortType>>(5);
+		QueueStore<ImgLib2Frame<UnsignedShortType>> out = new QueueStore<ImgLib2Frame<UnsignedShortType>>();
+		bg.setOutput(out);
+		for (int t = 0; t < 10; t++) {
+			short[] p = new short[4];
+			Arrays.fill(p, (short) (100 + t % 2));
+			p[1] = (short) (t == 7 ? 500 : 100);
+			ImgLib2Frame<UnsignedShortType> f = new ImgLib2Frame<UnsignedShortType>(t, 2, 2, ArrayImgs.unsignedShorts(p, 2, 2));
+			f.setLast(t == 9);
+			bg.process(f);
+		}
+		out.close();
+		for (int t = 0; t < 10; t++) {
+			ImgLib2Frame<UnsignedShortType> f = out.get();
+			short[] p = (short[]) ((net.imglib2.img.basictypeaccess.array.ArrayDataAccess<?>) ((net.imglib2.img.array.ArrayImg<?, ?>) f.getPixels()).update(null)).getCurrentStorageArray();
+			assertEquals(t, f.getFrameNumber());
+			assertEquals(t == 7 ? 400 : 0, p[1]);
+			assertEquals(t == 9, f.isLast());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testFrameSize() {
+		TemporalMedianBackground<UnsignedShortType, ImgLib2Frame<UnsignedShortType>> bg = new TemporalMedianBackground<UnsignedShortType, ImgLib2Frame<UnsignedShortType>>(5);
+		bg.setOutput(new QueueStore<ImgLib2Frame<UnsignedShortType>>());
+		bg.process(new ImgLib2Frame<UnsignedShortType>(0, 2, 2, ArrayImgs.unsignedShorts(2, 2)));
+		bg.process(new ImgLib2Frame<UnsignedShortType>(1, 4, 1, ArrayImgs.unsignedShorts(4, 1)));
+	}
+}
@@ -0,0 +1,120 @@
+package org.lemming.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.lemming.data.FastStore;
+import org.lemming.data.MPMCStore;
+import org.lemming.data.SPSCStore;
+import org.lemming.data.WaitStrategy;
+import org.lemming.interfaces.Store;
+
+/**
+ * Test class for the wait strategies of the stores.
+ *
+ */
+@SuppressWarnings("javadoc")
+public class WaitStrategyTest {
+
+	private void putLater(final Store<Integer> store, final int value) {
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					return;
+				}
+				store.put(value);
+			}
+		}.start();
+	}
+
+	@Test
+	public void testParking() {
+		WaitStrategy strategy = WaitStrategy.park();
+		FastStore<Integer> store = new FastStore<>(strategy);
+		putLater(store, 1);
+
+		assertEquals((Integer) 1, store.get());
+		assertTrue(strategy.getParkedNanos() > 100000000L);
+	}
+
+	@Test
+	public void testBlocking() {
+		WaitStrategy strategy = WaitStrategy.blocking();
+		SPSCStore<Integer> store = new SPSCStore<>(4, strategy);
+		putLater(store, 2);
+
+		assertEquals((Integer) 2, store.get());
+		assertEquals(0, strategy.getSpinIterations());
+		assertTrue(strategy.getParkedNanos() > 100000000L);
+	}
+
+	@Test
+	public void testSpinYield() {
+		WaitStrategy strategy = WaitStrategy.spinYield();
+		FastStore<Integer> store = new FastStore<>(strategy);
+		putLater(store, 3);
+
+		assertEquals((Integer) 3, store.get());
+		assertTrue(strategy.getSpinIterations() > 0);
+		assertEquals(0, strategy.getParkedNanos());
+	}
+
+	@Test
+	public void testInterrupt() throws InterruptedException {
+		final FastStore<Integer> store = new FastStore<>(WaitStrategy.blocking());
+		final Integer[] result = new Integer[]{ -1 };
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				result[0] = store.get();
+			}
+		};
+		reader.start();
+		Thread.sleep(100);
+		reader.interrupt();
+		reader.join(1000);
+
+		assertFalse(reader.isAlive());
+		assertNull(result[0]);
+	}
+
+	// one element in flight: every get waits on an empty store and depends on the signal of the put that follows
+	private void pingPong(final Store<Integer> ping, final Store<Integer> pong, final int rounds) throws InterruptedException {
+		final int[] received = new int[1];
+		Thread echo = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < rounds; i++)
+					pong.put(ping.get());
+			}
+		};
+		Thread client = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < rounds; i++) {
+					ping.put(i);
+					if (pong.get() == i) received[0]++;
+				}
+			}
+		};
+		echo.start();
+		client.start();
+		client.join(60000);
+		echo.join(1000);
+		assertFalse("stalled after " + received[0] + " rounds", client.isAlive() || echo.isAlive());
+		assertEquals(rounds, received[0]);
+	}
+
+	@Test
+	public void testBlockingStressSPSC() throws InterruptedException {
+		pingPong(new SPSCStore<Integer>(1, WaitStrategy.blocking()), new SPSCStore<Integer>(1, WaitStrategy.blocking()), 200000);
+	}
+
+	@Test
+	public void testBlockingStressMPMC() throws InterruptedException {
+		pingPong(new MPMCStore<Integer>(2, WaitStrategy.blocking()), new MPMCStore<Integer>(2, WaitStrategy.blocking()), 200000);
+	}
+}